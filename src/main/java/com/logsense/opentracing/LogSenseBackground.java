@@ -0,0 +1,33 @@
+package com.logsense.opentracing;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One daemon thread for the short one-off jobs that must not run on the caller's thread, such as starting a tracer.
+ * Jobs run one at a time in the order they were handed in; the thread goes away when there is nothing left to do.
+ */
+final class LogSenseBackground {
+    private static final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "logsense-background");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private LogSenseBackground() {
+    }
+
+    static void execute(Runnable job) {
+        executor.execute(job);
+    }
+}
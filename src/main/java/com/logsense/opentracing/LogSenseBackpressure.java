@@ -0,0 +1,175 @@
+package com.logsense.opentracing;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * What the tracer does with a finished span when its queue is full, and the counters that show how often
+ * it happened.
+ */
+public final class LogSenseBackpressure {
+    private static final Logger log = Logger.getLogger(LogSenseBackpressure.class.getName());
+
+    /**
+     * Lowest fraction of the configured sampling rate {@link Policy#DEGRADE_SAMPLING} goes down to
+     */
+    static final double MIN_SAMPLING_FACTOR = 1.0 / 1024;
+
+    public enum Policy {
+        /**
+         * The span that does not fit is dropped; cheapest, keeps the oldest data
+         */
+        DROP_NEWEST("drop-newest"),
+        /**
+         * The oldest queued span makes room for the new one
+         */
+        DROP_OLDEST("drop-oldest"),
+        /**
+         * The finishing thread waits up to the block timeout for room, then the span is dropped. For batch
+         * jobs that would rather slow down than lose spans.
+         */
+        BLOCK("block"),
+        /**
+         * Like {@link #DROP_NEWEST}, and every time the queue fills up the sampling rate is halved; it is doubled
+         * again after each drain that found the queue less than half full
+         */
+        DEGRADE_SAMPLING("degrade-sampling");
+
+        private final String policyName;
+
+        Policy(String policyName) {
+            this.policyName = policyName;
+        }
+
+        public String getPolicyName() {
+            return policyName;
+        }
+
+        public static Policy forName(String name) {
+            if (name != null) {
+                for (Policy policy : values()) {
+                    if (policy.policyName.equalsIgnoreCase(name.trim())) {
+                        return policy;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Notified when the queue becomes full, once per saturation rather than once per span. Called on the
+     * thread that finished the span, so it must be quick.
+     */
+    public interface Listener {
+        void onSaturated(Policy policy, int queueSize);
+    }
+
+    private final Policy policy;
+    private final long blockTimeoutMillis;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong blocked = new AtomicLong();
+    private final AtomicLong saturations = new AtomicLong();
+    private volatile double samplingFactor = 1.0;
+    private boolean saturated;
+
+    LogSenseBackpressure(Policy policy, long blockTimeoutMillis) {
+        this.policy = policy;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    static LogSenseBackpressure from(LogSenseConfig config) {
+        return new LogSenseBackpressure(config.getBackpressurePolicy(), config.getBackpressureBlockTimeoutMillis());
+    }
+
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    public long getBlockTimeoutMillis() {
+        return blockTimeoutMillis;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return number of spans lost to a full queue, the ones dropped by {@link Policy#DROP_OLDEST} included
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of spans that had to wait for room under {@link Policy#BLOCK}
+     */
+    public long getBlockedCount() {
+        return blocked.get();
+    }
+
+    public long getSaturationCount() {
+        return saturations.get();
+    }
+
+    /**
+     * @return fraction of the configured sampling rate currently in effect
+     */
+    public double getSamplingFactor() {
+        return samplingFactor;
+    }
+
+    void countDropped() {
+        dropped.incrementAndGet();
+    }
+
+    void countBlocked() {
+        blocked.incrementAndGet();
+    }
+
+    /**
+     * Called with the emitter's buffer lock held when a span finds the queue full
+     */
+    void onFull(int queueSize) {
+        if (saturated) {
+            return;
+        }
+        saturated = true;
+        saturations.incrementAndGet();
+        if (policy == Policy.DEGRADE_SAMPLING) {
+            samplingFactor = Math.max(MIN_SAMPLING_FACTOR, samplingFactor / 2);
+        }
+        for (Listener listener : listeners) {
+            try {
+                listener.onSaturated(policy, queueSize);
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "LogSense backpressure listener failed", e);
+            }
+        }
+    }
+
+    /**
+     * Called with the emitter's buffer lock held after each drain
+     */
+    void onDrained(int drained, int queueSize) {
+        saturated = false;
+        if (policy == Policy.DEGRADE_SAMPLING && samplingFactor < 1.0 && drained < queueSize / 2) {
+            samplingFactor = Math.min(1.0, samplingFactor * 2);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LogSenseBackpressure{policy=" + policy.getPolicyName() + ", dropped=" + dropped
+                + ", blocked=" + blocked + ", saturations=" + saturations + ", samplingFactor=" + samplingFactor + "}";
+    }
+}
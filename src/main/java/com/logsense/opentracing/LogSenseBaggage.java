@@ -0,0 +1,155 @@
+package com.logsense.opentracing;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable baggage. Every version is a node that points to the previous one, so a child context shares its
+ * parent's baggage without copying and a write costs one node. Newer nodes shadow older ones with the same key.
+ * The number of entries and their total UTF-8 size are bounded, a write that would exceed them is refused.
+ */
+public final class LogSenseBaggage implements Iterable<Map.Entry<String, String>> {
+    private final String key;
+    private final String value;
+    private final LogSenseBaggage next;
+    private final int maxEntries;
+    private final int maxBytes;
+    /**
+     * Number of distinct keys
+     */
+    private final int size;
+    private final int bytes;
+    /**
+     * Number of nodes, shadowed ones included
+     */
+    private final int length;
+
+    private LogSenseBaggage(int maxEntries, int maxBytes) {
+        this(null, null, null, maxEntries, maxBytes, 0, 0, 0);
+    }
+
+    private LogSenseBaggage(String key, String value, LogSenseBaggage next, int maxEntries, int maxBytes,
+                            int size, int bytes, int length) {
+        this.key = key;
+        this.value = value;
+        this.next = next;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.size = size;
+        this.bytes = bytes;
+        this.length = length;
+    }
+
+    static LogSenseBaggage empty(LogSenseSpanLimits limits) {
+        return new LogSenseBaggage(limits.getMaxBaggageEntries(), limits.getMaxBaggageBytes());
+    }
+
+    static LogSenseBaggage of(Map<String, String> items, LogSenseSpanLimits limits) {
+        LogSenseBaggage baggage = empty(limits);
+        if (items != null) {
+            for (Map.Entry<String, String> item : items.entrySet()) {
+                baggage = baggage.with(item.getKey(), item.getValue());
+            }
+        }
+        return baggage;
+    }
+
+    public String get(String key) {
+        for (LogSenseBaggage node = this; node.key != null; node = node.next) {
+            if (node.key.equals(key)) {
+                return node.value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a version with the item added or replaced; this very instance if the item does not fit the limits
+     */
+    public LogSenseBaggage with(String key, String value) {
+        if (key == null || value == null) {
+            return this;
+        }
+        String previous = get(key);
+        if (value.equals(previous)) {
+            return this;
+        }
+        int newSize = previous == null ? size + 1 : size;
+        int newBytes = previous == null
+                ? bytes + Util.utf8Length(key) + Util.utf8Length(value)
+                : bytes - Util.utf8Length(previous) + Util.utf8Length(value);
+        if (newSize > maxEntries || newBytes > maxBytes) {
+            return this;
+        }
+        LogSenseBaggage base = this;
+        if (length >= size * 2 && length >= 8) {
+            // Mostly overwritten values, drop the shadowed nodes rather than keep them forever
+            base = compact();
+        }
+        return new LogSenseBaggage(key, value, base, maxEntries, maxBytes, newSize, newBytes, base.length + 1);
+    }
+
+    private LogSenseBaggage compact() {
+        List<Map.Entry<String, String>> items = entries();
+        LogSenseBaggage compacted = new LogSenseBaggage(maxEntries, maxBytes);
+        for (int i = items.size() - 1; i >= 0; i--) {
+            Map.Entry<String, String> item = items.get(i);
+            compacted = new LogSenseBaggage(item.getKey(), item.getValue(), compacted, maxEntries, maxBytes,
+                    compacted.size + 1, compacted.bytes + Util.utf8Length(item.getKey()) + Util.utf8Length(item.getValue()),
+                    compacted.length + 1);
+        }
+        return compacted;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return UTF-8 size of all keys and values
+     */
+    public int getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the visible entries, newest first
+     */
+    private List<Map.Entry<String, String>> entries() {
+        if (size == 0) {
+            return Collections.emptyList();
+        }
+        List<Map.Entry<String, String>> entries = new ArrayList<>(size);
+        for (LogSenseBaggage node = this; node.key != null; node = node.next) {
+            if (length == size || !shadowed(node)) {
+                entries.add(new AbstractMap.SimpleImmutableEntry<>(node.key, node.value));
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * @return whether a newer node than the given one has the same key
+     */
+    private boolean shadowed(LogSenseBaggage node) {
+        for (LogSenseBaggage newer = this; newer != node; newer = newer.next) {
+            if (newer.key.equals(node.key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return entries().iterator();
+    }
+}
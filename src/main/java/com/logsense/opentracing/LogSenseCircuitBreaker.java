@@ -0,0 +1,109 @@
+package com.logsense.opentracing;
+
+import org.komamitsu.fluency.fluentd.ingester.sender.retry.RetryStrategy;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps track of consecutive send failures and decides whether the endpoint is worth trying at all.
+ *
+ * After {@code failureThreshold} consecutive failures the circuit opens and every request is rejected right away.
+ * Once the back-off interval has passed, a single probe is let through (half-open); its success closes the circuit,
+ * its failure opens it again with the next, longer, interval of the back-off strategy.
+ */
+public class LogSenseCircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final RetryStrategy backOff;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+    private final AtomicLong openedCount = new AtomicLong();
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private int consecutiveOpenings;
+    private long retryAtNanos;
+
+    public LogSenseCircuitBreaker(int failureThreshold, RetryStrategy backOff) {
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.backOff = backOff;
+    }
+
+    /**
+     * @return true if the caller may attempt a request now; every true must be followed by
+     * {@link #onSuccess()} or {@link #onFailure()}
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.nanoTime() - retryAtNanos >= 0) {
+                    state = State.HALF_OPEN;
+                    return true;
+                }
+                break;
+            default:
+                // A probe is already in flight
+                break;
+        }
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        state = State.CLOSED;
+        consecutiveFailures = 0;
+        consecutiveOpenings = 0;
+    }
+
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            long intervalMillis = backOff.getNextIntervalMillis(consecutiveOpenings);
+            // Keep the exponent from overflowing, the strategy caps the interval anyway
+            consecutiveOpenings = Math.min(consecutiveOpenings + 1, 30);
+            retryAtNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+            state = State.OPEN;
+            openedCount.incrementAndGet();
+        }
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return milliseconds until the next probe is allowed, 0 unless the circuit is open
+     */
+    public synchronized long getRetryDelayMillis() {
+        if (state != State.OPEN) {
+            return 0;
+        }
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(retryAtNanos - System.nanoTime()));
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    public long getOpenedCount() {
+        return openedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "LogSenseCircuitBreaker{state=" + getState() + ", failureThreshold=" + failureThreshold
+                + ", rejected=" + rejectedCount + ", opened=" + openedCount + "}";
+    }
+}
@@ -0,0 +1,25 @@
+package com.logsense.opentracing;
+
+/**
+ * Time source of a tracer. Spans read {@link #nanoTime()} when they start and finish and turn the readings into
+ * epoch microseconds with {@link #toEpochMicros(long)}, so that durations and timestamps come from one clock
+ * and timestamps within a span never go backwards.
+ */
+public interface LogSenseClock {
+    /**
+     * @return a monotonic reading in nanoseconds, only meaningful relative to other readings of the same clock
+     */
+    long nanoTime();
+
+    /**
+     * @return epoch microseconds of a {@link #nanoTime()} reading
+     */
+    long toEpochMicros(long nanoTime);
+
+    /**
+     * @return the current time in epoch microseconds
+     */
+    default long nowMicros() {
+        return toEpochMicros(nanoTime());
+    }
+}
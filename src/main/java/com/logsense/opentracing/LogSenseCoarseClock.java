@@ -0,0 +1,66 @@
+package com.logsense.opentracing;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A clock read from a field that a background thread refreshes every tick. Reading it costs a volatile load,
+ * at the price of tick-sized resolution for both timestamps and durations. Meant for services that start
+ * spans at very high rates.
+ */
+public class LogSenseCoarseClock implements LogSenseClock, Closeable {
+    private final LogSensePreciseClock source;
+    private final long tickNanos;
+    private final Thread ticker;
+
+    private volatile long cachedNanoTime;
+    private volatile boolean closed;
+
+    public LogSenseCoarseClock(long tickMillis, long resyncIntervalMillis) {
+        this(tickMillis, resyncIntervalMillis, true);
+    }
+
+    /**
+     * @param calibrate whether to settle the underlying precise clock right away, see {@link #calibrate()}
+     */
+    LogSenseCoarseClock(long tickMillis, long resyncIntervalMillis, boolean calibrate) {
+        this.source = new LogSensePreciseClock(resyncIntervalMillis, calibrate);
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        this.cachedNanoTime = source.nanoTime();
+        this.ticker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!closed) {
+                    LockSupport.parkNanos(tickNanos);
+                    cachedNanoTime = source.nanoTime();
+                }
+            }
+        }, "logsense-clock");
+        this.ticker.setDaemon(true);
+        this.ticker.start();
+    }
+
+    /**
+     * @see LogSensePreciseClock#calibrate()
+     */
+    void calibrate() {
+        source.calibrate();
+    }
+
+    @Override
+    public long nanoTime() {
+        return cachedNanoTime;
+    }
+
+    @Override
+    public long toEpochMicros(long nanoTime) {
+        return source.toEpochMicros(nanoTime);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(ticker);
+    }
+}
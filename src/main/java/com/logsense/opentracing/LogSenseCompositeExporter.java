@@ -0,0 +1,96 @@
+package com.logsense.opentracing;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hands the same spans to several exporters, in the order given. The spans are not copied, each exporter gets the
+ * same list and models. A failing exporter does not keep the others from getting the spans.
+ */
+public final class LogSenseCompositeExporter implements LogSenseExporter {
+    private final List<LogSenseExporter> exporters;
+
+    public LogSenseCompositeExporter(LogSenseExporter... exporters) {
+        this(Arrays.asList(exporters));
+    }
+
+    public LogSenseCompositeExporter(List<? extends LogSenseExporter> exporters) {
+        if (exporters.isEmpty()) {
+            throw new IllegalArgumentException("At least one exporter is needed");
+        }
+        this.exporters = Collections.unmodifiableList(new ArrayList<LogSenseExporter>(exporters));
+    }
+
+    public List<LogSenseExporter> getExporters() {
+        return exporters;
+    }
+
+    /**
+     * @throws IOException the failure of the first exporter that failed, the others' added as suppressed
+     */
+    @Override
+    public void export(LogSenseResource resource, List<LogSenseSpanModel> spans) throws IOException {
+        List<LogSenseSpanModel> shared = Collections.unmodifiableList(spans);
+        IOException failure = null;
+        for (LogSenseExporter exporter : exporters) {
+            try {
+                exporter.export(resource, shared);
+            } catch (IOException | RuntimeException e) {
+                failure = addFailure(failure, e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        IOException failure = null;
+        for (LogSenseExporter exporter : exporters) {
+            try {
+                exporter.flush();
+            } catch (IOException | RuntimeException e) {
+                failure = addFailure(failure, e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public long getBufferedBytes() {
+        long buffered = 0;
+        for (LogSenseExporter exporter : exporters) {
+            buffered += exporter.getBufferedBytes();
+        }
+        return buffered;
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (LogSenseExporter exporter : exporters) {
+            try {
+                exporter.close();
+            } catch (IOException | RuntimeException e) {
+                failure = addFailure(failure, e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static IOException addFailure(IOException failure, Exception e) {
+        if (failure == null) {
+            return e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        failure.addSuppressed(e);
+        return failure;
+    }
+}
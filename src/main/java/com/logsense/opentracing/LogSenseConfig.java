@@ -2,7 +2,13 @@ package com.logsense.opentracing;
 
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
 
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -44,27 +50,56 @@ public class LogSenseConfig {
             }
         }
 
+        /**
+         * @return the value given explicitly (in properties or, for the global properties, in the environment),
+         * null when it was left to defaults
+         */
+        private String getExplicitValue(final Properties prop) {
+            String valueMaybe = prop.getProperty(propertyName, null);
+            if (null == valueMaybe && prop == System.getProperties() && envName != null) {
+                valueMaybe = System.getenv(envName);
+            }
+            if (valueMaybe == null || valueMaybe.trim().isEmpty()) {
+                return null;
+            }
+            return valueMaybe.trim();
+        }
+
         private Integer getIntegerValue(final Properties prop) {
             return getIntegerValue(prop, null);
         }
 
+        private Integer getIntegerValue(final Properties prop, String customDefaultValue) {
+            try {
+                return Integer.parseInt(getPropertyValue(prop, customDefaultValue).trim());
+            } catch (NumberFormatException nfe) {
+                log.warning(String.format("Ignoring invalid value of %s: %s", propertyName, nfe.getMessage()));
+                return Integer.parseInt(customDefaultValue != null ? customDefaultValue : defaultValue);
+            }
+        }
 
-        private Integer getIntegerValue(final Properties prop, Integer customDefaultValue) {
+        private Long getLongValue(final Properties prop, String customDefaultValue) {
             try {
-                return Integer.parseInt(getPropertyValue(prop));
+                return Long.parseLong(getPropertyValue(prop, customDefaultValue).trim());
             } catch (NumberFormatException nfe) {
-                if (customDefaultValue != null) {
-                    return customDefaultValue;
-                } else {
-                    if (defaultValue == null || defaultValue.isEmpty()) {
-                        return null;
-                    } else {
-                        return Integer.parseInt(defaultValue);
-                    }
-                }
+                log.warning(String.format("Ignoring invalid value of %s: %s", propertyName, nfe.getMessage()));
+                return Long.parseLong(customDefaultValue != null ? customDefaultValue : defaultValue);
+            }
+        }
+
+        private double getDoubleValue(final Properties prop, String customDefaultValue) {
+            try {
+                return Double.parseDouble(getPropertyValue(prop, customDefaultValue).trim());
+            } catch (NumberFormatException nfe) {
+                log.warning(String.format("Ignoring invalid value of %s: %s", propertyName, nfe.getMessage()));
+                return Double.parseDouble(customDefaultValue != null ? customDefaultValue : defaultValue);
             }
         }
 
+        private boolean getBooleanValue(final Properties prop, String customDefaultValue) {
+            return Boolean.parseBoolean(getPropertyValue(prop, customDefaultValue).trim());
+        }
+
         public String getEnvName() {
             return envName;
         }
@@ -86,48 +121,514 @@ public class LogSenseConfig {
     public static final Property CUSTOMER_TOKEN = new Property("logsense.token", "LOGSENSE_TOKEN", "");
     public static final Property HOST = new Property("logsense.host", "LOGSENSE_HOST", "logs.logsense.com");
     public static final Property PORT = new Property("logsense.port", "LOGSENSE_PORT", "32714");
+    public static final Property ENDPOINTS = new Property("logsense.endpoints", "LOGSENSE_ENDPOINTS", "");
     public static final Property SERVICE_NAME = new Property("logsense.service.name", "LOGSENSE_SERVICE_NAME", "");
+    public static final Property PROFILE = new Property("logsense.profile", "LOGSENSE_PROFILE", "default");
+    public static final Property SENDER = new Property("logsense.sender", "LOGSENSE_SENDER", "ssl");
+    public static final Property QUEUE_SIZE = new Property("logsense.queue.size", "LOGSENSE_QUEUE_SIZE", "10000");
+    public static final Property QUEUE_DRAIN_INTERVAL_MILLIS = new Property("logsense.queue.drain.interval.millis", "LOGSENSE_QUEUE_DRAIN_INTERVAL_MILLIS", "500");
+    public static final Property FLUSH_INTERVAL_MILLIS = new Property("logsense.flush.interval.millis", "LOGSENSE_FLUSH_INTERVAL_MILLIS", "600");
+    public static final Property BUFFER_CHUNK_INITIAL_SIZE = new Property("logsense.buffer.chunk.initial.size", "LOGSENSE_BUFFER_CHUNK_INITIAL_SIZE", "1048576");
+    public static final Property BUFFER_CHUNK_RETENTION_SIZE = new Property("logsense.buffer.chunk.retention.size", "LOGSENSE_BUFFER_CHUNK_RETENTION_SIZE", "4194304");
+    public static final Property BUFFER_CHUNK_RETENTION_TIME_MILLIS = new Property("logsense.buffer.chunk.retention.time.millis", "LOGSENSE_BUFFER_CHUNK_RETENTION_TIME_MILLIS", "1000");
+    public static final Property MAX_BUFFER_SIZE = new Property("logsense.buffer.max.size", "LOGSENSE_BUFFER_MAX_SIZE", "536870912");
+    public static final Property CONNECTION_TIMEOUT_MILLIS = new Property("logsense.connection.timeout.millis", "LOGSENSE_CONNECTION_TIMEOUT_MILLIS", "5000");
+    public static final Property READ_TIMEOUT_MILLIS = new Property("logsense.read.timeout.millis", "LOGSENSE_READ_TIMEOUT_MILLIS", "5000");
+    public static final Property CONNECTION_STANDBY = new Property("logsense.connection.standby", "LOGSENSE_CONNECTION_STANDBY", "false");
+    public static final Property RETRY_MAX_COUNT = new Property("logsense.retry.max.count", "LOGSENSE_RETRY_MAX_COUNT", "3");
+    public static final Property RETRY_BASE_INTERVAL_MILLIS = new Property("logsense.retry.base.interval.millis", "LOGSENSE_RETRY_BASE_INTERVAL_MILLIS", "400");
+    public static final Property RETRY_MAX_INTERVAL_MILLIS = new Property("logsense.retry.max.interval.millis", "LOGSENSE_RETRY_MAX_INTERVAL_MILLIS", "5000");
+    public static final Property HEARTBEAT_ENABLED = new Property("logsense.heartbeat.enabled", "LOGSENSE_HEARTBEAT_ENABLED", "false");
+    public static final Property HEARTBEAT_INTERVAL_MILLIS = new Property("logsense.heartbeat.interval.millis", "LOGSENSE_HEARTBEAT_INTERVAL_MILLIS", "1000");
+    public static final Property PHI_THRESHOLD = new Property("logsense.heartbeat.phi.threshold", "LOGSENSE_HEARTBEAT_PHI_THRESHOLD", "16");
+    public static final Property ENDPOINT_DOWN_MILLIS = new Property("logsense.endpoint.down.millis", "LOGSENSE_ENDPOINT_DOWN_MILLIS", "3000");
+    public static final Property ACK_ENABLED = new Property("logsense.ack.enabled", "LOGSENSE_ACK_ENABLED", "false");
+    public static final Property ACK_WINDOW_SIZE = new Property("logsense.ack.window", "LOGSENSE_ACK_WINDOW", "1");
+    public static final Property ENABLED = new Property("logsense.enabled", "LOGSENSE_ENABLED", "true");
+    public static final Property SAMPLING_RATE = new Property("logsense.sampling.rate", "LOGSENSE_SAMPLING_RATE", "1.0");
+    public static final Property FLUSH_THRESHOLD = new Property("logsense.flush.threshold", "LOGSENSE_FLUSH_THRESHOLD", "1000");
+    public static final Property VIRTUAL_THREADS = new Property("logsense.virtual.threads", "LOGSENSE_VIRTUAL_THREADS", "true");
+    public static final Property SCOPE_MANAGER = new Property("logsense.scope.manager", "LOGSENSE_SCOPE_MANAGER", "array");
+    public static final Property MAX_LOG_EVENTS = new Property("logsense.span.log.events.max", "LOGSENSE_SPAN_LOG_EVENTS_MAX", "100");
+    public static final Property MAX_TAGS = new Property("logsense.span.tags.max", "LOGSENSE_SPAN_TAGS_MAX", "128");
+    public static final Property MAX_KEY_LENGTH = new Property("logsense.span.key.length.max", "LOGSENSE_SPAN_KEY_LENGTH_MAX", "128");
+    public static final Property MAX_VALUE_LENGTH = new Property("logsense.span.value.length.max", "LOGSENSE_SPAN_VALUE_LENGTH_MAX", "4096");
+    public static final Property MAX_RECORD_BYTES = new Property("logsense.span.record.bytes.max", "LOGSENSE_SPAN_RECORD_BYTES_MAX", "65536");
+    public static final Property MAX_OPERATION_NAMES = new Property("logsense.operation.names.max", "LOGSENSE_OPERATION_NAMES_MAX", "1000");
+    public static final Property MAX_TAG_KEYS = new Property("logsense.tag.keys.max", "LOGSENSE_TAG_KEYS_MAX", "1000");
+    public static final Property USAGE_OPERATIONS = new Property("logsense.span.usage.operations", "LOGSENSE_SPAN_USAGE_OPERATIONS", "");
+    public static final Property MAX_BAGGAGE_ENTRIES = new Property("logsense.baggage.entries.max", "LOGSENSE_BAGGAGE_ENTRIES_MAX", "64");
+    public static final Property MAX_BAGGAGE_BYTES = new Property("logsense.baggage.bytes.max", "LOGSENSE_BAGGAGE_BYTES_MAX", "8192");
+    public static final Property BACKPRESSURE_POLICY = new Property("logsense.backpressure.policy", "LOGSENSE_BACKPRESSURE_POLICY", "drop-newest");
+    public static final Property BACKPRESSURE_BLOCK_TIMEOUT_MILLIS = new Property("logsense.backpressure.block.timeout.millis", "LOGSENSE_BACKPRESSURE_BLOCK_TIMEOUT_MILLIS", "100");
+    public static final Property EXPORT_MODE = new Property("logsense.export.mode", "LOGSENSE_EXPORT_MODE", "span");
+    public static final Property CLOCK = new Property("logsense.clock", "LOGSENSE_CLOCK", "precise");
+    public static final Property CLOCK_RESYNC_INTERVAL_MILLIS = new Property("logsense.clock.resync.interval.millis", "LOGSENSE_CLOCK_RESYNC_INTERVAL_MILLIS", "1000");
+    public static final Property CLOCK_COARSE_TICK_MILLIS = new Property("logsense.clock.coarse.tick.millis", "LOGSENSE_CLOCK_COARSE_TICK_MILLIS", "1");
+    public static final Property SHUTDOWN_TIMEOUT_MILLIS = new Property("logsense.shutdown.timeout.millis", "LOGSENSE_SHUTDOWN_TIMEOUT_MILLIS", "5000");
+    public static final Property EXPORTER = new Property("logsense.exporter", "LOGSENSE_EXPORTER", "fluency");
+    public static final Property FILE_DIRECTORY = new Property("logsense.file.directory", "LOGSENSE_FILE_DIRECTORY", "logsense-spans");
+    public static final Property FILE_SEGMENT_SIZE = new Property("logsense.file.segment.size", "LOGSENSE_FILE_SEGMENT_SIZE", "67108864");
+    public static final Property FILE_MAX_SEGMENTS = new Property("logsense.file.segments.max", "LOGSENSE_FILE_SEGMENTS_MAX", "16");
+    public static final Property ENCODER_THREADS = new Property("logsense.pipeline.encoders", "LOGSENSE_PIPELINE_ENCODERS", "0");
+    public static final Property PIPELINE_QUEUE_SIZE = new Property("logsense.pipeline.queue.size", "LOGSENSE_PIPELINE_QUEUE_SIZE", "16");
     public static final Property CONFIG_FILE = new Property("logsense.config", null, null);
 
+    /**
+     * Named presets. A profile only changes defaults, anything set explicitly still wins over it.
+     */
+    public enum Profile {
+        DEFAULT("default"),
+        LOW_LATENCY("low-latency"),
+        HIGH_THROUGHPUT("high-throughput"),
+        LOW_MEMORY("low-memory");
+
+        private final String profileName;
+        private final Properties defaults = new Properties();
+
+        Profile(String profileName) {
+            this.profileName = profileName;
+        }
+
+        static {
+            // Small chunks shipped often, failures noticed fast
+            LOW_LATENCY.set(QUEUE_DRAIN_INTERVAL_MILLIS, "50");
+            LOW_LATENCY.set(FLUSH_INTERVAL_MILLIS, "100");
+            LOW_LATENCY.set(BUFFER_CHUNK_INITIAL_SIZE, "262144");
+            LOW_LATENCY.set(BUFFER_CHUNK_RETENTION_SIZE, "524288");
+            LOW_LATENCY.set(BUFFER_CHUNK_RETENTION_TIME_MILLIS, "100");
+            LOW_LATENCY.set(CONNECTION_TIMEOUT_MILLIS, "2000");
+            LOW_LATENCY.set(READ_TIMEOUT_MILLIS, "2000");
+            LOW_LATENCY.set(RETRY_BASE_INTERVAL_MILLIS, "100");
+            LOW_LATENCY.set(RETRY_MAX_INTERVAL_MILLIS, "2000");
+            LOW_LATENCY.set(HEARTBEAT_ENABLED, "true");
+            LOW_LATENCY.set(HEARTBEAT_INTERVAL_MILLIS, "500");
+            LOW_LATENCY.set(ENDPOINT_DOWN_MILLIS, "1000");
+
+            // Large chunks, deep queues and the pipelined sender
+            HIGH_THROUGHPUT.set(SENDER, SENDER_NIO);
+            HIGH_THROUGHPUT.set(QUEUE_SIZE, "100000");
+            HIGH_THROUGHPUT.set(QUEUE_DRAIN_INTERVAL_MILLIS, "1000");
+            HIGH_THROUGHPUT.set(FLUSH_INTERVAL_MILLIS, "1000");
+            HIGH_THROUGHPUT.set(BUFFER_CHUNK_INITIAL_SIZE, "4194304");
+            HIGH_THROUGHPUT.set(BUFFER_CHUNK_RETENTION_SIZE, "16777216");
+            HIGH_THROUGHPUT.set(BUFFER_CHUNK_RETENTION_TIME_MILLIS, "2000");
+            HIGH_THROUGHPUT.set(MAX_BUFFER_SIZE, "1073741824");
+            HIGH_THROUGHPUT.set(ENCODER_THREADS, "2");
+
+            // Bounded footprint, spans are dropped rather than buffered
+            LOW_MEMORY.set(QUEUE_SIZE, "2000");
+            LOW_MEMORY.set(QUEUE_DRAIN_INTERVAL_MILLIS, "250");
+            LOW_MEMORY.set(FLUSH_INTERVAL_MILLIS, "500");
+            LOW_MEMORY.set(BUFFER_CHUNK_INITIAL_SIZE, "65536");
+            LOW_MEMORY.set(BUFFER_CHUNK_RETENTION_SIZE, "262144");
+            LOW_MEMORY.set(BUFFER_CHUNK_RETENTION_TIME_MILLIS, "500");
+            LOW_MEMORY.set(MAX_BUFFER_SIZE, "16777216");
+        }
+
+        private void set(Property property, String value) {
+            defaults.setProperty(property.getPropertyName(), value);
+        }
+
+        /**
+         * @return the value this profile uses instead of the property default, null if it keeps the default
+         */
+        public String getDefaultValue(Property property) {
+            return defaults.getProperty(property.getPropertyName());
+        }
+
+        public String getProfileName() {
+            return profileName;
+        }
+
+        public static Profile forName(String name) {
+            for (Profile profile : values()) {
+                if (profile.profileName.equalsIgnoreCase(name.trim())) {
+                    return profile;
+                }
+            }
+            log.warning(String.format("Unknown LogSense profile '%s', using '%s'", name, DEFAULT.profileName));
+            return DEFAULT;
+        }
+    }
+
+    public static final String SENDER_SSL = "ssl";
+    public static final String SENDER_NIO = "nio";
+    public static final String EXPORT_MODE_SPAN = "span";
+    public static final String EXPORT_MODE_TRACE = "trace";
+    public static final String CLOCK_PRECISE = "precise";
+    public static final String CLOCK_COARSE = "coarse";
+    public static final String EXPORTER_FLUENCY = "fluency";
+    public static final String EXPORTER_FILE = "file";
+    public static final String SCOPE_MANAGER_ARRAY = "array";
+    public static final String SCOPE_MANAGER_THREAD_LOCAL = "threadlocal";
+
+    private static final Property[] EXPLICIT_PROPERTIES = {
+            CUSTOMER_TOKEN, HOST, PORT, ENDPOINTS, SERVICE_NAME, PROFILE, SENDER, QUEUE_SIZE, QUEUE_DRAIN_INTERVAL_MILLIS,
+            FLUSH_INTERVAL_MILLIS, BUFFER_CHUNK_INITIAL_SIZE, BUFFER_CHUNK_RETENTION_SIZE,
+            BUFFER_CHUNK_RETENTION_TIME_MILLIS, MAX_BUFFER_SIZE, CONNECTION_TIMEOUT_MILLIS, READ_TIMEOUT_MILLIS,
+            CONNECTION_STANDBY, RETRY_MAX_COUNT, RETRY_BASE_INTERVAL_MILLIS, RETRY_MAX_INTERVAL_MILLIS,
+            HEARTBEAT_ENABLED, HEARTBEAT_INTERVAL_MILLIS, PHI_THRESHOLD, ENDPOINT_DOWN_MILLIS, ACK_ENABLED,
+            ACK_WINDOW_SIZE, ENABLED, SAMPLING_RATE, FLUSH_THRESHOLD, VIRTUAL_THREADS,
+            SCOPE_MANAGER, MAX_LOG_EVENTS, MAX_TAGS, MAX_KEY_LENGTH, MAX_VALUE_LENGTH, MAX_RECORD_BYTES,
+            MAX_OPERATION_NAMES, MAX_TAG_KEYS, BACKPRESSURE_POLICY, BACKPRESSURE_BLOCK_TIMEOUT_MILLIS, EXPORT_MODE,
+            MAX_BAGGAGE_ENTRIES, MAX_BAGGAGE_BYTES, USAGE_OPERATIONS,
+            CLOCK, CLOCK_RESYNC_INTERVAL_MILLIS, CLOCK_COARSE_TICK_MILLIS, SHUTDOWN_TIMEOUT_MILLIS,
+            EXPORTER, FILE_DIRECTORY, FILE_SEGMENT_SIZE, FILE_MAX_SEGMENTS, ENCODER_THREADS, PIPELINE_QUEUE_SIZE
+    };
+
+    /**
+     * Everything that was set explicitly, from the environment, system properties, config file and
+     * properties given to the tracer, later sources overriding earlier ones
+     */
+    private Properties explicit;
+    private Profile profile;
 
     private String customerToken;
     private String host;
     private String serviceName;
     private int port;
-
-    private static final LogSenseConfig INSTANCE = new LogSenseConfig();
+    private List<InetSocketAddress> endpoints;
+    private String sender;
+    private int queueSize;
+    private int queueDrainIntervalMillis;
+    private int flushIntervalMillis;
+    private int bufferChunkInitialSize;
+    private int bufferChunkRetentionSize;
+    private int bufferChunkRetentionTimeMillis;
+    private long maxBufferSize;
+    private int connectionTimeoutMillis;
+    private int readTimeoutMillis;
+    private int retryMaxCount;
+    private int retryBaseIntervalMillis;
+    private int retryMaxIntervalMillis;
+    private boolean standbyEnabled;
+    private boolean heartbeatEnabled;
+    private int heartbeatIntervalMillis;
+    private double phiThreshold;
+    private int endpointDownMillis;
+    private boolean ackEnabled;
+    private int ackWindowSize;
+    private boolean tracingEnabled;
+    private double samplingRate;
+    private int flushThreshold;
+    private boolean virtualThreadsEnabled;
+    private String scopeManager;
+    private int maxLogEvents;
+    private int maxTags;
+    private int maxKeyLength;
+    private int maxValueLength;
+    private int maxRecordBytes;
+    private int maxOperationNames;
+    private int maxTagKeys;
+    private Set<String> usageOperations;
+    private int maxBaggageEntries;
+    private int maxBaggageBytes;
+    private LogSenseBackpressure.Policy backpressurePolicy;
+    private int backpressureBlockTimeoutMillis;
+    private String exportMode;
+    private String clock;
+    private int clockResyncIntervalMillis;
+    private int clockCoarseTickMillis;
+    private int shutdownTimeoutMillis;
+    private String exporter;
+    private String fileDirectory;
+    private int fileSegmentSize;
+    private int fileMaxSegments;
+    private int encoderThreads;
+    private int pipelineQueueSize;
+
+    private static volatile LogSenseConfig instance = new LogSenseConfig();
 
     private boolean enabled;
 
     LogSenseConfig() {
-        customerToken = CUSTOMER_TOKEN.getPropertyValue(System.getProperties());
-        host = HOST.getPropertyValue(System.getProperties());
-        port = PORT.getIntegerValue(System.getProperties());
-        serviceName = SERVICE_NAME.getPropertyValue(System.getProperties());
+        Properties prop = new Properties();
+        for (Property property : EXPLICIT_PROPERTIES) {
+            String value = property.getExplicitValue(System.getProperties());
+            if (value != null) {
+                prop.setProperty(property.getPropertyName(), value);
+            }
+        }
 
-        String config_file = CONFIG_FILE.getPropertyValue(System.getProperties());
-        if (config_file != null && !config_file.isEmpty()) {
-            Properties prop = attemptLoadingPropertyFile(config_file);
-            merge(prop, this);
+        String config_file = getConfigFile();
+        if (config_file != null) {
+            Properties fileProp = attemptLoadingPropertyFile(config_file);
+            if (fileProp != null) {
+                prop.putAll(fileProp);
+            }
         }
 
-        checkEnabled();
+        load(prop);
     }
 
     LogSenseConfig(Properties prop, LogSenseConfig parent) {
-        merge(prop, parent);
+        Properties merged = new Properties();
+        merged.putAll(parent.explicit);
+        for (String name : prop.stringPropertyNames()) {
+            String value = prop.getProperty(name);
+            if (value != null && !value.trim().isEmpty()) {
+                merged.setProperty(name, value);
+            }
+        }
+        load(merged);
     }
 
-    private void merge(Properties prop, LogSenseConfig parent) {
-        customerToken = CUSTOMER_TOKEN.getPropertyValue(prop, parent.getCustomerToken());
-        host = HOST.getPropertyValue(prop, parent.getHost());
-        port = PORT.getIntegerValue(prop, parent.getPort());
-        serviceName = SERVICE_NAME.getPropertyValue(prop, parent.getServiceName());
-
+    private void load(Properties prop) {
+        explicit = prop;
+        profile = Profile.forName(PROFILE.getPropertyValue(prop));
+        if (profile != Profile.DEFAULT) {
+            log.info("LogSense tracing uses the " + profile.getProfileName() + " profile");
+        }
 
+        customerToken = CUSTOMER_TOKEN.getPropertyValue(prop);
+        host = HOST.getPropertyValue(prop);
+        port = PORT.getIntegerValue(prop);
+        endpoints = parseEndpoints(ENDPOINTS.getPropertyValue(prop));
+        serviceName = SERVICE_NAME.getPropertyValue(prop);
+        sender = SENDER.getPropertyValue(prop, profile.getDefaultValue(SENDER));
+        queueSize = intValue(QUEUE_SIZE);
+        queueDrainIntervalMillis = intValue(QUEUE_DRAIN_INTERVAL_MILLIS);
+        flushIntervalMillis = intValue(FLUSH_INTERVAL_MILLIS);
+        bufferChunkInitialSize = intValue(BUFFER_CHUNK_INITIAL_SIZE);
+        bufferChunkRetentionSize = intValue(BUFFER_CHUNK_RETENTION_SIZE);
+        bufferChunkRetentionTimeMillis = intValue(BUFFER_CHUNK_RETENTION_TIME_MILLIS);
+        maxBufferSize = MAX_BUFFER_SIZE.getLongValue(prop, profile.getDefaultValue(MAX_BUFFER_SIZE));
+        connectionTimeoutMillis = intValue(CONNECTION_TIMEOUT_MILLIS);
+        readTimeoutMillis = intValue(READ_TIMEOUT_MILLIS);
+        retryMaxCount = intValue(RETRY_MAX_COUNT);
+        retryBaseIntervalMillis = intValue(RETRY_BASE_INTERVAL_MILLIS);
+        retryMaxIntervalMillis = intValue(RETRY_MAX_INTERVAL_MILLIS);
+        standbyEnabled = CONNECTION_STANDBY.getBooleanValue(prop, profile.getDefaultValue(CONNECTION_STANDBY));
+        heartbeatEnabled = HEARTBEAT_ENABLED.getBooleanValue(prop, profile.getDefaultValue(HEARTBEAT_ENABLED));
+        heartbeatIntervalMillis = intValue(HEARTBEAT_INTERVAL_MILLIS);
+        phiThreshold = PHI_THRESHOLD.getDoubleValue(prop, profile.getDefaultValue(PHI_THRESHOLD));
+        endpointDownMillis = intValue(ENDPOINT_DOWN_MILLIS);
+        ackEnabled = ACK_ENABLED.getBooleanValue(prop, profile.getDefaultValue(ACK_ENABLED));
+        ackWindowSize = intValue(ACK_WINDOW_SIZE);
+        tracingEnabled = ENABLED.getBooleanValue(prop, null);
+        samplingRate = SAMPLING_RATE.getDoubleValue(prop, null);
+        flushThreshold = intValue(FLUSH_THRESHOLD);
+        virtualThreadsEnabled = VIRTUAL_THREADS.getBooleanValue(prop, null);
+        scopeManager = SCOPE_MANAGER.getPropertyValue(prop);
+        maxLogEvents = intValue(MAX_LOG_EVENTS);
+        maxTags = intValue(MAX_TAGS);
+        maxKeyLength = intValue(MAX_KEY_LENGTH);
+        maxValueLength = intValue(MAX_VALUE_LENGTH);
+        maxRecordBytes = intValue(MAX_RECORD_BYTES);
+        maxOperationNames = intValue(MAX_OPERATION_NAMES);
+        maxTagKeys = intValue(MAX_TAG_KEYS);
+        usageOperations = parseNames(USAGE_OPERATIONS.getPropertyValue(prop));
+        maxBaggageEntries = intValue(MAX_BAGGAGE_ENTRIES);
+        maxBaggageBytes = intValue(MAX_BAGGAGE_BYTES);
+        String policyName = BACKPRESSURE_POLICY.getPropertyValue(prop);
+        backpressurePolicy = LogSenseBackpressure.Policy.forName(policyName);
+        if (backpressurePolicy == null) {
+            invalid(BACKPRESSURE_POLICY, policyName, LogSenseBackpressure.Policy.DROP_NEWEST.getPolicyName());
+            backpressurePolicy = LogSenseBackpressure.Policy.DROP_NEWEST;
+        }
+        backpressureBlockTimeoutMillis = intValue(BACKPRESSURE_BLOCK_TIMEOUT_MILLIS);
+        exportMode = EXPORT_MODE.getPropertyValue(prop);
+        clock = CLOCK.getPropertyValue(prop);
+        clockResyncIntervalMillis = intValue(CLOCK_RESYNC_INTERVAL_MILLIS);
+        clockCoarseTickMillis = intValue(CLOCK_COARSE_TICK_MILLIS);
+        shutdownTimeoutMillis = intValue(SHUTDOWN_TIMEOUT_MILLIS);
+        exporter = EXPORTER.getPropertyValue(prop);
+        fileDirectory = FILE_DIRECTORY.getPropertyValue(prop);
+        fileSegmentSize = intValue(FILE_SEGMENT_SIZE);
+        fileMaxSegments = intValue(FILE_MAX_SEGMENTS);
+        encoderThreads = intValue(ENCODER_THREADS);
+        pipelineQueueSize = intValue(PIPELINE_QUEUE_SIZE);
+
+        validate();
         checkEnabled();
     }
 
+    private int intValue(Property property) {
+        return property.getIntegerValue(explicit, profile.getDefaultValue(property));
+    }
+
+    /**
+     * @return the profile (or, failing that, built-in) value of a property, ignoring what was set explicitly
+     */
+    private int fallbackValue(Property property) {
+        return property.getIntegerValue(new Properties(), profile.getDefaultValue(property));
+    }
+
+    /**
+     * Values that make no sense are reported and replaced by what the profile would use, so that a typo
+     * does not take the application down with the tracer
+     */
+    private void validate() {
+        if (!SENDER_SSL.equalsIgnoreCase(sender) && !SENDER_NIO.equalsIgnoreCase(sender)) {
+            sender = invalid(SENDER, sender, SENDER.getPropertyValue(new Properties(), profile.getDefaultValue(SENDER)));
+        }
+        if (!SCOPE_MANAGER_ARRAY.equalsIgnoreCase(scopeManager) && !SCOPE_MANAGER_THREAD_LOCAL.equalsIgnoreCase(scopeManager)) {
+            scopeManager = invalid(SCOPE_MANAGER, scopeManager, SCOPE_MANAGER_ARRAY);
+        }
+        if (!EXPORT_MODE_SPAN.equalsIgnoreCase(exportMode) && !EXPORT_MODE_TRACE.equalsIgnoreCase(exportMode)) {
+            exportMode = invalid(EXPORT_MODE, exportMode, EXPORT_MODE_SPAN);
+        }
+        if (!CLOCK_PRECISE.equalsIgnoreCase(clock) && !CLOCK_COARSE.equalsIgnoreCase(clock)) {
+            clock = invalid(CLOCK, clock, CLOCK_PRECISE);
+        }
+        if (!EXPORTER_FLUENCY.equalsIgnoreCase(exporter) && !EXPORTER_FILE.equalsIgnoreCase(exporter)) {
+            exporter = invalid(EXPORTER, exporter, EXPORTER_FLUENCY);
+        }
+        if (fileSegmentSize < LogSenseSegmentWriter.MIN_SEGMENT_SIZE) {
+            fileSegmentSize = invalid(FILE_SEGMENT_SIZE, fileSegmentSize, fallbackValue(FILE_SEGMENT_SIZE));
+        }
+        if (fileMaxSegments < 2) {
+            fileMaxSegments = invalid(FILE_MAX_SEGMENTS, fileMaxSegments, fallbackValue(FILE_MAX_SEGMENTS));
+        }
+        if (heartbeatIntervalMillis <= 0) {
+            heartbeatIntervalMillis = invalid(HEARTBEAT_INTERVAL_MILLIS, heartbeatIntervalMillis, fallbackValue(HEARTBEAT_INTERVAL_MILLIS));
+        }
+        if (!(phiThreshold > 0)) {
+            phiThreshold = invalid(PHI_THRESHOLD, phiThreshold,
+                    PHI_THRESHOLD.getDoubleValue(new Properties(), profile.getDefaultValue(PHI_THRESHOLD)));
+        }
+        if (endpointDownMillis < 0) {
+            endpointDownMillis = invalid(ENDPOINT_DOWN_MILLIS, endpointDownMillis, fallbackValue(ENDPOINT_DOWN_MILLIS));
+        }
+        if (ackWindowSize <= 0) {
+            ackWindowSize = invalid(ACK_WINDOW_SIZE, ackWindowSize, fallbackValue(ACK_WINDOW_SIZE));
+        }
+        if (encoderThreads < 0) {
+            encoderThreads = invalid(ENCODER_THREADS, encoderThreads, fallbackValue(ENCODER_THREADS));
+        }
+        if (pipelineQueueSize <= 0) {
+            pipelineQueueSize = invalid(PIPELINE_QUEUE_SIZE, pipelineQueueSize, fallbackValue(PIPELINE_QUEUE_SIZE));
+        }
+        if (queueSize <= 0) {
+            queueSize = invalid(QUEUE_SIZE, queueSize, fallbackValue(QUEUE_SIZE));
+        }
+        if (queueDrainIntervalMillis <= 0) {
+            queueDrainIntervalMillis = invalid(QUEUE_DRAIN_INTERVAL_MILLIS, queueDrainIntervalMillis, fallbackValue(QUEUE_DRAIN_INTERVAL_MILLIS));
+        }
+        if (flushIntervalMillis < 20 || flushIntervalMillis > 2000) {
+            // The bounds Fluency itself enforces
+            flushIntervalMillis = invalid(FLUSH_INTERVAL_MILLIS, flushIntervalMillis, fallbackValue(FLUSH_INTERVAL_MILLIS));
+        }
+        if (bufferChunkInitialSize <= 0) {
+            bufferChunkInitialSize = invalid(BUFFER_CHUNK_INITIAL_SIZE, bufferChunkInitialSize, fallbackValue(BUFFER_CHUNK_INITIAL_SIZE));
+        }
+        if (bufferChunkRetentionSize < bufferChunkInitialSize) {
+            bufferChunkRetentionSize = invalid(BUFFER_CHUNK_RETENTION_SIZE, bufferChunkRetentionSize,
+                    Math.max(bufferChunkInitialSize, fallbackValue(BUFFER_CHUNK_RETENTION_SIZE)));
+        }
+        if (bufferChunkRetentionTimeMillis < 50) {
+            bufferChunkRetentionTimeMillis = invalid(BUFFER_CHUNK_RETENTION_TIME_MILLIS, bufferChunkRetentionTimeMillis, fallbackValue(BUFFER_CHUNK_RETENTION_TIME_MILLIS));
+        }
+        if (maxBufferSize < bufferChunkRetentionSize) {
+            maxBufferSize = invalid(MAX_BUFFER_SIZE, maxBufferSize, (long) bufferChunkRetentionSize * 4);
+        }
+        if (connectionTimeoutMillis < 10) {
+            connectionTimeoutMillis = invalid(CONNECTION_TIMEOUT_MILLIS, connectionTimeoutMillis, fallbackValue(CONNECTION_TIMEOUT_MILLIS));
+        }
+        if (readTimeoutMillis < 10) {
+            readTimeoutMillis = invalid(READ_TIMEOUT_MILLIS, readTimeoutMillis, fallbackValue(READ_TIMEOUT_MILLIS));
+        }
+        if (retryMaxCount < 1) {
+            retryMaxCount = invalid(RETRY_MAX_COUNT, retryMaxCount, fallbackValue(RETRY_MAX_COUNT));
+        }
+        if (retryBaseIntervalMillis < 10) {
+            retryBaseIntervalMillis = invalid(RETRY_BASE_INTERVAL_MILLIS, retryBaseIntervalMillis, fallbackValue(RETRY_BASE_INTERVAL_MILLIS));
+        }
+        if (retryMaxIntervalMillis < retryBaseIntervalMillis) {
+            retryMaxIntervalMillis = invalid(RETRY_MAX_INTERVAL_MILLIS, retryMaxIntervalMillis,
+                    Math.max(retryBaseIntervalMillis, fallbackValue(RETRY_MAX_INTERVAL_MILLIS)));
+        }
+        if (!(samplingRate >= 0.0 && samplingRate <= 1.0)) {
+            samplingRate = invalid(SAMPLING_RATE, samplingRate, 1.0);
+        }
+        if (maxLogEvents < 0) {
+            maxLogEvents = invalid(MAX_LOG_EVENTS, maxLogEvents, fallbackValue(MAX_LOG_EVENTS));
+        }
+        if (maxTags < 0) {
+            maxTags = invalid(MAX_TAGS, maxTags, fallbackValue(MAX_TAGS));
+        }
+        if (maxKeyLength <= 0) {
+            maxKeyLength = invalid(MAX_KEY_LENGTH, maxKeyLength, fallbackValue(MAX_KEY_LENGTH));
+        }
+        if (maxValueLength <= 0) {
+            maxValueLength = invalid(MAX_VALUE_LENGTH, maxValueLength, fallbackValue(MAX_VALUE_LENGTH));
+        }
+        if (maxRecordBytes <= 0) {
+            maxRecordBytes = invalid(MAX_RECORD_BYTES, maxRecordBytes, fallbackValue(MAX_RECORD_BYTES));
+        }
+        if (maxOperationNames <= 0) {
+            maxOperationNames = invalid(MAX_OPERATION_NAMES, maxOperationNames, fallbackValue(MAX_OPERATION_NAMES));
+        }
+        if (maxTagKeys <= 0) {
+            maxTagKeys = invalid(MAX_TAG_KEYS, maxTagKeys, fallbackValue(MAX_TAG_KEYS));
+        }
+        if (maxBaggageEntries < 0) {
+            maxBaggageEntries = invalid(MAX_BAGGAGE_ENTRIES, maxBaggageEntries, fallbackValue(MAX_BAGGAGE_ENTRIES));
+        }
+        if (maxBaggageBytes < 0) {
+            maxBaggageBytes = invalid(MAX_BAGGAGE_BYTES, maxBaggageBytes, fallbackValue(MAX_BAGGAGE_BYTES));
+        }
+        if (backpressureBlockTimeoutMillis < 0) {
+            backpressureBlockTimeoutMillis = invalid(BACKPRESSURE_BLOCK_TIMEOUT_MILLIS, backpressureBlockTimeoutMillis, fallbackValue(BACKPRESSURE_BLOCK_TIMEOUT_MILLIS));
+        }
+        if (clockResyncIntervalMillis <= 0) {
+            clockResyncIntervalMillis = invalid(CLOCK_RESYNC_INTERVAL_MILLIS, clockResyncIntervalMillis, fallbackValue(CLOCK_RESYNC_INTERVAL_MILLIS));
+        }
+        if (clockCoarseTickMillis <= 0) {
+            clockCoarseTickMillis = invalid(CLOCK_COARSE_TICK_MILLIS, clockCoarseTickMillis, fallbackValue(CLOCK_COARSE_TICK_MILLIS));
+        }
+        if (shutdownTimeoutMillis < 0) {
+            shutdownTimeoutMillis = invalid(SHUTDOWN_TIMEOUT_MILLIS, shutdownTimeoutMillis, fallbackValue(SHUTDOWN_TIMEOUT_MILLIS));
+        }
+        if (flushThreshold <= 0) {
+            flushThreshold = invalid(FLUSH_THRESHOLD, flushThreshold, fallbackValue(FLUSH_THRESHOLD));
+        }
+    }
+
+    /**
+     * @return the endpoints listed, in priority order, or just the host and port if none are
+     */
+    private List<InetSocketAddress> parseEndpoints(String value) {
+        List<InetSocketAddress> parsed = new ArrayList<>();
+        for (String entry : value.split(",")) {
+            entry = entry.trim();
+            if (entry.isEmpty()) {
+                continue;
+            }
+            int colon = entry.lastIndexOf(':');
+            try {
+                if (colon <= 0) {
+                    throw new IllegalArgumentException("no port");
+                }
+                parsed.add(InetSocketAddress.createUnresolved(entry.substring(0, colon),
+                        Integer.parseInt(entry.substring(colon + 1))));
+            } catch (IllegalArgumentException e) {
+                log.warning(String.format("Ignoring invalid endpoint in %s: %s", ENDPOINTS.getPropertyName(), entry));
+            }
+        }
+        if (parsed.isEmpty()) {
+            parsed.add(InetSocketAddress.createUnresolved(host, port));
+        }
+        return Collections.unmodifiableList(parsed);
+    }
+
+    private static Set<String> parseNames(String value) {
+        Set<String> names = new HashSet<>();
+        for (String name : value.split(",")) {
+            name = name.trim();
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    private static <T> T invalid(Property property, T value, T replacement) {
+        log.warning(String.format("Invalid value of %s: %s, using %s instead", property.getPropertyName(), value, replacement));
+        return replacement;
+    }
+
     private void checkEnabled() {
         if (customerToken == null || "".equals(customerToken.trim())) {
             this.enabled = false;
@@ -139,21 +640,41 @@ public class LogSenseConfig {
     }
 
     public static LogSenseConfig get() {
-        return INSTANCE;
+        return instance;
     }
 
     public static LogSenseConfig get(final Properties properties) {
         if (properties == null || properties.isEmpty()) {
-            return INSTANCE;
+            return instance;
         } else {
-            return new LogSenseConfig(properties, INSTANCE);
+            return new LogSenseConfig(properties, instance);
         }
     }
 
+    /**
+     * Reads the environment, system properties and config file again; tracers created from now on use the result
+     */
+    static LogSenseConfig reload() {
+        instance = new LogSenseConfig();
+        return instance;
+    }
+
+    /**
+     * @return the config file given by {@link #CONFIG_FILE}, null if there is none
+     */
+    static String getConfigFile() {
+        String configFile = CONFIG_FILE.getPropertyValue(System.getProperties());
+        return configFile == null || configFile.isEmpty() ? null : configFile;
+    }
+
     public boolean isEnabled() {
         return enabled;
     }
 
+    public Profile getProfile() {
+        return profile;
+    }
+
     public int getPort() {
         return port;
     }
@@ -166,10 +687,293 @@ public class LogSenseConfig {
         return host;
     }
 
+    /**
+     * @return the endpoints to send to, highest priority first; the host and port unless several were listed
+     */
+    public List<InetSocketAddress> getEndpoints() {
+        return endpoints;
+    }
+
     public String getServiceName() {
         return serviceName;
     }
 
+    public String getSender() {
+        return sender;
+    }
+
+    public boolean isNioSenderEnabled() {
+        return SENDER_NIO.equalsIgnoreCase(sender);
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    public int getQueueDrainIntervalMillis() {
+        return queueDrainIntervalMillis;
+    }
+
+    public int getFlushIntervalMillis() {
+        return flushIntervalMillis;
+    }
+
+    public int getBufferChunkInitialSize() {
+        return bufferChunkInitialSize;
+    }
+
+    public int getBufferChunkRetentionSize() {
+        return bufferChunkRetentionSize;
+    }
+
+    public int getBufferChunkRetentionTimeMillis() {
+        return bufferChunkRetentionTimeMillis;
+    }
+
+    public long getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
+    public int getConnectionTimeoutMillis() {
+        return connectionTimeoutMillis;
+    }
+
+    public int getReadTimeoutMillis() {
+        return readTimeoutMillis;
+    }
+
+    public int getRetryMaxCount() {
+        return retryMaxCount;
+    }
+
+    public int getRetryBaseIntervalMillis() {
+        return retryBaseIntervalMillis;
+    }
+
+    public int getRetryMaxIntervalMillis() {
+        return retryMaxIntervalMillis;
+    }
+
+    /**
+     * @return whether the nio sender keeps a second connection open to switch to when the first one fails
+     */
+    public boolean isStandbyEnabled() {
+        return standbyEnabled;
+    }
+
+    public boolean isHeartbeatEnabled() {
+        return heartbeatEnabled;
+    }
+
+    public int getHeartbeatIntervalMillis() {
+        return heartbeatIntervalMillis;
+    }
+
+    /**
+     * @return suspicion level above which the phi accrual detector reports an endpoint down for lack of heartbeats
+     */
+    public double getPhiThreshold() {
+        return phiThreshold;
+    }
+
+    /**
+     * @return how long an endpoint is left out after a failed send or heartbeat
+     */
+    public int getEndpointDownMillis() {
+        return endpointDownMillis;
+    }
+
+    public boolean isAckEnabled() {
+        return ackEnabled;
+    }
+
+    /**
+     * @return how many chunks may wait for their ack at the same time in ack mode, with the nio sender
+     */
+    public int getAckWindowSize() {
+        return ackWindowSize;
+    }
+
+    /**
+     * @return whether spans should be recorded at all; unlike {@link #isEnabled()} this can change at runtime
+     */
+    public boolean isTracingEnabled() {
+        return tracingEnabled;
+    }
+
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+
+    public int getFlushThreshold() {
+        return flushThreshold;
+    }
+
+    /**
+     * @return whether the emitter may run on a virtual thread; only has an effect on Java 21 and newer
+     */
+    public boolean isVirtualThreadsEnabled() {
+        return virtualThreadsEnabled;
+    }
+
+    /**
+     * @return how many log events a span keeps, later ones are only counted
+     */
+    public int getMaxLogEvents() {
+        return maxLogEvents;
+    }
+
+    public int getMaxTags() {
+        return maxTags;
+    }
+
+    public int getMaxKeyLength() {
+        return maxKeyLength;
+    }
+
+    public int getMaxValueLength() {
+        return maxValueLength;
+    }
+
+    /**
+     * @return estimated encoded size of the tags and log events a span keeps
+     */
+    public int getMaxRecordBytes() {
+        return maxRecordBytes;
+    }
+
+    /**
+     * @return how many distinct operation names a tracer keeps, later ones are reported as the overflow name
+     */
+    public int getMaxOperationNames() {
+        return maxOperationNames;
+    }
+
+    /**
+     * @return how many distinct tag keys a tracer keeps, later ones are reported as the overflow name
+     */
+    public int getMaxTagKeys() {
+        return maxTagKeys;
+    }
+
+    /**
+     * @return operation names whose spans record the CPU time and bytes allocated by their thread, {@code *} for all
+     */
+    public Set<String> getUsageOperations() {
+        return usageOperations;
+    }
+
+    public int getMaxBaggageEntries() {
+        return maxBaggageEntries;
+    }
+
+    /**
+     * @return UTF-8 size of all baggage keys and values a context keeps
+     */
+    public int getMaxBaggageBytes() {
+        return maxBaggageBytes;
+    }
+
+    public LogSenseBackpressure.Policy getBackpressurePolicy() {
+        return backpressurePolicy;
+    }
+
+    public int getBackpressureBlockTimeoutMillis() {
+        return backpressureBlockTimeoutMillis;
+    }
+
+    public String getExportMode() {
+        return exportMode;
+    }
+
+    /**
+     * @return whether spans of the same trace drained together are sent as one record
+     */
+    public boolean isTraceGroupingEnabled() {
+        return EXPORT_MODE_TRACE.equalsIgnoreCase(exportMode);
+    }
+
+    public String getClock() {
+        return clock;
+    }
+
+    /**
+     * @return whether spans read a clock cached every tick instead of {@link System#nanoTime()}
+     */
+    public boolean isCoarseClockEnabled() {
+        return CLOCK_COARSE.equalsIgnoreCase(clock);
+    }
+
+    /**
+     * @return how often the nanosecond clock is checked against the wall clock
+     */
+    public int getClockResyncIntervalMillis() {
+        return clockResyncIntervalMillis;
+    }
+
+    public int getClockCoarseTickMillis() {
+        return clockCoarseTickMillis;
+    }
+
+    /**
+     * @return how long closing the tracer, or the JVM exiting, may wait for queued spans to be sent
+     */
+    public int getShutdownTimeoutMillis() {
+        return shutdownTimeoutMillis;
+    }
+
+    public String getExporter() {
+        return exporter;
+    }
+
+    /**
+     * @return whether spans are appended to local segment files for a node-local shipper instead of being sent
+     */
+    public boolean isFileExporterEnabled() {
+        return EXPORTER_FILE.equalsIgnoreCase(exporter);
+    }
+
+    public String getFileDirectory() {
+        return fileDirectory;
+    }
+
+    public int getFileSegmentSize() {
+        return fileSegmentSize;
+    }
+
+    /**
+     * @return how many segment files are kept, the oldest one is deleted when a new one would exceed it
+     */
+    public int getFileMaxSegments() {
+        return fileMaxSegments;
+    }
+
+    /**
+     * @return size of the encoder pool of the export pipeline, 0 to encode and send on the emitter thread
+     */
+    public int getEncoderThreads() {
+        return encoderThreads;
+    }
+
+    /**
+     * @return batches each handoff queue of the export pipeline holds
+     */
+    public int getPipelineQueueSize() {
+        return pipelineQueueSize;
+    }
+
+    public String getScopeManager() {
+        return scopeManager;
+    }
+
+    /**
+     * @return whether to use the standard {@link io.opentracing.util.ThreadLocalScopeManager} instead of
+     * {@link LogSenseScopeManager}
+     */
+    public boolean isThreadLocalScopeManagerEnabled() {
+        return SCOPE_MANAGER_THREAD_LOCAL.equalsIgnoreCase(scopeManager);
+    }
+
     private Properties attemptLoadingPropertyFile(String path) {
         Properties prop = new Properties();
         InputStream fis=null;
@@ -0,0 +1,113 @@
+package com.logsense.opentracing;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Watches the file given by {@link LogSenseConfig#CONFIG_FILE} and lets every registered tracer pick up the
+ * runtime settings when it changes. There is at most one watcher thread per JVM.
+ */
+final class LogSenseConfigWatcher implements Runnable {
+    private static final Logger log = Logger.getLogger(LogSenseConfigWatcher.class.getName());
+
+    /**
+     * Editors tend to write a file in a few steps, wait for them to finish
+     */
+    private static final int SETTLE_MILLIS = 100;
+
+    private static LogSenseConfigWatcher instance;
+
+    private final Path file;
+    private final WatchService watchService;
+    private final Set<LogSenseTracer> tracers = new CopyOnWriteArraySet<>();
+
+    private LogSenseConfigWatcher(Path file) throws IOException {
+        this.file = file;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        file.getParent().register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    static synchronized void register(LogSenseTracer tracer) {
+        String configFile = LogSenseConfig.getConfigFile();
+        if (configFile == null) {
+            return;
+        }
+        if (instance == null) {
+            try {
+                instance = new LogSenseConfigWatcher(Paths.get(configFile).toAbsolutePath());
+            } catch (IOException e) {
+                log.log(Level.WARNING, "Cannot watch LogSense config file " + configFile + " for changes", e);
+                return;
+            }
+            Thread thread = new Thread(instance, "logsense-config-watcher");
+            thread.setDaemon(true);
+            thread.start();
+        }
+        instance.tracers.add(tracer);
+    }
+
+    static synchronized void unregister(LogSenseTracer tracer) {
+        if (instance == null) {
+            return;
+        }
+        instance.tracers.remove(tracer);
+        if (instance.tracers.isEmpty()) {
+            try {
+                instance.watchService.close();
+            } catch (IOException e) {
+                log.log(Level.FINE, "Could not close the config watch service", e);
+            }
+            instance = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    if (context instanceof Path && file.getFileName().equals(context)) {
+                        changed = true;
+                    }
+                }
+                key.reset();
+
+                if (changed) {
+                    Thread.sleep(SETTLE_MILLIS);
+                    reload();
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // Last tracer is gone
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void reload() {
+        log.info("LogSense config file " + file + " changed, reloading");
+        LogSenseConfig.reload();
+        for (LogSenseTracer tracer : tracers) {
+            try {
+                tracer.reloadSettings();
+            } catch (RuntimeException e) {
+                log.log(Level.WARNING, "Could not apply reloaded LogSense settings", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.logsense.opentracing;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Applies runtime changes to a tracer. Writers are serialized here, the tracer only ever sees complete snapshots.
+ */
+public class LogSenseControl implements LogSenseControlMBean {
+    private static final Logger log = Logger.getLogger(LogSenseControl.class.getName());
+    private static final String DOMAIN = "com.logsense.opentracing";
+
+    private final LogSenseTracer tracer;
+    private ObjectName objectName;
+    private boolean closed;
+
+    LogSenseControl(LogSenseTracer tracer) {
+        this.tracer = tracer;
+    }
+
+    /**
+     * Called from the emitter thread, which may get here after the tracer has been closed
+     */
+    synchronized void register(String serviceName) {
+        if (closed) {
+            return;
+        }
+        String name = serviceName == null || serviceName.isEmpty() ? "default" : serviceName;
+        try {
+            ObjectName candidate = new ObjectName(DOMAIN + ":type=LogSenseTracer,name=" + ObjectName.quote(name)
+                    + ",id=" + Integer.toHexString(System.identityHashCode(tracer)));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, candidate);
+            objectName = candidate;
+        } catch (JMException e) {
+            log.log(Level.WARNING, "Could not register the LogSense tracer MBean", e);
+        }
+    }
+
+    synchronized void unregister() {
+        closed = true;
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            log.log(Level.FINE, "Could not unregister the LogSense tracer MBean", e);
+        }
+        objectName = null;
+    }
+
+    synchronized ObjectName getObjectName() {
+        return objectName;
+    }
+
+    synchronized void apply(LogSenseRuntimeSettings settings) {
+        tracer.setSettings(settings);
+        log.info("LogSense tracing settings changed: " + settings);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return tracer.getSettings().isEnabled();
+    }
+
+    @Override
+    public synchronized void setEnabled(boolean enabled) {
+        apply(tracer.getSettings().withEnabled(enabled));
+    }
+
+    @Override
+    public double getSamplingRate() {
+        return tracer.getSettings().getSamplingRate();
+    }
+
+    @Override
+    public synchronized void setSamplingRate(double samplingRate) {
+        apply(tracer.getSettings().withSamplingRate(samplingRate));
+    }
+
+    @Override
+    public int getQueueSize() {
+        return tracer.getSettings().getQueueSize();
+    }
+
+    @Override
+    public synchronized void setQueueSize(int queueSize) {
+        apply(tracer.getSettings().withQueueSize(queueSize));
+    }
+
+    @Override
+    public int getFlushThreshold() {
+        return tracer.getSettings().getFlushThreshold();
+    }
+
+    @Override
+    public synchronized void setFlushThreshold(int flushThreshold) {
+        apply(tracer.getSettings().withFlushThreshold(flushThreshold));
+    }
+
+    @Override
+    public int getQueueDrainIntervalMillis() {
+        return tracer.getSettings().getQueueDrainIntervalMillis();
+    }
+
+    @Override
+    public synchronized void setQueueDrainIntervalMillis(int queueDrainIntervalMillis) {
+        apply(tracer.getSettings().withQueueDrainIntervalMillis(queueDrainIntervalMillis));
+    }
+
+    @Override
+    public int getQueuedSpanCount() {
+        return tracer.getQueuedSpanCount();
+    }
+
+    @Override
+    public long getTruncatedAttributeCount() {
+        return tracer.getTruncatedAttributeCount();
+    }
+
+    @Override
+    public long getDroppedAttributeCount() {
+        return tracer.getDroppedAttributeCount();
+    }
+
+    @Override
+    public long getDroppedLogEventCount() {
+        return tracer.getDroppedLogEventCount();
+    }
+
+    @Override
+    public long getDroppedBaggageItemCount() {
+        return tracer.getDroppedBaggageItemCount();
+    }
+
+    @Override
+    public int getOperationNameCount() {
+        return tracer.getOperationNames().size();
+    }
+
+    @Override
+    public long getOperationNameOverflowCount() {
+        return tracer.getOperationNames().getOverflowCount();
+    }
+
+    @Override
+    public String[] getOverflowedOperationNames() {
+        return tracer.getOperationNames().getOverflowedNames().toArray(new String[0]);
+    }
+
+    @Override
+    public int getTagKeyCount() {
+        return tracer.getTagKeys().size();
+    }
+
+    @Override
+    public long getTagKeyOverflowCount() {
+        return tracer.getTagKeys().getOverflowCount();
+    }
+
+    @Override
+    public String[] getOverflowedTagKeys() {
+        return tracer.getTagKeys().getOverflowedNames().toArray(new String[0]);
+    }
+
+    @Override
+    public String getBackpressurePolicy() {
+        return tracer.getBackpressure().getPolicy().getPolicyName();
+    }
+
+    @Override
+    public long getDroppedSpanCount() {
+        return tracer.getBackpressure().getDroppedCount();
+    }
+
+    @Override
+    public long getBlockedSpanCount() {
+        return tracer.getBackpressure().getBlockedCount();
+    }
+
+    @Override
+    public double getSamplingFactor() {
+        return tracer.getBackpressure().getSamplingFactor();
+    }
+
+    @Override
+    public void flush() {
+        tracer.flush();
+    }
+
+    @Override
+    public void reload() {
+        LogSenseConfig.reload();
+        tracer.reloadSettings();
+    }
+}
@@ -0,0 +1,103 @@
+package com.logsense.opentracing;
+
+/**
+ * JMX view of a running {@link LogSenseTracer}. Changes apply at once and only last until the next restart
+ * or config file reload.
+ */
+public interface LogSenseControlMBean {
+    boolean isEnabled();
+
+    void setEnabled(boolean enabled);
+
+    double getSamplingRate();
+
+    void setSamplingRate(double samplingRate);
+
+    int getQueueSize();
+
+    void setQueueSize(int queueSize);
+
+    int getFlushThreshold();
+
+    void setFlushThreshold(int flushThreshold);
+
+    int getQueueDrainIntervalMillis();
+
+    void setQueueDrainIntervalMillis(int queueDrainIntervalMillis);
+
+    int getQueuedSpanCount();
+
+    /**
+     * @return number of tag and log field keys and values cut to the length limits
+     */
+    long getTruncatedAttributeCount();
+
+    /**
+     * @return number of tags and log fields dropped for exceeding the tag count or record size limits
+     */
+    long getDroppedAttributeCount();
+
+    long getDroppedLogEventCount();
+
+    /**
+     * @return number of baggage items refused by the baggage limits, set locally or extracted
+     */
+    long getDroppedBaggageItemCount();
+
+    /**
+     * @return number of distinct operation names seen, at most {@code logsense.operation.names.max}
+     */
+    int getOperationNameCount();
+
+    /**
+     * @return number of spans whose operation name was replaced by the overflow name
+     */
+    long getOperationNameOverflowCount();
+
+    /**
+     * @return some of the operation names that were replaced by the overflow name
+     */
+    String[] getOverflowedOperationNames();
+
+    /**
+     * @return number of distinct tag keys seen, at most {@code logsense.tag.keys.max}
+     */
+    int getTagKeyCount();
+
+    /**
+     * @return number of tags whose key was replaced by the overflow name
+     */
+    long getTagKeyOverflowCount();
+
+    /**
+     * @return some of the tag keys that were replaced by the overflow name
+     */
+    String[] getOverflowedTagKeys();
+
+    String getBackpressurePolicy();
+
+    /**
+     * @return number of spans lost to a full queue
+     */
+    long getDroppedSpanCount();
+
+    /**
+     * @return number of spans that waited for room in the queue
+     */
+    long getBlockedSpanCount();
+
+    /**
+     * @return fraction of the sampling rate in effect, below 1 while degraded by backpressure
+     */
+    double getSamplingFactor();
+
+    /**
+     * Sends everything queued so far without waiting for the drain interval
+     */
+    void flush();
+
+    /**
+     * Re-reads the configuration, as if the config file had changed
+     */
+    void reload();
+}
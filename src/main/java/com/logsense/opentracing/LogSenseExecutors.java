@@ -0,0 +1,294 @@
+package com.logsense.opentracing;
+
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * Carries the active span across executor hops. The wrappers capture the span active when a task is submitted
+ * and activate it through the tracer's {@link ScopeManager} while the task runs. A task submitted with no active
+ * span, or one implementing {@link Untraced}, is handed to the executor as it is, so the only cost on a traced
+ * hop is one small wrapper object.
+ */
+public final class LogSenseExecutors {
+    private LogSenseExecutors() {
+    }
+
+    /**
+     * Marks tasks that should run without the submitter's span, e.g. on hot internal pools
+     */
+    public interface Untraced {
+    }
+
+    public static Executor executor(LogSenseTracer tracer, Executor delegate) {
+        return new TracingExecutor(tracer.scopeManager(), delegate);
+    }
+
+    public static ExecutorService executorService(LogSenseTracer tracer, ExecutorService delegate) {
+        return new TracingExecutorService(tracer.scopeManager(), delegate);
+    }
+
+    public static ScheduledExecutorService scheduledExecutorService(LogSenseTracer tracer, ScheduledExecutorService delegate) {
+        return new TracingScheduledExecutorService(tracer.scopeManager(), delegate);
+    }
+
+    /**
+     * Like {@link CompletableFuture#supplyAsync(Supplier)}, with the active span restored in the supplier. Pass
+     * {@link #executor} as the executor of later {@code *Async} stages to keep the span there too.
+     */
+    public static <T> CompletableFuture<T> supplyAsync(LogSenseTracer tracer, Supplier<T> supplier) {
+        return supplyAsync(tracer, supplier, ForkJoinPool.commonPool());
+    }
+
+    public static <T> CompletableFuture<T> supplyAsync(LogSenseTracer tracer, Supplier<T> supplier, Executor executor) {
+        return CompletableFuture.supplyAsync(supplier, new TracingExecutor(tracer.scopeManager(), executor));
+    }
+
+    public static CompletableFuture<Void> runAsync(LogSenseTracer tracer, Runnable task) {
+        return runAsync(tracer, task, ForkJoinPool.commonPool());
+    }
+
+    public static CompletableFuture<Void> runAsync(LogSenseTracer tracer, Runnable task, Executor executor) {
+        return CompletableFuture.runAsync(task, new TracingExecutor(tracer.scopeManager(), executor));
+    }
+
+    /**
+     * @return the task marked as {@link Untraced}
+     */
+    public static Runnable untraced(final Runnable task) {
+        return new UntracedRunnable(task);
+    }
+
+    public static <T> Callable<T> untraced(final Callable<T> task) {
+        return new UntracedCallable<>(task);
+    }
+
+    private static class UntracedRunnable implements Runnable, Untraced {
+        private final Runnable task;
+
+        UntracedRunnable(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
+    private static class UntracedCallable<T> implements Callable<T>, Untraced {
+        private final Callable<T> task;
+
+        UntracedCallable(Callable<T> task) {
+            this.task = task;
+        }
+
+        @Override
+        public T call() throws Exception {
+            return task.call();
+        }
+    }
+
+    private static class TracedRunnable implements Runnable {
+        private final ScopeManager scopeManager;
+        private final Span span;
+        private final Runnable task;
+
+        TracedRunnable(ScopeManager scopeManager, Span span, Runnable task) {
+            this.scopeManager = scopeManager;
+            this.span = span;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            Scope scope = scopeManager.activate(span);
+            try {
+                task.run();
+            } finally {
+                scope.close();
+            }
+        }
+    }
+
+    private static class TracedCallable<T> implements Callable<T> {
+        private final ScopeManager scopeManager;
+        private final Span span;
+        private final Callable<T> task;
+
+        TracedCallable(ScopeManager scopeManager, Span span, Callable<T> task) {
+            this.scopeManager = scopeManager;
+            this.span = span;
+            this.task = task;
+        }
+
+        @Override
+        public T call() throws Exception {
+            Scope scope = scopeManager.activate(span);
+            try {
+                return task.call();
+            } finally {
+                scope.close();
+            }
+        }
+    }
+
+    private static class TracingExecutor implements Executor {
+        final ScopeManager scopeManager;
+        private final Executor delegate;
+
+        TracingExecutor(ScopeManager scopeManager, Executor delegate) {
+            this.scopeManager = scopeManager;
+            this.delegate = delegate;
+        }
+
+        Runnable wrap(Runnable task) {
+            if (task instanceof Untraced) {
+                return task;
+            }
+            Span span = scopeManager.activeSpan();
+            return span == null ? task : new TracedRunnable(scopeManager, span, task);
+        }
+
+        <T> Callable<T> wrap(Callable<T> task) {
+            if (task instanceof Untraced) {
+                return task;
+            }
+            Span span = scopeManager.activeSpan();
+            return span == null ? task : new TracedCallable<>(scopeManager, span, task);
+        }
+
+        <T> Collection<? extends Callable<T>> wrapAll(Collection<? extends Callable<T>> tasks) {
+            Span span = scopeManager.activeSpan();
+            if (span == null) {
+                return tasks;
+            }
+            List<Callable<T>> wrapped = new ArrayList<>(tasks.size());
+            for (Callable<T> task : tasks) {
+                wrapped.add(task instanceof Untraced ? task : new TracedCallable<>(scopeManager, span, task));
+            }
+            return wrapped;
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            delegate.execute(wrap(task));
+        }
+    }
+
+    private static class TracingExecutorService extends TracingExecutor implements ExecutorService {
+        private final ExecutorService delegate;
+
+        TracingExecutorService(ScopeManager scopeManager, ExecutorService delegate) {
+            super(scopeManager, delegate);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void shutdown() {
+            delegate.shutdown();
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return delegate.shutdownNow();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return delegate.isShutdown();
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return delegate.isTerminated();
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.awaitTermination(timeout, unit);
+        }
+
+        @Override
+        public <T> Future<T> submit(Callable<T> task) {
+            return delegate.submit(wrap(task));
+        }
+
+        @Override
+        public <T> Future<T> submit(Runnable task, T result) {
+            return delegate.submit(wrap(task), result);
+        }
+
+        @Override
+        public Future<?> submit(Runnable task) {
+            return delegate.submit(wrap(task));
+        }
+
+        @Override
+        public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks) throws InterruptedException {
+            return delegate.invokeAll(wrapAll(tasks));
+        }
+
+        @Override
+        public <T> List<Future<T>> invokeAll(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+                throws InterruptedException {
+            return delegate.invokeAll(wrapAll(tasks), timeout, unit);
+        }
+
+        @Override
+        public <T> T invokeAny(Collection<? extends Callable<T>> tasks) throws InterruptedException, ExecutionException {
+            return delegate.invokeAny(wrapAll(tasks));
+        }
+
+        @Override
+        public <T> T invokeAny(Collection<? extends Callable<T>> tasks, long timeout, TimeUnit unit)
+                throws InterruptedException, ExecutionException, TimeoutException {
+            return delegate.invokeAny(wrapAll(tasks), timeout, unit);
+        }
+    }
+
+    private static class TracingScheduledExecutorService extends TracingExecutorService implements ScheduledExecutorService {
+        private final ScheduledExecutorService delegate;
+
+        TracingScheduledExecutorService(ScopeManager scopeManager, ScheduledExecutorService delegate) {
+            super(scopeManager, delegate);
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            return delegate.schedule(wrap(command), delay, unit);
+        }
+
+        @Override
+        public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+            return delegate.schedule(wrap(callable), delay, unit);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+            return delegate.scheduleAtFixedRate(wrap(command), initialDelay, period, unit);
+        }
+
+        @Override
+        public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+            return delegate.scheduleWithFixedDelay(wrap(command), initialDelay, delay, unit);
+        }
+    }
+}
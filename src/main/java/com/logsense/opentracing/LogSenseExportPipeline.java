@@ -0,0 +1,373 @@
+package com.logsense.opentracing;
+
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Splits exporting into stages on their own threads: the emitter thread collects batches of spans, a pool of
+ * encoder threads turns them into msgpack records and a single sending thread hands the records to Fluency, whose
+ * flusher does the network I/O. Bounded queues sit between the stages, so a slow stage holds up the one before it
+ * rather than piling up spans, and the emitter thread in the end leaves them in the span queue where the
+ * backpressure policy applies. Records of different batches may reach Fluency in a different order than the
+ * batches were collected in.
+ */
+public final class LogSenseExportPipeline implements Closeable {
+    private static final Logger logger = Logger.getLogger(LogSenseExportPipeline.class.getName());
+
+    /**
+     * Assumed size of an encoded span until the first batch has been encoded
+     */
+    static final int INITIAL_SPAN_BYTES = 512;
+
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * The last stage. Records are sent on the sending thread only, flushes may also come from the thread that
+     * flushes the pipeline.
+     */
+    interface Sink {
+        void send(Encoded encoded) throws IOException;
+
+        void flush() throws IOException;
+    }
+
+    private static final class Batch {
+        final LogSenseResource resource;
+        final List<LogSenseSpanModel> spans;
+
+        Batch(LogSenseResource resource, List<LogSenseSpanModel> spans) {
+            this.resource = resource;
+            this.spans = spans;
+        }
+    }
+
+    /**
+     * The records of a batch, each a msgpack map ready to be framed by Fluency
+     */
+    static final class Encoded {
+        final int spanCount;
+        final long[] timestampsMicros;
+        final byte[][] records;
+        final long bytes;
+
+        Encoded(int spanCount, long[] timestampsMicros, byte[][] records, long bytes) {
+            this.spanCount = spanCount;
+            this.timestampsMicros = timestampsMicros;
+            this.records = records;
+            this.bytes = bytes;
+        }
+    }
+
+    private final boolean grouped;
+    private final Sink sink;
+    private final BlockingQueue<Batch> encodeQueue;
+    private final BlockingQueue<Encoded> sendQueue;
+    private final Thread[] encoders;
+    private final Thread sender;
+    private volatile boolean closed;
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final AtomicLong spansToEncode = new AtomicLong();
+    private final AtomicLong encodedBytesToSend = new AtomicLong();
+    private final AtomicLong encodedSpans = new AtomicLong();
+    private final AtomicLong encodedBytes = new AtomicLong();
+    private final AtomicLong encodeNanos = new AtomicLong();
+    private final AtomicLong sentSpans = new AtomicLong();
+    private final AtomicLong sendNanos = new AtomicLong();
+    private final AtomicLong failedSpans = new AtomicLong();
+    private final AtomicLong collectWaitNanos = new AtomicLong();
+    private final AtomicLong encodeWaitNanos = new AtomicLong();
+
+    /**
+     * @param encoderThreads size of the encoder pool
+     * @param queueSize batches each handoff queue holds
+     * @param grouped whether spans of a trace are encoded as one {@code trace_group} record
+     */
+    LogSenseExportPipeline(int encoderThreads, int queueSize, boolean grouped, Sink sink) {
+        this.grouped = grouped;
+        this.sink = sink;
+        this.encodeQueue = new ArrayBlockingQueue<>(queueSize);
+        this.sendQueue = new ArrayBlockingQueue<>(queueSize);
+        this.encoders = new Thread[encoderThreads];
+        for (int i = 0; i < encoderThreads; i++) {
+            encoders[i] = daemon(new Runnable() {
+                @Override
+                public void run() {
+                    encodeLoop();
+                }
+            }, "logsense-encoder-" + i);
+        }
+        this.sender = daemon(new Runnable() {
+            @Override
+            public void run() {
+                sendLoop();
+            }
+        }, "logsense-sender");
+    }
+
+    private static Thread daemon(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Queues the spans for encoding, waiting while the encoders are behind
+     *
+     * @throws IOException if the pipeline was closed meanwhile
+     */
+    void submit(LogSenseResource resource, List<LogSenseSpanModel> spans) throws IOException {
+        Batch batch = new Batch(resource, spans);
+        spansToEncode.addAndGet(spans.size());
+        long start = System.nanoTime();
+        try {
+            while (!encodeQueue.offer(batch, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (closed) {
+                    spansToEncode.addAndGet(-spans.size());
+                    throw new IOException("Export pipeline is closed");
+                }
+            }
+        } catch (InterruptedException e) {
+            spansToEncode.addAndGet(-spans.size());
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the encoders", e);
+        } finally {
+            collectWaitNanos.addAndGet(System.nanoTime() - start);
+        }
+    }
+
+    private void encodeLoop() {
+        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        try {
+            while (!closed || !encodeQueue.isEmpty()) {
+                Batch batch = encodeQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (batch == null) {
+                    continue;
+                }
+                try {
+                    long start = System.nanoTime();
+                    Encoded encoded;
+                    try {
+                        encoded = encode(packer, batch);
+                    } finally {
+                        encodeNanos.addAndGet(System.nanoTime() - start);
+                    }
+                    encodedBytesToSend.addAndGet(encoded.bytes);
+                    long waitStart = System.nanoTime();
+                    while (!sendQueue.offer(encoded, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                        if (closed && !sender.isAlive()) {
+                            encodedBytesToSend.addAndGet(-encoded.bytes);
+                            failed(encoded.spanCount, new IOException("Export pipeline is closed"));
+                            break;
+                        }
+                    }
+                    encodeWaitNanos.addAndGet(System.nanoTime() - waitStart);
+                } catch (IOException | RuntimeException e) {
+                    failed(batch.spans.size(), e);
+                } finally {
+                    // Only now, so that the spans are always counted as either to encode or to send
+                    spansToEncode.addAndGet(-batch.spans.size());
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed past the shutdown deadline
+        }
+    }
+
+    private Encoded encode(MessageBufferPacker packer, Batch batch) throws IOException {
+        List<LogSenseTracer.FluentDataFacade> records = LogSenseTracer.FluentDataFacade.records(batch.resource, batch.spans, grouped);
+        long[] timestamps = new long[records.size()];
+        byte[][] encoded = new byte[records.size()][];
+        long bytes = 0;
+        for (int i = 0; i < records.size(); i++) {
+            LogSenseTracer.FluentDataFacade record = records.get(i);
+            packer.clear();
+            LogSenseSegmentWriter.packValue(packer, record.data);
+            encoded[i] = packer.toByteArray();
+            timestamps[i] = record.timestampMicros;
+            bytes += encoded[i].length;
+        }
+        encodedSpans.addAndGet(batch.spans.size());
+        encodedBytes.addAndGet(bytes);
+        return new Encoded(batch.spans.size(), timestamps, encoded, bytes);
+    }
+
+    private void sendLoop() {
+        try {
+            while (!closed || !sendQueue.isEmpty() || encodersAlive()) {
+                Encoded encoded = sendQueue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (encoded != null) {
+                    long start = System.nanoTime();
+                    try {
+                        sink.send(encoded);
+                        sentSpans.addAndGet(encoded.spanCount);
+                    } catch (IOException | RuntimeException e) {
+                        failed(encoded.spanCount, e);
+                    } finally {
+                        sendNanos.addAndGet(System.nanoTime() - start);
+                        encodedBytesToSend.addAndGet(-encoded.bytes);
+                    }
+                }
+                if (isIdle() && flushRequested.compareAndSet(true, false)) {
+                    flushSink();
+                }
+            }
+        } catch (InterruptedException e) {
+            // Closed past the shutdown deadline
+        }
+    }
+
+    private boolean encodersAlive() {
+        for (Thread encoder : encoders) {
+            if (encoder.isAlive()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void failed(int spans, Exception e) {
+        failedSpans.addAndGet(spans);
+        logger.warning("Exporting " + spans + " LogSense spans failed: " + e);
+    }
+
+    private void flushSink() {
+        try {
+            sink.flush();
+        } catch (IOException | RuntimeException e) {
+            logger.warning("Flushing LogSense spans failed: " + e);
+        }
+    }
+
+    private boolean isIdle() {
+        return spansToEncode.get() == 0 && encodedBytesToSend.get() == 0;
+    }
+
+    /**
+     * Flushes the sink once everything submitted so far has gone through it
+     */
+    void flush() {
+        flushRequested.set(true);
+        if (isIdle() && flushRequested.compareAndSet(true, false)) {
+            flushSink();
+        }
+    }
+
+    /**
+     * @return encoded size of the spans submitted and not sent yet, estimated for those not encoded yet
+     */
+    long getPendingBytes() {
+        long toEncode = spansToEncode.get();
+        long pending = encodedBytesToSend.get();
+        if (toEncode > 0) {
+            long spans = encodedSpans.get();
+            long perSpan = spans == 0 ? INITIAL_SPAN_BYTES : Math.max(1, encodedBytes.get() / spans);
+            pending += toEncode * perSpan;
+        }
+        return pending;
+    }
+
+    /**
+     * Stops the stages. Batches still queued are finished first; those left once the threads have been waited for
+     * are dropped, which only happens when closing after the shutdown deadline.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            for (Thread encoder : encoders) {
+                encoder.join(POLL_MILLIS * 2);
+            }
+            sender.join(POLL_MILLIS * 2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Thread encoder : encoders) {
+            encoder.interrupt();
+        }
+        sender.interrupt();
+    }
+
+    public int getEncoderThreads() {
+        return encoders.length;
+    }
+
+    /**
+     * @return batches waiting for an encoder
+     */
+    public int getEncodeQueueLength() {
+        return encodeQueue.size();
+    }
+
+    /**
+     * @return encoded batches waiting for the sending thread
+     */
+    public int getSendQueueLength() {
+        return sendQueue.size();
+    }
+
+    public long getEncodedSpanCount() {
+        return encodedSpans.get();
+    }
+
+    public long getEncodedBytes() {
+        return encodedBytes.get();
+    }
+
+    /**
+     * @return time the encoders spent encoding, summed over the pool
+     */
+    public long getEncodeNanos() {
+        return encodeNanos.get();
+    }
+
+    public long getSentSpanCount() {
+        return sentSpans.get();
+    }
+
+    /**
+     * @return time the sending thread spent handing records to Fluency
+     */
+    public long getSendNanos() {
+        return sendNanos.get();
+    }
+
+    /**
+     * @return spans that failed to encode or send
+     */
+    public long getFailedSpanCount() {
+        return failedSpans.get();
+    }
+
+    /**
+     * @return time the emitter thread waited for room in the encode queue
+     */
+    public long getCollectWaitNanos() {
+        return collectWaitNanos.get();
+    }
+
+    /**
+     * @return time the encoders waited for room in the send queue
+     */
+    public long getEncodeWaitNanos() {
+        return encodeWaitNanos.get();
+    }
+
+    @Override
+    public String toString() {
+        return "LogSenseExportPipeline{encoders=" + encoders.length + ", encodeQueue=" + encodeQueue.size()
+                + ", sendQueue=" + sendQueue.size() + ", encoded=" + encodedSpans.get() + ", sent=" + sentSpans.get()
+                + ", failed=" + failedSpans.get() + "}";
+    }
+}
@@ -0,0 +1,43 @@
+package com.logsense.opentracing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Receives the finished spans drained from the queue of a tracer, see {@link LogSenseTracer#LogSenseTracer(String,
+ * LogSenseExporter)}. The tracer uses {@link LogSenseFluencyExporter} or, with {@code logsense.exporter=file},
+ * {@link LogSenseFileExporter} when none is given.
+ * <p>
+ * The emitter thread is the only caller. Finished spans are not changed any more, so an exporter may keep them,
+ * but not the list they come in.
+ */
+public interface LogSenseExporter extends Closeable {
+    /**
+     * @param resource what the spans come from, the same instance for every call on behalf of a tracer
+     * @param spans    spans finished since the previous call, in the order they finished
+     * @throws IOException if the spans could not be taken; they are counted as dropped
+     */
+    void export(LogSenseResource resource, List<LogSenseSpanModel> spans) throws IOException;
+
+    /**
+     * Writes out what is buffered, called when a flush is requested and before closing
+     */
+    default void flush() throws IOException {
+    }
+
+    /**
+     * @return size of the data taken by {@link #export} but not written out yet; closing waits for it to reach
+     * zero up to the shutdown timeout
+     */
+    default long getBufferedBytes() {
+        return 0;
+    }
+
+    /**
+     * Called on the emitter thread once the last tracer using the exporter closes
+     */
+    @Override
+    default void close() throws IOException {
+    }
+}
@@ -0,0 +1,266 @@
+package com.logsense.opentracing;
+
+import org.komamitsu.fluency.fluentd.ingester.sender.failuredetect.FailureDetector;
+import org.komamitsu.fluency.fluentd.ingester.sender.failuredetect.PhiAccrualFailureDetectStrategy;
+import org.komamitsu.fluency.fluentd.ingester.sender.heartbeat.Heartbeater;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Tells whether an endpoint is up, from TLS heartbeats and from the failures the sender reports. An endpoint is down
+ * for the down time after a failed heartbeat or send, and while the phi accrual suspicion that it stopped answering
+ * heartbeats is above the threshold. The detector records when the endpoint was last heard from, so that the time it
+ * took to notice an outage can be reported.
+ */
+public class LogSenseFailureDetector extends FailureDetector {
+    private static final Logger logger = Logger.getLogger(LogSenseFailureDetector.class.getName());
+
+    private final Heartbeater heartbeater;
+    private final String endpoint;
+    private final Object stateLock = new Object();
+    private volatile long lastAliveMillis;
+    private volatile long downSinceMillis;
+    private volatile long lastDownMillis;
+    private volatile long lastTimeToDetectMillis = -1;
+    private final AtomicLong downCount = new AtomicLong();
+
+    /**
+     * @param phiThreshold suspicion above which missing heartbeats make the endpoint down
+     * @param downMillis how long the endpoint stays down after a failure
+     */
+    public LogSenseFailureDetector(Heartbeater heartbeater, double phiThreshold, int downMillis) {
+        // The base class starts what it is given before this one's fields are assigned, so the heartbeats start here
+        super(strategy(phiThreshold), new Unstarted(heartbeater), config(downMillis));
+        this.heartbeater = heartbeater;
+        this.endpoint = heartbeater.getHost() + ":" + heartbeater.getPort();
+        heartbeater.setCallback(this);
+        heartbeater.start();
+    }
+
+    private static PhiAccrualFailureDetectStrategy strategy(double phiThreshold) {
+        PhiAccrualFailureDetectStrategy.Config config = new PhiAccrualFailureDetectStrategy.Config();
+        config.setPhiThreshold((float) phiThreshold);
+        return new PhiAccrualFailureDetectStrategy(config);
+    }
+
+    private static FailureDetector.Config config(int downMillis) {
+        FailureDetector.Config config = new FailureDetector.Config();
+        config.setFailureIntervalMillis(downMillis);
+        return config;
+    }
+
+    @Override
+    public void onHeartbeat() {
+        lastAliveMillis = System.currentTimeMillis();
+        super.onHeartbeat();
+        isAvailable();
+    }
+
+    @Override
+    public void onFailure(Throwable e) {
+        super.onFailure(e);
+        markDown();
+    }
+
+    @Override
+    public boolean isAvailable() {
+        boolean available = super.isAvailable();
+        if (available) {
+            markUp();
+        } else {
+            markDown();
+        }
+        return available;
+    }
+
+    /**
+     * Counts a successful send as a sign of life, like a heartbeat answered
+     */
+    void onSuccess() {
+        lastAliveMillis = System.currentTimeMillis();
+    }
+
+    private void markDown() {
+        synchronized (stateLock) {
+            if (downSinceMillis != 0) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            downSinceMillis = now;
+            lastDownMillis = now;
+            downCount.incrementAndGet();
+            if (lastAliveMillis != 0) {
+                lastTimeToDetectMillis = now - lastAliveMillis;
+            }
+        }
+        logger.warning("LogSense endpoint " + endpoint + " is down");
+    }
+
+    private void markUp() {
+        synchronized (stateLock) {
+            if (downSinceMillis == 0) {
+                return;
+            }
+            downSinceMillis = 0;
+        }
+        logger.info("LogSense endpoint " + endpoint + " is up again");
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    @Override
+    public Heartbeater getHeartbeater() {
+        return heartbeater;
+    }
+
+    /**
+     * @return when the endpoint was found down, 0 while it is up
+     */
+    public long getDownSinceMillis() {
+        return downSinceMillis;
+    }
+
+    /**
+     * @return when the endpoint was last found down, 0 if never
+     */
+    public long getLastDownMillis() {
+        return lastDownMillis;
+    }
+
+    /**
+     * @return how many times the endpoint was found down
+     */
+    public long getDownCount() {
+        return downCount.get();
+    }
+
+    /**
+     * @return time from the last heartbeat or send that went through to the endpoint being found down, the latest
+     * time it was; -1 if it was never found down after being up
+     */
+    public long getLastTimeToDetectMillis() {
+        return lastTimeToDetectMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "LogSenseFailureDetector{endpoint=" + endpoint + ", down=" + (downSinceMillis != 0)
+                + ", downCount=" + downCount.get() + "} " + super.toString();
+    }
+
+    /**
+     * Handed to the base class in place of the real heartbeater, which it would start too early. Closing it closes
+     * the real one.
+     */
+    private static class Unstarted extends Heartbeater {
+        private final Heartbeater heartbeater;
+
+        Unstarted(Heartbeater heartbeater) {
+            super(config(heartbeater));
+            this.heartbeater = heartbeater;
+        }
+
+        private static Heartbeater.Config config(Heartbeater heartbeater) {
+            Heartbeater.Config config = new Heartbeater.Config();
+            config.setHost(heartbeater.getHost());
+            config.setPort(heartbeater.getPort());
+            config.setIntervalMillis(heartbeater.getIntervalMillis());
+            return config;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        protected void invoke() {
+        }
+
+        @Override
+        public void close() {
+            heartbeater.close();
+            super.close();
+        }
+    }
+
+    /**
+     * Checks that a TLS handshake with the endpoint completes. Sockets come from the default {@link SSLContext}, like
+     * those of the senders, so heartbeats resume the TLS session rather than doing a full handshake each time, which
+     * would also make the time between heartbeats depend on the handshake.
+     */
+    public static class TlsHeartbeater extends Heartbeater {
+        private final int timeoutMillis;
+        private final AtomicLong resumed = new AtomicLong();
+
+        /**
+         * @param timeoutMillis how long connecting and the handshake may take before the heartbeat fails
+         */
+        public TlsHeartbeater(Heartbeater.Config config, int timeoutMillis) {
+            super(config);
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        protected void invoke() throws IOException {
+            try (Socket plain = new Socket()) {
+                plain.connect(new InetSocketAddress(getHost(), getPort()), timeoutMillis);
+                plain.setSoTimeout(timeoutMillis);
+                try (SSLSocket ssl = (SSLSocket) sslContext().getSocketFactory().createSocket(plain, getHost(), getPort(), true)) {
+                    long startMillis = System.currentTimeMillis();
+                    ssl.startHandshake();
+                    pong();
+                    // A resumed session keeps the time it was first created at
+                    if (ssl.getSession().getCreationTime() < startMillis) {
+                        resumed.incrementAndGet();
+                    }
+                    if ("TLSv1.3".equals(ssl.getSession().getProtocol())) {
+                        readSessionTicket(ssl);
+                    }
+                }
+            }
+        }
+
+        /**
+         * TLS 1.3 sends the ticket to resume the session with after the handshake, and it only reaches the session
+         * cache once read. The heartbeat closes its side and reads until the endpoint closes as well, for up to the
+         * timeout; the heartbeat already counted.
+         */
+        private static void readSessionTicket(SSLSocket ssl) {
+            try {
+                ssl.shutdownOutput();
+                InputStream in = ssl.getInputStream();
+                byte[] discarded = new byte[256];
+                while (in.read(discarded) >= 0) {
+                    // Nothing is expected but the ticket, which the socket takes in itself
+                }
+            } catch (IOException e) {
+                // The next heartbeat does a full handshake
+            }
+        }
+
+        /**
+         * @return heartbeats whose handshake resumed an earlier TLS session
+         */
+        public long getResumedCount() {
+            return resumed.get();
+        }
+
+        private static SSLContext sslContext() throws IOException {
+            try {
+                return SSLContext.getDefault();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IOException("No default SSLContext available", e);
+            }
+        }
+    }
+}
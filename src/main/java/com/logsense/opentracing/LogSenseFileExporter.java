@@ -0,0 +1,60 @@
+package com.logsense.opentracing;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Appends spans to memory-mapped segment files for a shipper on the same node, see {@link LogSenseSegmentWriter}
+ * for the format and {@link LogSenseSegmentReader} for reading them. Used with {@code logsense.exporter=file}.
+ */
+public final class LogSenseFileExporter implements LogSenseExporter {
+    private static final Logger logger = Logger.getLogger(LogSenseFileExporter.class.getName());
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final boolean grouped;
+    private LogSenseSegmentWriter writer;
+
+    /**
+     * @param config the segment file and export mode settings
+     */
+    public LogSenseFileExporter(LogSenseConfig config) {
+        this.directory = Paths.get(config.getFileDirectory());
+        this.segmentSize = config.getFileSegmentSize();
+        this.maxSegments = config.getFileMaxSegments();
+        this.grouped = config.isTraceGroupingEnabled();
+    }
+
+    @Override
+    public void export(LogSenseResource resource, List<LogSenseSpanModel> spans) throws IOException {
+        if (writer == null) {
+            writer = new LogSenseSegmentWriter(directory, segmentSize, maxSegments);
+            logger.info("LogSense tracing writes segment files to " + directory);
+        }
+        for (LogSenseTracer.FluentDataFacade record : LogSenseTracer.FluentDataFacade.records(resource, spans, grouped)) {
+            writer.append("ot", record.timestampMicros, record.data);
+        }
+    }
+
+    /**
+     * Forces what was appended to disk
+     */
+    @Override
+    public void flush() {
+        if (writer != null) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+}
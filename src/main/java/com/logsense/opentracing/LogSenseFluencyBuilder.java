@@ -5,104 +5,417 @@ import org.komamitsu.fluency.fluentd.FluencyBuilderForFluentd;
 import org.komamitsu.fluency.fluentd.ingester.FluentdIngester;
 import org.komamitsu.fluency.fluentd.ingester.sender.FluentdSender;
 import org.komamitsu.fluency.fluentd.ingester.sender.MultiSender;
+import org.komamitsu.fluency.fluentd.ingester.sender.NetworkSender;
 import org.komamitsu.fluency.fluentd.ingester.sender.RetryableSender;
 import org.komamitsu.fluency.fluentd.ingester.sender.SSLSender;
 import org.komamitsu.fluency.fluentd.ingester.sender.failuredetect.FailureDetector;
-import org.komamitsu.fluency.fluentd.ingester.sender.failuredetect.PhiAccrualFailureDetectStrategy;
-import org.komamitsu.fluency.fluentd.ingester.sender.heartbeat.SSLHeartbeater;
+import org.komamitsu.fluency.fluentd.ingester.sender.heartbeat.Heartbeater;
 import org.komamitsu.fluency.fluentd.ingester.sender.retry.ExponentialBackOffRetryStrategy;
 import org.komamitsu.fluency.fluentd.ingester.sender.retry.RetryStrategy;
 import org.komamitsu.fluency.fluentd.recordformat.FluentdRecordFormatter;
 import org.komamitsu.fluency.ingester.Ingester;
 import org.komamitsu.fluency.recordformat.RecordFormatter;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.net.Socket;
 import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
 
 /**
  * The purpose of this class is to have a dedicated, quiet data emitter
  */
 public class LogSenseFluencyBuilder extends FluencyBuilderForFluentd {
+    private static final Logger logger = Logger.getLogger(LogSenseFluencyBuilder.class.getName());
+
     private boolean heartbeatEnabled = false;
+    private boolean nioSenderEnabled = false;
+    private int ackWindowSize = 1;
+    private boolean standbyEnabled = false;
+    private int heartbeatIntervalMillis = 1000;
+    private double phiThreshold = 16;
+    private int endpointDownMillis = 3000;
+    private Integer senderBaseRetryIntervalMillis;
+    private Integer senderMaxRetryIntervalMillis;
+
+    /**
+     * Consecutive failures after which the circuit opens
+     */
+    public static final int DEFAULT_SENDER_MAX_RETRY_COUNT = 3;
+
+    /**
+     * Upper bound of the back-off, kept low so that the tracer notices a recovered endpoint within seconds
+     */
+    public static final int DEFAULT_SENDER_MAX_RETRY_INTERVAL_MILLIS = 5000;
 
+    /**
+     * Sends each chunk to the first endpoint, in priority order, that is up and takes it. An endpoint found down is
+     * skipped without waiting, one failing a send is left out by its failure detector for the down time, so traffic
+     * moves back to a higher priority endpoint once its heartbeats go through again. Chunks that an endpoint took
+     * into its ack window and lost with its connection are sent again after the next chunk, and when closing.
+     */
     public static class LogSenseMultiSender extends MultiSender {
-        public LogSenseMultiSender(List<FluentdSender> senders) { super(senders); }
+        private final List<LogSenseFailureDetector> failureDetectors;
+        private volatile int activeIndex = -1;
+        private long outageSinceMillis;
+        private volatile long lastTimeToRecoverMillis = -1;
+        private final AtomicLong failovers = new AtomicLong();
+        private final AtomicLong failbacks = new AtomicLong();
+        /**
+         * Chunks taken from an endpoint whose connection failed before acking them, oldest first
+         */
+        private final ArrayDeque<LogSenseNioSender.Outstanding> failedChunks = new ArrayDeque<>();
+        private final AtomicLong resentChunks = new AtomicLong();
+
+        public LogSenseMultiSender(List<FluentdSender> senders) {
+            super(senders);
+            this.failureDetectors = new ArrayList<>();
+            for (FluentdSender sender : senders) {
+                failureDetectors.add(failureDetector(sender));
+            }
+        }
+
+        private static LogSenseFailureDetector failureDetector(FluentdSender sender) {
+            FailureDetector detector = null;
+            if (sender instanceof NetworkSender) {
+                detector = ((NetworkSender<?>) sender).getFailureDetector();
+            }
+            else if (sender instanceof LogSenseNioSender) {
+                detector = ((LogSenseNioSender) sender).getFailureDetector();
+            }
+            return detector instanceof LogSenseFailureDetector ? (LogSenseFailureDetector) detector : null;
+        }
 
         @Override
         protected synchronized void sendInternal(List<ByteBuffer> buffers, byte[] ackToken)
                 throws AllNodesUnavailableException
         {
-            for (FluentdSender sender : getSenders()) {
-                boolean isAvailable = sender.isAvailable();
-                if (isAvailable) {
-                    try {
-                        if (ackToken == null) {
-                            sender.send(buffers);
-                        }
-                        else {
-                            sender.sendWithAck(buffers, ackToken);
-                        }
-                        return;
+            route(buffers, ackToken);
+            resendFailedChunks();
+        }
+
+        private void route(List<ByteBuffer> buffers, byte[] ackToken)
+                throws AllNodesUnavailableException
+        {
+            List<FluentdSender> senders = getSenders();
+            for (int i = 0; i < senders.size(); i++) {
+                FluentdSender sender = senders.get(i);
+                if (!sender.isAvailable()) {
+                    onUnavailable(i);
+                    continue;
+                }
+                try {
+                    if (ackToken == null) {
+                        sender.send(buffers);
                     }
-                    catch (IOException e) {
-                        // Skip silently
+                    else {
+                        sender.sendWithAck(buffers, ackToken);
                     }
+                    onSuccess(i);
+                    return;
+                }
+                catch (IOException e) {
+                    onUnavailable(i);
                 }
             }
             throw new AllNodesUnavailableException("All nodes are unavailable");
         }
+
+        /**
+         * A chunk in an ack window counts as sent for Fluency, which has let go of it. One whose connection failed
+         * would otherwise wait for that endpoint to come back, so it goes to whichever endpoint is up now.
+         */
+        private void resendFailedChunks()
+        {
+            for (FluentdSender sender : getSenders()) {
+                if (sender instanceof LogSenseNioSender) {
+                    failedChunks.addAll(((LogSenseNioSender) sender).takeFailedChunks());
+                }
+            }
+            while (!failedChunks.isEmpty()) {
+                LogSenseNioSender.Outstanding chunk = failedChunks.peek();
+                try {
+                    route(Collections.singletonList(chunk.getChunk()), chunk.getAckToken());
+                }
+                catch (AllNodesUnavailableException e) {
+                    // Tried again after the next chunk
+                    return;
+                }
+                failedChunks.poll();
+                resentChunks.incrementAndGet();
+            }
+        }
+
+        @Override
+        public synchronized void close()
+                throws IOException
+        {
+            resendFailedChunks();
+            if (!failedChunks.isEmpty()) {
+                logger.warning("Closing with " + failedChunks.size() + " chunks no LogSense endpoint acknowledged");
+            }
+            super.close();
+        }
+
+        /**
+         * @return chunks sent again after the endpoint that had them lost its connection before acking them
+         */
+        public long getResentChunkCount()
+        {
+            return resentChunks.get();
+        }
+
+        private void onUnavailable(int index) {
+            if (index != activeIndex || outageSinceMillis != 0) {
+                return;
+            }
+            LogSenseFailureDetector detector = failureDetectors.get(index);
+            long downSince = detector == null ? 0 : detector.getDownSinceMillis();
+            outageSinceMillis = downSince != 0 ? downSince : System.currentTimeMillis();
+        }
+
+        private void onSuccess(int index) {
+            LogSenseFailureDetector detector = failureDetectors.get(index);
+            if (detector != null) {
+                detector.onSuccess();
+            }
+            if (outageSinceMillis != 0) {
+                lastTimeToRecoverMillis = System.currentTimeMillis() - outageSinceMillis;
+                outageSinceMillis = 0;
+            }
+            int previous = activeIndex;
+            if (previous >= 0 && index > previous) {
+                failovers.incrementAndGet();
+                logger.warning("LogSense tracing failed over to " + endpoint(index));
+            }
+            else if (previous >= 0 && index < previous) {
+                failbacks.incrementAndGet();
+                logger.info("LogSense tracing is back on " + endpoint(index));
+            }
+            activeIndex = index;
+        }
+
+        private String endpoint(int index) {
+            FluentdSender sender = getSenders().get(index);
+            if (sender instanceof NetworkSender) {
+                return ((NetworkSender<?>) sender).getHost() + ":" + ((NetworkSender<?>) sender).getPort();
+            }
+            if (sender instanceof LogSenseNioSender) {
+                return ((LogSenseNioSender) sender).getHost() + ":" + ((LogSenseNioSender) sender).getPort();
+            }
+            return sender.toString();
+        }
+
+        /**
+         * @return host and port of the endpoint the latest chunk went to, null before the first one
+         */
+        public String getActiveEndpoint() {
+            int index = activeIndex;
+            return index < 0 ? null : endpoint(index);
+        }
+
+        /**
+         * @return the failure detector of each endpoint in priority order, null entries without heartbeats
+         */
+        public List<LogSenseFailureDetector> getFailureDetectors() {
+            return Collections.unmodifiableList(failureDetectors);
+        }
+
+        /**
+         * @return how many times chunks moved to a lower priority endpoint
+         */
+        public long getFailoverCount() {
+            return failovers.get();
+        }
+
+        /**
+         * @return how many times chunks moved back to a higher priority endpoint
+         */
+        public long getFailbackCount() {
+            return failbacks.get();
+        }
+
+        /**
+         * @return time it took the endpoint found down most recently to be noticed, -1 if none was
+         */
+        public long getLastTimeToDetectMillis() {
+            long latest = 0;
+            long detect = -1;
+            for (LogSenseFailureDetector detector : failureDetectors) {
+                if (detector != null && detector.getLastTimeToDetectMillis() >= 0
+                        && detector.getLastDownMillis() >= latest) {
+                    latest = detector.getLastDownMillis();
+                    detect = detector.getLastTimeToDetectMillis();
+                }
+            }
+            return detect;
+        }
+
+        /**
+         * @return time from the endpoint in use being found down to a chunk going through again, on whichever
+         * endpoint, the latest time it happened; -1 if it never did
+         */
+        public long getLastTimeToRecoverMillis() {
+            return lastTimeToRecoverMillis;
+        }
     }
 
+    /**
+     * Retries by scheduling rather than sleeping. A failed chunk is handed straight back to the Fluency buffer, which
+     * offers it again on the next flush; the circuit breaker decides whether that attempt reaches the endpoint or is
+     * rejected at once. Nothing ever waits while holding the sender lock, so {@code close()} and the emitter stay
+     * responsive during an outage.
+     */
     public static class LogSenseRetryableSender extends RetryableSender {
-        private static final Logger LOG = LoggerFactory.getLogger(RetryableSender.class);
+        private final LogSenseCircuitBreaker circuitBreaker;
 
         public LogSenseRetryableSender(Config config, FluentdSender baseSender, RetryStrategy retryStrategy)
         {
             super(config, baseSender, retryStrategy);
+            this.circuitBreaker = new LogSenseCircuitBreaker(retryStrategy.getMaxRetryCount(), retryStrategy);
         }
 
         @Override
-        protected synchronized void sendInternal(List<ByteBuffer> buffers, byte[] ackToken)
+        protected void sendInternal(List<ByteBuffer> buffers, byte[] ackToken)
                 throws IOException
         {
-            IOException firstException = null;
+            if (isClosed()) {
+                throw new RetryOverException("This sender is already closed", null);
+            }
 
-            int retry = 0;
-            while (!getRetryStrategy().isRetriedOver(retry)) {
-                if (isClosed()) {
-                    throw new RetryOverException("This sender is already closed", firstException);
-                }
+            if (!circuitBreaker.tryAcquire()) {
+                throw new CircuitOpenException(circuitBreaker.getRetryDelayMillis());
+            }
 
-                try {
-                    if (ackToken == null) {
-                        getBaseSender().send(buffers);
-                    }
-                    else {
-                        getBaseSender().sendWithAck(buffers, ackToken);
-                    }
-                    return;
+            boolean sent = false;
+            try {
+                if (ackToken == null) {
+                    getBaseSender().send(buffers);
                 }
-                catch (IOException e) {
-                    firstException = e;
+                else {
+                    getBaseSender().sendWithAck(buffers, ackToken);
                 }
-
-                try {
-                    TimeUnit.MILLISECONDS.sleep(getRetryStrategy().getNextIntervalMillis(retry));
+                sent = true;
+            }
+            finally {
+                // Unchecked exceptions count as failures too, a half-open probe must never stay taken
+                if (sent) {
+                    circuitBreaker.onSuccess();
                 }
-                catch (InterruptedException e) {
-                    LOG.debug("Interrupted while waiting", e);
-                    Thread.currentThread().interrupt();
+                else {
+                    circuitBreaker.onFailure();
                 }
-                retry++;
             }
+        }
+
+        @Override
+        public boolean isAvailable() {
+            return circuitBreaker.getState() != LogSenseCircuitBreaker.State.OPEN && super.isAvailable();
+        }
 
-            throw new RetryOverException("Sending data was retried over", firstException);
+        public LogSenseCircuitBreaker getCircuitBreaker() {
+            return circuitBreaker;
+        }
+    }
+
+    /**
+     * The blocking sender, with sockets made by the default {@link SSLContext} rather than a new context per
+     * connection as Fluency's {@link SSLSender} does. The context keeps the client session cache, so a reconnect to
+     * the same endpoint resumes the previous TLS session instead of doing a full handshake. Sockets also have TCP
+     * keep-alive on, so that an idle connection is not silently dropped by a firewall on the way.
+     */
+    public static class LogSenseSSLSender extends SSLSender {
+        private final AtomicReference<SSLSocket> socket = new AtomicReference<>();
+        private final AtomicLong connects = new AtomicLong();
+        private volatile long lastConnectMillis;
+
+        public LogSenseSSLSender(SSLSender.Config config, FailureDetector failureDetector)
+        {
+            super(config, failureDetector);
+        }
+
+        @Override
+        protected SSLSocket getOrCreateSocketInternal()
+                throws IOException
+        {
+            SSLSocket current = socket.get();
+            if (current == null) {
+                current = connect();
+                socket.set(current);
+            }
+            return current;
+        }
+
+        private SSLSocket connect()
+                throws IOException
+        {
+            long start = System.currentTimeMillis();
+            Socket plain = new Socket();
+            try {
+                plain.setTcpNoDelay(true);
+                plain.setKeepAlive(true);
+                plain.connect(new InetSocketAddress(getHost(), getPort()), getConnectionTimeoutMilli());
+                plain.setSoTimeout(getReadTimeoutMilli());
+                SSLSocket ssl = (SSLSocket) sslContext().getSocketFactory().createSocket(plain, getHost(), getPort(), true);
+                ssl.startHandshake();
+                connects.incrementAndGet();
+                lastConnectMillis = System.currentTimeMillis() - start;
+                return ssl;
+            }
+            catch (IOException e) {
+                plain.close();
+                throw e;
+            }
+        }
+
+        private static SSLContext sslContext()
+                throws IOException
+        {
+            try {
+                return SSLContext.getDefault();
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IOException("No default SSLContext available", e);
+            }
+        }
+
+        @Override
+        protected void closeSocket()
+                throws IOException
+        {
+            SSLSocket current = socket.getAndSet(null);
+            if (current != null) {
+                current.close();
+            }
+        }
+
+        /**
+         * @return connections opened so far, the first one included
+         */
+        public long getConnectCount() {
+            return connects.get();
+        }
+
+        /**
+         * @return how long the TCP connect and TLS handshake of the latest connection took
+         */
+        public long getLastConnectMillis() {
+            return lastConnectMillis;
+        }
+    }
+
+    public static class CircuitOpenException extends IOException {
+        public CircuitOpenException(long retryDelayMillis) {
+            super("Endpoint is unavailable, next attempt in " + retryDelayMillis + " ms");
         }
     }
 
@@ -116,13 +429,18 @@ public class LogSenseFluencyBuilder extends FluencyBuilderForFluentd {
         ExponentialBackOffRetryStrategy.Config retryStrategyConfig =
                 new ExponentialBackOffRetryStrategy.Config();
 
-        if (getSenderMaxRetryCount() != null) {
-            retryStrategyConfig.setMaxRetryCount(getSenderMaxRetryCount());
-        }
+        retryStrategyConfig.setMaxRetryCount(DEFAULT_SENDER_MAX_RETRY_COUNT);
+        retryStrategyConfig.setMaxIntervalMillis(DEFAULT_SENDER_MAX_RETRY_INTERVAL_MILLIS);
 
         if (getSenderMaxRetryCount() != null) {
             retryStrategyConfig.setMaxRetryCount(getSenderMaxRetryCount());
         }
+        if (senderBaseRetryIntervalMillis != null) {
+            retryStrategyConfig.setBaseIntervalMillis(senderBaseRetryIntervalMillis);
+        }
+        if (senderMaxRetryIntervalMillis != null) {
+            retryStrategyConfig.setMaxIntervalMillis(senderMaxRetryIntervalMillis);
+        }
 
         RetryableSender.Config senderConfig = new RetryableSender.Config();
 
@@ -141,8 +459,22 @@ public class LogSenseFluencyBuilder extends FluencyBuilderForFluentd {
 
     private FluentdSender createBaseSender(String host, Integer port)
     {
-        SSLSender.Config senderConfig = new SSLSender.Config();
         FailureDetector failureDetector = null;
+        if (heartbeatEnabled) {
+            Heartbeater.Config hbConfig = new Heartbeater.Config();
+            hbConfig.setHost(host);
+            hbConfig.setPort(port);
+            hbConfig.setIntervalMillis(heartbeatIntervalMillis);
+            int timeoutMillis = getConnectionTimeoutMilli() != null ? getConnectionTimeoutMilli() : heartbeatIntervalMillis;
+            Heartbeater heartbeater = new LogSenseFailureDetector.TlsHeartbeater(hbConfig, timeoutMillis);
+            failureDetector = new LogSenseFailureDetector(heartbeater, phiThreshold, endpointDownMillis);
+        }
+
+        if (nioSenderEnabled) {
+            return createNioSender(host, port, failureDetector);
+        }
+
+        SSLSender.Config senderConfig = new SSLSender.Config();
 
         if (host != null) {
             senderConfig.setHost(host);
@@ -150,12 +482,24 @@ public class LogSenseFluencyBuilder extends FluencyBuilderForFluentd {
         if (port != null) {
             senderConfig.setPort(port);
         }
-        if (heartbeatEnabled) {
-            SSLHeartbeater.Config hbConfig = new SSLHeartbeater.Config();
-            hbConfig.setHost(host);
-            hbConfig.setPort(port);
-            SSLHeartbeater heartbeater = new SSLHeartbeater(hbConfig);
-            failureDetector = new FailureDetector(new PhiAccrualFailureDetectStrategy(), heartbeater);
+        if (getConnectionTimeoutMilli() != null) {
+            senderConfig.setConnectionTimeoutMilli(getConnectionTimeoutMilli());
+        }
+        if (getReadTimeoutMilli() != null) {
+            senderConfig.setReadTimeoutMilli(getReadTimeoutMilli());
+        }
+        return new LogSenseSSLSender(senderConfig, failureDetector);
+    }
+
+    private FluentdSender createNioSender(String host, Integer port, FailureDetector failureDetector)
+    {
+        LogSenseNioSender.Config senderConfig = new LogSenseNioSender.Config();
+
+        if (host != null) {
+            senderConfig.setHost(host);
+        }
+        if (port != null) {
+            senderConfig.setPort(port);
         }
         if (getConnectionTimeoutMilli() != null) {
             senderConfig.setConnectionTimeoutMilli(getConnectionTimeoutMilli());
@@ -163,7 +507,9 @@ public class LogSenseFluencyBuilder extends FluencyBuilderForFluentd {
         if (getReadTimeoutMilli() != null) {
             senderConfig.setReadTimeoutMilli(getReadTimeoutMilli());
         }
-        return new SSLSender(senderConfig, failureDetector);
+        senderConfig.setAckWindowSize(ackWindowSize);
+        senderConfig.setStandbyEnabled(standbyEnabled);
+        return new LogSenseNioSender(senderConfig, failureDetector);
     }
 
     /**
@@ -187,6 +533,86 @@ public class LogSenseFluencyBuilder extends FluencyBuilderForFluentd {
         return heartbeatEnabled;
     }
 
+    public void setHeartbeatIntervalMillis(int heartbeatIntervalMillis) {
+        this.heartbeatIntervalMillis = heartbeatIntervalMillis;
+    }
+
+    public int getHeartbeatIntervalMillis() {
+        return heartbeatIntervalMillis;
+    }
+
+    /**
+     * Sets the phi accrual suspicion above which missing heartbeats make an endpoint down
+     */
+    public void setPhiThreshold(double phiThreshold) {
+        this.phiThreshold = phiThreshold;
+    }
+
+    public double getPhiThreshold() {
+        return phiThreshold;
+    }
+
+    /**
+     * Sets how long an endpoint is left out after a failed heartbeat or send
+     */
+    public void setEndpointDownMillis(int endpointDownMillis) {
+        this.endpointDownMillis = endpointDownMillis;
+    }
+
+    public int getEndpointDownMillis() {
+        return endpointDownMillis;
+    }
+
+    /**
+     * Switches the base sender from the blocking {@link SSLSender} to {@link LogSenseNioSender}
+     */
+    public void setNioSenderEnabled(boolean nioSenderEnabled) {
+        this.nioSenderEnabled = nioSenderEnabled;
+    }
+
+    public boolean isNioSenderEnabled() {
+        return nioSenderEnabled;
+    }
+
+    /**
+     * Lets the nio sender have this many chunks waiting for their ack in ack mode. The blocking sender always
+     * waits for each ack.
+     */
+    public void setAckWindowSize(int ackWindowSize) {
+        this.ackWindowSize = ackWindowSize;
+    }
+
+    public int getAckWindowSize() {
+        return ackWindowSize;
+    }
+
+    /**
+     * Has the nio sender keep a second connection open, to switch to when the first one fails
+     */
+    public void setStandbyEnabled(boolean standbyEnabled) {
+        this.standbyEnabled = standbyEnabled;
+    }
+
+    public boolean isStandbyEnabled() {
+        return standbyEnabled;
+    }
+
+    public Integer getSenderBaseRetryIntervalMillis() {
+        return senderBaseRetryIntervalMillis;
+    }
+
+    public void setSenderBaseRetryIntervalMillis(Integer senderBaseRetryIntervalMillis) {
+        this.senderBaseRetryIntervalMillis = senderBaseRetryIntervalMillis;
+    }
+
+    public Integer getSenderMaxRetryIntervalMillis() {
+        return senderMaxRetryIntervalMillis;
+    }
+
+    public void setSenderMaxRetryIntervalMillis(Integer senderMaxRetryIntervalMillis) {
+        this.senderMaxRetryIntervalMillis = senderMaxRetryIntervalMillis;
+    }
+
     public Fluency build(String host, int port)
     {
         return buildFromIngester(
@@ -0,0 +1,247 @@
+package com.logsense.opentracing;
+
+import org.komamitsu.fluency.EventTime;
+import org.komamitsu.fluency.Fluency;
+import org.komamitsu.fluency.fluentd.ingester.sender.FluentdSender;
+import org.komamitsu.fluency.fluentd.ingester.sender.MultiSender;
+import org.komamitsu.fluency.fluentd.ingester.sender.RetryableSender;
+import org.komamitsu.fluency.ingester.Ingester;
+import org.komamitsu.fluency.ingester.sender.Sender;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+/**
+ * Sends spans to the LogSense endpoint through Fluency, the exporter a tracer uses unless configured otherwise.
+ * Fluency is built, and the connection set up, with the first spans to export. That instance is kept for the life of
+ * the exporter: when sending fails its sender reconnects on a later flush, keeping the buffered chunks. With encoder
+ * threads configured the spans go through a {@link LogSenseExportPipeline} rather than being encoded on the emitter
+ * thread.
+ */
+public final class LogSenseFluencyExporter implements LogSenseExporter {
+    private static final Logger logger = Logger.getLogger(LogSenseFluencyExporter.class.getName());
+
+    private static final String TAG = "ot";
+
+    private final LogSenseConfig config;
+    private volatile Fluency fluency;
+    private volatile LogSenseExportPipeline pipeline;
+    /**
+     * The senders of the current Fluency that are nio ones, which keep chunks waiting for their ack
+     */
+    private volatile List<LogSenseNioSender> nioSenders = Collections.emptyList();
+
+    /**
+     * @param config the endpoint, sender, buffer, retry and export mode settings
+     */
+    public LogSenseFluencyExporter(LogSenseConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public void export(LogSenseResource resource, List<LogSenseSpanModel> spans) throws IOException {
+        if (config.getEncoderThreads() > 0) {
+            pipeline().submit(resource, spans);
+            return;
+        }
+        connect();
+        for (LogSenseTracer.FluentDataFacade record : LogSenseTracer.FluentDataFacade.records(resource, spans, config.isTraceGroupingEnabled())) {
+            send(record);
+        }
+    }
+
+    private void send(LogSenseTracer.FluentDataFacade record) throws IOException {
+        fluency.emit(TAG, eventTime(record.timestampMicros), record.data);
+    }
+
+    private static EventTime eventTime(long timestampMicros) {
+        int timestampSeconds = (int) (timestampMicros / 1000000L);
+        int timestampMicrosecondRemainder = (int) (timestampMicros % 1000000);
+        return new EventTime(timestampSeconds, timestampMicrosecondRemainder * 1000);
+    }
+
+    private LogSenseExportPipeline pipeline() {
+        if (pipeline == null) {
+            pipeline = new LogSenseExportPipeline(config.getEncoderThreads(), config.getPipelineQueueSize(),
+                    config.isTraceGroupingEnabled(), new LogSenseExportPipeline.Sink() {
+                @Override
+                public void send(LogSenseExportPipeline.Encoded encoded) throws IOException {
+                    sendEncoded(encoded);
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    flushFluency();
+                }
+            });
+        }
+        return pipeline;
+    }
+
+    /**
+     * Called on the sending thread of the pipeline, the only one that connects once there is a pipeline
+     */
+    private void sendEncoded(LogSenseExportPipeline.Encoded encoded) throws IOException {
+        connect();
+        for (int i = 0; i < encoded.records.length; i++) {
+            byte[] record = encoded.records[i];
+            fluency.emit(TAG, eventTime(encoded.timestampsMicros[i]), record, 0, record.length);
+        }
+    }
+
+    private static Sender baseSender(Fluency fluency) {
+        Ingester ingester = fluency.getFlusher().getIngester();
+        Sender sender = ingester.getSender();
+        if (sender instanceof RetryableSender) {
+            sender = ((RetryableSender) sender).getBaseSender();
+        }
+        return sender;
+    }
+
+    private static List<LogSenseNioSender> nioSenders(Fluency fluency) {
+        Sender sender = baseSender(fluency);
+        List<LogSenseNioSender> found = new ArrayList<>();
+        if (sender instanceof LogSenseNioSender) {
+            found.add((LogSenseNioSender) sender);
+        } else if (sender instanceof MultiSender) {
+            for (FluentdSender endpointSender : ((MultiSender) sender).getSenders()) {
+                if (endpointSender instanceof LogSenseNioSender) {
+                    found.add((LogSenseNioSender) endpointSender);
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return the sender that fails over between the endpoints, with its metrics; null with a single endpoint or
+     * before the first export
+     */
+    public LogSenseFluencyBuilder.LogSenseMultiSender getFailoverSender() {
+        Fluency current = fluency;
+        if (current == null) {
+            return null;
+        }
+        Sender sender = baseSender(current);
+        return sender instanceof LogSenseFluencyBuilder.LogSenseMultiSender
+                ? (LogSenseFluencyBuilder.LogSenseMultiSender) sender : null;
+    }
+
+    /**
+     * @return the stages spans go through, null if they are encoded on the emitter thread or nothing was exported yet
+     */
+    public LogSenseExportPipeline getPipeline() {
+        return pipeline;
+    }
+
+    /**
+     * Only builds a new Fluency if there is none yet or the current one has terminated, which it does not do on
+     * send failures
+     */
+    private void connect() {
+        Fluency current = fluency;
+        if (current != null && !current.isTerminated()) {
+            return;
+        }
+        if (current != null) {
+            logger.warning("Fluency has terminated, building a new one");
+            try {
+                current.close();
+            } catch (IOException e) {
+                logger.fine("Closing the terminated Fluency failed: " + e);
+            }
+        }
+
+        LogSenseFluencyBuilder builder = new LogSenseFluencyBuilder();
+        builder.setNioSenderEnabled(config.isNioSenderEnabled());
+        List<InetSocketAddress> endpoints = config.getEndpoints();
+        // Moving back to a recovered endpoint relies on its heartbeats
+        builder.setHeartbeatEnabled(config.isHeartbeatEnabled() || endpoints.size() > 1);
+        builder.setHeartbeatIntervalMillis(config.getHeartbeatIntervalMillis());
+        builder.setPhiThreshold(config.getPhiThreshold());
+        builder.setEndpointDownMillis(config.getEndpointDownMillis());
+        builder.setAckResponseMode(config.isAckEnabled());
+        builder.setAckWindowSize(config.getAckWindowSize());
+        if (config.isAckEnabled() && config.getAckWindowSize() > 1 && !config.isNioSenderEnabled()) {
+            logger.warning(LogSenseConfig.ACK_WINDOW_SIZE + " only applies to the nio sender, acks are awaited one at a time");
+        }
+        builder.setStandbyEnabled(config.isStandbyEnabled());
+        if (config.isStandbyEnabled() && !config.isNioSenderEnabled()) {
+            logger.warning(LogSenseConfig.CONNECTION_STANDBY + " only applies to the nio sender");
+        }
+        builder.setFlushIntervalMillis(config.getFlushIntervalMillis());
+        builder.setBufferChunkInitialSize(config.getBufferChunkInitialSize());
+        builder.setBufferChunkRetentionSize(config.getBufferChunkRetentionSize());
+        builder.setBufferChunkRetentionTimeMillis(config.getBufferChunkRetentionTimeMillis());
+        builder.setMaxBufferSize(config.getMaxBufferSize());
+        builder.setConnectionTimeoutMilli(config.getConnectionTimeoutMillis());
+        builder.setReadTimeoutMilli(config.getReadTimeoutMillis());
+        builder.setSenderMaxRetryCount(config.getRetryMaxCount());
+        builder.setSenderBaseRetryIntervalMillis(config.getRetryBaseIntervalMillis());
+        builder.setSenderMaxRetryIntervalMillis(config.getRetryMaxIntervalMillis());
+        // Closing the tracer waits for the buffer itself, within the shutdown timeout
+        builder.setWaitUntilBufferFlushed(1);
+        builder.setWaitUntilFlusherTerminated(1);
+        if (endpoints.size() > 1) {
+            this.fluency = builder.build(endpoints);
+            logger.info("LogSense tracing sends to " + endpoints + " in this order of priority");
+        } else {
+            this.fluency = builder.build(config.getHost(), config.getPort());
+            logger.info("LogSense tracing connected to " + config.getHost() + ":" + config.getPort());
+        }
+        this.nioSenders = nioSenders(fluency);
+    }
+
+    /**
+     * @return the Fluency spans are sent through, null until the first export
+     */
+    Fluency getFluency() {
+        return fluency;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (pipeline != null) {
+            // Fluency is flushed once the spans exported so far have made it through the pipeline
+            pipeline.flush();
+        } else {
+            flushFluency();
+        }
+    }
+
+    private void flushFluency() throws IOException {
+        Fluency current = fluency;
+        if (current != null) {
+            current.flush();
+        }
+    }
+
+    /**
+     * @return size of the chunks Fluency has not sent yet, or had acknowledged in ack mode, and of the spans still
+     * in the pipeline
+     */
+    @Override
+    public long getBufferedBytes() {
+        Fluency current = fluency;
+        long buffered = current == null ? 0 : current.getBufferedDataSize();
+        for (LogSenseNioSender sender : nioSenders) {
+            buffered += sender.getUnackedBytes();
+        }
+        LogSenseExportPipeline currentPipeline = pipeline;
+        return currentPipeline == null ? buffered : buffered + currentPipeline.getPendingBytes();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        if (fluency != null) {
+            fluency.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.logsense.opentracing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Bounded set of the names a tracer has seen, used for operation names and tag keys. Up to the limit every new
+ * name is kept and returned as the same instance from then on; past it names that were not seen before are
+ * replaced by {@link #OVERFLOW}. Anything keyed by names that went through the table, such as per-operation
+ * counters, therefore never holds more than {@code limit + 1} keys, whatever ends up in the names.
+ */
+public final class LogSenseNameTable {
+    private static final Logger log = Logger.getLogger(LogSenseNameTable.class.getName());
+
+    /**
+     * Reported instead of names past the limit
+     */
+    public static final String OVERFLOW = "_overflow";
+
+    /**
+     * How many of the replaced names are remembered for {@link #getOverflowedNames()}
+     */
+    static final int MAX_REPORTED_NAMES = 16;
+
+    private final String kind;
+    private final int limit;
+    private final ConcurrentHashMap<String, String> names = new ConcurrentHashMap<>();
+    /**
+     * Names held, raised only after a name was put, so that a full table holds all its names already
+     */
+    private final AtomicInteger size = new AtomicInteger();
+    private final Object addLock = new Object();
+    private final AtomicLong overflows = new AtomicLong();
+    private final Set<String> overflowedNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicBoolean warned = new AtomicBoolean();
+
+    /**
+     * @param kind what the names are, for the log
+     */
+    LogSenseNameTable(String kind, int limit) {
+        if (limit <= 0) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        this.kind = kind;
+        this.limit = limit;
+    }
+
+    /**
+     * @return the instance kept for this name, or {@link #OVERFLOW} if the table is full and the name is new;
+     * null for null
+     */
+    public String intern(String name) {
+        if (name == null) {
+            return null;
+        }
+        String interned = names.get(name);
+        if (interned != null) {
+            return interned;
+        }
+        if (size.get() < limit) {
+            synchronized (addLock) {
+                interned = names.get(name);
+                if (interned != null) {
+                    return interned;
+                }
+                if (size.get() < limit) {
+                    names.put(name, name);
+                    size.incrementAndGet();
+                    return name;
+                }
+            }
+        }
+        // Another thread may have added it since the first look and filled the table
+        interned = names.get(name);
+        return interned != null ? interned : overflow(name);
+    }
+
+    private String overflow(String name) {
+        overflows.incrementAndGet();
+        if (overflowedNames.size() < MAX_REPORTED_NAMES) {
+            overflowedNames.add(name);
+        }
+        if (warned.compareAndSet(false, true)) {
+            log.warning("More than " + limit + " distinct " + kind + " seen, new ones are reported as " + OVERFLOW
+                    + ". The first one was: " + name);
+        }
+        return OVERFLOW;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return number of distinct names kept, at most the limit
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * @return how many times a name was replaced by {@link #OVERFLOW}
+     */
+    public long getOverflowCount() {
+        return overflows.get();
+    }
+
+    /**
+     * @return some of the names that were replaced, to find the instrumentation that puts ids into names
+     */
+    public List<String> getOverflowedNames() {
+        return new ArrayList<>(overflowedNames);
+    }
+
+    @Override
+    public String toString() {
+        return "LogSenseNameTable{kind=" + kind + ", size=" + size() + ", limit=" + limit
+                + ", overflows=" + overflows.get() + "}";
+    }
+}
@@ -0,0 +1,1192 @@
+package com.logsense.opentracing;
+
+import org.komamitsu.fluency.fluentd.ingester.sender.FluentdSender;
+import org.komamitsu.fluency.fluentd.ingester.sender.failuredetect.FailureDetector;
+import org.msgpack.core.MessageInsufficientBufferException;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ValueType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Non-blocking TLS sender built on {@link SocketChannel} and {@link SSLEngine}.
+ *
+ * The calling thread only encrypts the chunk into pooled direct buffers and queues them. A dedicated I/O thread
+ * drains the queue with gathering writes and reads acks as they arrive, so the next chunk is being encrypted
+ * while the previous one is still on its way. The caller blocks only when more than
+ * {@link Config#getMaxPendingBytes()} is waiting to be written, or until the ack arrives when one was requested.
+ *
+ * With an ack window above 1, the caller does not wait for the ack of its chunk. A copy of the chunk is kept until
+ * the ack arrives, in whatever order, and the caller only waits once the window is full. A chunk whose ack does not
+ * arrive within the read timeout, or whose connection failed, is sent again with the same ack token; the peer may
+ * receive it twice. A background thread shared by all senders checks the window while it holds chunks, so a lost
+ * ack is made up for without further sends; a failed connection is only replaced by the next send.
+ *
+ * Engines are created with the peer host and port from the same context, whose session cache lets a reconnect resume
+ * the previous TLS session. With a standby enabled, a second connection is opened on the same background thread once
+ * the first one is up, and taken over without a handshake when the first one fails.
+ */
+public class LogSenseNioSender extends FluentdSender {
+    private static final Logger LOG = LoggerFactory.getLogger(LogSenseNioSender.class);
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private static final int MAX_GATHER = 16;
+    private static final int RECORDS_PER_BUFFER = 4;
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final int SELECT_TIMEOUT_MILLIS = 100;
+
+    /**
+     * Checks the ack windows of all senders for chunks to send again, and opens their standby connections
+     */
+    private static final ScheduledThreadPoolExecutor background = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "logsense-nio-background");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        background.setRemoveOnCancelPolicy(true);
+    }
+
+    public static class Config extends FluentdSender.Config {
+        private String host = "127.0.0.1";
+        private int port = 24224;
+        private int connectionTimeoutMilli = 5000;
+        private int readTimeoutMilli = 5000;
+        private long maxPendingBytes = 8 * 1024 * 1024;
+        private int ackWindowSize = 1;
+        private boolean standbyEnabled = false;
+        private SSLContext sslContext;
+
+        public String getHost() {
+            return host;
+        }
+
+        public void setHost(String host) {
+            this.host = host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public void setPort(int port) {
+            this.port = port;
+        }
+
+        public int getConnectionTimeoutMilli() {
+            return connectionTimeoutMilli;
+        }
+
+        public void setConnectionTimeoutMilli(int connectionTimeoutMilli) {
+            this.connectionTimeoutMilli = connectionTimeoutMilli;
+        }
+
+        public int getReadTimeoutMilli() {
+            return readTimeoutMilli;
+        }
+
+        public void setReadTimeoutMilli(int readTimeoutMilli) {
+            this.readTimeoutMilli = readTimeoutMilli;
+        }
+
+        /**
+         * @return how many encrypted bytes may wait for the socket before senders are made to wait
+         */
+        public long getMaxPendingBytes() {
+            return maxPendingBytes;
+        }
+
+        public void setMaxPendingBytes(long maxPendingBytes) {
+            this.maxPendingBytes = maxPendingBytes;
+        }
+
+        /**
+         * @return how many chunks may wait for their ack at the same time, 1 to wait for each ack before returning
+         */
+        public int getAckWindowSize() {
+            return ackWindowSize;
+        }
+
+        public void setAckWindowSize(int ackWindowSize) {
+            this.ackWindowSize = ackWindowSize;
+        }
+
+        /**
+         * @return whether a second connection is kept open to switch to when the current one fails
+         */
+        public boolean isStandbyEnabled() {
+            return standbyEnabled;
+        }
+
+        public void setStandbyEnabled(boolean standbyEnabled) {
+            this.standbyEnabled = standbyEnabled;
+        }
+
+        /**
+         * @return the context used to create engines, {@link SSLContext#getDefault()} when not set
+         */
+        public SSLContext getSslContext() {
+            return sslContext;
+        }
+
+        public void setSslContext(SSLContext sslContext) {
+            this.sslContext = sslContext;
+        }
+    }
+
+    private final Config config;
+    private final FailureDetector failureDetector;
+    private final ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooledBuffers = new AtomicInteger();
+
+    private volatile Connection connection;
+    private volatile boolean closed;
+    private final Object connectLock = new Object();
+    private volatile Connection standby;
+    private final AtomicBoolean warmingStandby = new AtomicBoolean();
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong standbyTakeovers = new AtomicLong();
+    private volatile long lastConnectMillis;
+
+    /**
+     * Chunks sent in windowed ack mode and not settled yet, oldest first. Guarded by {@code windowLock}.
+     */
+    private final ArrayDeque<Outstanding> window = new ArrayDeque<>();
+    private final ReentrantLock windowLock = new ReentrantLock();
+    /**
+     * Settles the window while it holds chunks, null while it is empty. Guarded by {@code windowLock}.
+     */
+    private ScheduledFuture<?> ackTimer;
+    /**
+     * Notified by the I/O thread whenever a windowed chunk is acked
+     */
+    private final Object ackSignal = new Object();
+    private final AtomicLong acksReceived = new AtomicLong();
+    private final AtomicLong unackedBytes = new AtomicLong();
+    private final AtomicInteger unackedChunks = new AtomicInteger();
+    private final AtomicLong retransmits = new AtomicLong();
+
+    public LogSenseNioSender(Config config) {
+        this(config, null);
+    }
+
+    public LogSenseNioSender(Config config, FailureDetector failureDetector) {
+        super(config);
+        this.config = config;
+        this.failureDetector = failureDetector;
+    }
+
+    @Override
+    public boolean isAvailable() {
+        return failureDetector == null || failureDetector.isAvailable();
+    }
+
+    @Override
+    protected void sendInternal(List<ByteBuffer> buffers, byte[] ackToken) throws IOException {
+        if (closed) {
+            throw new IOException("This sender is already closed");
+        }
+        if (ackToken != null && config.getAckWindowSize() > 1) {
+            sendWindowed(buffers, ackToken);
+            return;
+        }
+
+        Connection conn = null;
+        PendingAck pendingAck = null;
+        try {
+            conn = getOrCreateConnection();
+            if (ackToken != null) {
+                pendingAck = conn.expectAck(ackToken);
+            }
+            conn.encrypt(buffers.toArray(new ByteBuffer[buffers.size()]));
+            conn.awaitCapacity();
+            if (pendingAck != null) {
+                pendingAck.await(config.getReadTimeoutMilli());
+            }
+        } catch (IOException e) {
+            if (conn != null) {
+                conn.fail(e);
+            }
+            if (failureDetector != null) {
+                failureDetector.onFailure(e);
+            }
+            throw e;
+        } finally {
+            if (pendingAck != null) {
+                conn.forgetAck(ackToken);
+            }
+        }
+    }
+
+    private void sendWindowed(List<ByteBuffer> buffers, byte[] ackToken) throws IOException {
+        windowLock.lock();
+        Connection conn = null;
+        try {
+            conn = getOrCreateConnection();
+            awaitWindowRoom(conn);
+            Outstanding outstanding = new Outstanding(ackToken, copy(buffers));
+            transmit(conn, outstanding);
+            window.add(outstanding);
+            unackedChunks.incrementAndGet();
+            unackedBytes.addAndGet(outstanding.bytes);
+            startAckTimer();
+        } catch (IOException e) {
+            if (conn != null) {
+                conn.fail(e);
+            }
+            if (failureDetector != null) {
+                failureDetector.onFailure(e);
+            }
+            throw e;
+        } finally {
+            windowLock.unlock();
+        }
+    }
+
+    private void startAckTimer() {
+        if (ackTimer == null) {
+            ackTimer = background.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    checkWindow();
+                }
+            }, SELECT_TIMEOUT_MILLIS, SELECT_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void stopAckTimer() {
+        if (ackTimer != null) {
+            ackTimer.cancel(false);
+            ackTimer = null;
+        }
+    }
+
+    /**
+     * Runs on the background thread. Skipped while a sending or closing thread holds the window, which settles it
+     * itself. Only a connection that is up is used: reconnecting is left to the sending path, where the circuit
+     * breaker spaces the attempts out, and would hold up the thread all senders share.
+     */
+    private void checkWindow() {
+        if (!windowLock.tryLock()) {
+            return;
+        }
+        Connection conn = connection;
+        try {
+            if (!closed && conn != null && conn.failure == null && isAvailable()) {
+                settle(conn);
+            }
+        } catch (IOException e) {
+            LOG.debug("Failed to send unacknowledged chunks again", e);
+            conn.fail(e);
+            if (failureDetector != null) {
+                failureDetector.onFailure(e);
+            }
+        } finally {
+            if (closed || window.isEmpty()) {
+                stopAckTimer();
+            }
+            windowLock.unlock();
+        }
+    }
+
+    private static ByteBuffer copy(List<ByteBuffer> buffers) {
+        int size = 0;
+        for (ByteBuffer buffer : buffers) {
+            size += buffer.remaining();
+        }
+        ByteBuffer copy = ByteBuffer.allocate(size);
+        for (ByteBuffer buffer : buffers) {
+            copy.put(buffer.duplicate());
+        }
+        copy.flip();
+        return copy;
+    }
+
+    private void transmit(Connection conn, Outstanding outstanding) throws IOException {
+        outstanding.connection = conn;
+        outstanding.pendingAck = conn.expectAck(outstanding.ackToken, outstanding);
+        outstanding.deadlineMillis = System.currentTimeMillis() + config.getReadTimeoutMilli();
+        conn.encrypt(new ByteBuffer[]{outstanding.chunk.duplicate()});
+        conn.awaitCapacity();
+    }
+
+    /**
+     * Drops acked chunks from the window and sends again those whose ack timed out or whose connection failed
+     */
+    private void settle(Connection conn) throws IOException {
+        long now = System.currentTimeMillis();
+        Iterator<Outstanding> iterator = window.iterator();
+        while (iterator.hasNext()) {
+            Outstanding outstanding = iterator.next();
+            if (outstanding.acked.get()) {
+                iterator.remove();
+                unackedChunks.decrementAndGet();
+            } else if (outstanding.pendingAck.failure != null || outstanding.connection != conn
+                    || now > outstanding.deadlineMillis) {
+                outstanding.connection.forgetAck(outstanding.ackToken);
+                retransmits.incrementAndGet();
+                LOG.debug("Sending chunk {} again", tokenKey(outstanding.ackToken));
+                transmit(conn, outstanding);
+            }
+        }
+    }
+
+    private void awaitWindowRoom(Connection conn) throws IOException {
+        long deadline = System.currentTimeMillis() + config.getReadTimeoutMilli();
+        while (true) {
+            long acks = acksReceived.get();
+            settle(conn);
+            if (window.size() < config.getAckWindowSize()) {
+                return;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("No ack received within " + config.getReadTimeoutMilli()
+                        + " ms with " + window.size() + " chunks in flight");
+            }
+            awaitAck(acks, Math.min(remaining, SELECT_TIMEOUT_MILLIS));
+        }
+    }
+
+    private void awaitAck(long acks, long timeoutMillis) throws IOException {
+        synchronized (ackSignal) {
+            if (acksReceived.get() == acks) {
+                try {
+                    ackSignal.wait(timeoutMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for acks", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits up to {@code timeoutMillis} for the chunks in the window to be acked, sending them again as needed
+     */
+    private void drainWindow(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        windowLock.lock();
+        try {
+            while (!window.isEmpty()) {
+                long acks = acksReceived.get();
+                Connection conn = null;
+                try {
+                    conn = getOrCreateConnection();
+                    settle(conn);
+                } catch (IOException e) {
+                    if (conn != null) {
+                        conn.fail(e);
+                    }
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (window.isEmpty() || remaining <= 0) {
+                    break;
+                }
+                try {
+                    awaitAck(acks, Math.min(remaining, SELECT_TIMEOUT_MILLIS));
+                } catch (IOException e) {
+                    break;
+                }
+            }
+            if (!window.isEmpty()) {
+                LOG.warn("Closing with {} chunks not acknowledged", window.size());
+            }
+            stopAckTimer();
+        } finally {
+            windowLock.unlock();
+        }
+    }
+
+    /**
+     * Takes the chunks whose connection failed before they were acked out of the window, for the caller to send to
+     * another endpoint. Chunks left in the window are sent again to this one once a send reconnects.
+     */
+    List<Outstanding> takeFailedChunks() {
+        List<Outstanding> failed = new ArrayList<>();
+        windowLock.lock();
+        try {
+            Iterator<Outstanding> iterator = window.iterator();
+            while (iterator.hasNext()) {
+                Outstanding outstanding = iterator.next();
+                if (!outstanding.acked.get() && outstanding.isConnectionFailed()) {
+                    iterator.remove();
+                    unackedChunks.decrementAndGet();
+                    unackedBytes.addAndGet(-outstanding.bytes);
+                    failed.add(outstanding);
+                }
+            }
+        } finally {
+            windowLock.unlock();
+        }
+        return failed;
+    }
+
+    private Connection getOrCreateConnection() throws IOException {
+        Connection conn = connection;
+        if (conn != null && conn.failure == null) {
+            return conn;
+        }
+        synchronized (connectLock) {
+            conn = connection;
+            if (conn != null && conn.failure == null) {
+                return conn;
+            }
+            if (conn != null) {
+                LOG.debug("Reconnecting after failure: {}", conn.failure.toString());
+                conn.closeNow();
+            }
+            conn = takeStandby();
+            if (conn == null) {
+                conn = open();
+            }
+            connection = conn;
+        }
+        warmStandby();
+        return conn;
+    }
+
+    private Connection open() throws IOException {
+        long start = System.currentTimeMillis();
+        Connection conn = new Connection();
+        conn.open();
+        connects.incrementAndGet();
+        lastConnectMillis = System.currentTimeMillis() - start;
+        return conn;
+    }
+
+    /**
+     * @return the standby connection if it is still healthy, null otherwise
+     */
+    private Connection takeStandby() {
+        Connection spare = standby;
+        standby = null;
+        if (spare == null) {
+            return null;
+        }
+        if (spare.failure != null) {
+            spare.closeNow();
+            return null;
+        }
+        standbyTakeovers.incrementAndGet();
+        LOG.debug("Switched to the standby connection to {}:{}", config.getHost(), config.getPort());
+        return spare;
+    }
+
+    /**
+     * Opens a standby connection on the background thread, unless there is one already or it is not enabled
+     */
+    private void warmStandby() {
+        if (!config.isStandbyEnabled() || closed || standby != null || !warmingStandby.compareAndSet(false, true)) {
+            return;
+        }
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!closed) {
+                        standby = open();
+                    }
+                    if (closed) {
+                        closeStandby();
+                    }
+                } catch (IOException e) {
+                    LOG.debug("Failed to open a standby connection", e);
+                } finally {
+                    warmingStandby.set(false);
+                }
+            }
+        });
+    }
+
+    private void closeStandby() {
+        Connection spare = standby;
+        standby = null;
+        if (spare != null) {
+            spare.close(0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (unackedChunks.get() > 0 && !closed) {
+            drainWindow(config.getReadTimeoutMilli());
+        }
+        closed = true;
+        closeStandby();
+        Connection conn = connection;
+        connection = null;
+        if (conn != null) {
+            conn.close(config.getReadTimeoutMilli());
+        }
+        if (failureDetector != null) {
+            failureDetector.close();
+        }
+    }
+
+    public String getHost() {
+        return config.getHost();
+    }
+
+    public FailureDetector getFailureDetector() {
+        return failureDetector;
+    }
+
+    public int getPort() {
+        return config.getPort();
+    }
+
+    /**
+     * @return encrypted bytes queued on the current connection and not yet accepted by the socket
+     */
+    public long getPendingBytes() {
+        Connection conn = connection;
+        return conn == null ? 0 : conn.pendingBytes.get();
+    }
+
+    /**
+     * @return size of the chunks sent in windowed ack mode that were not acked yet
+     */
+    public long getUnackedBytes() {
+        return unackedBytes.get();
+    }
+
+    /**
+     * @return chunks in the ack window, including acked ones until the window is settled
+     */
+    public int getUnackedChunkCount() {
+        return unackedChunks.get();
+    }
+
+    /**
+     * @return how many times a chunk was sent again for lack of an ack
+     */
+    public long getRetransmitCount() {
+        return retransmits.get();
+    }
+
+    /**
+     * @return connections opened so far, standby ones included
+     */
+    public long getConnectCount() {
+        return connects.get();
+    }
+
+    /**
+     * @return how long the TCP connect and TLS handshake of the latest connection took
+     */
+    public long getLastConnectMillis() {
+        return lastConnectMillis;
+    }
+
+    /**
+     * @return how many times a failed connection was replaced by the standby one
+     */
+    public long getStandbyTakeoverCount() {
+        return standbyTakeovers.get();
+    }
+
+    /**
+     * @return whether a healthy standby connection is open
+     */
+    public boolean hasStandby() {
+        Connection spare = standby;
+        return spare != null && spare.failure == null;
+    }
+
+    @Override
+    public String toString() {
+        return "LogSenseNioSender{host=" + config.getHost() + ", port=" + config.getPort() + "} " + super.toString();
+    }
+
+    private SSLContext sslContext() throws IOException {
+        if (config.getSslContext() != null) {
+            return config.getSslContext();
+        }
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("No default SSLContext available", e);
+        }
+    }
+
+    private ByteBuffer acquireBuffer(int size) {
+        ByteBuffer buffer = bufferPool.poll();
+        if (buffer != null) {
+            pooledBuffers.decrementAndGet();
+            if (buffer.capacity() >= size) {
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        if (pooledBuffers.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+            bufferPool.offer(buffer);
+        } else {
+            pooledBuffers.decrementAndGet();
+        }
+    }
+
+    private static String tokenKey(byte[] ackToken) {
+        return new String(ackToken, CHARSET);
+    }
+
+    private static boolean hasRemaining(ByteBuffer[] buffers) {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasRemaining()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A chunk in the ack window, with the copy it is sent again from
+     */
+    static class Outstanding {
+        private final byte[] ackToken;
+        private final ByteBuffer chunk;
+        private final int bytes;
+        private final AtomicBoolean acked = new AtomicBoolean();
+        private Connection connection;
+        private PendingAck pendingAck;
+        private long deadlineMillis;
+
+        Outstanding(byte[] ackToken, ByteBuffer chunk) {
+            this.ackToken = ackToken;
+            this.chunk = chunk;
+            this.bytes = chunk.remaining();
+        }
+
+        byte[] getAckToken() {
+            return ackToken;
+        }
+
+        /**
+         * @return the chunk, ready to be read
+         */
+        ByteBuffer getChunk() {
+            return chunk.duplicate();
+        }
+
+        private boolean isConnectionFailed() {
+            return pendingAck.failure != null || connection.failure != null;
+        }
+    }
+
+    private class PendingAck {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final Outstanding outstanding;
+        private volatile IOException failure;
+
+        PendingAck(Outstanding outstanding) {
+            this.outstanding = outstanding;
+        }
+
+        void complete() {
+            latch.countDown();
+            if (outstanding != null && outstanding.acked.compareAndSet(false, true)) {
+                unackedBytes.addAndGet(-outstanding.bytes);
+                acksReceived.incrementAndGet();
+                synchronized (ackSignal) {
+                    ackSignal.notifyAll();
+                }
+            }
+        }
+
+        void fail(IOException e) {
+            failure = e;
+            latch.countDown();
+        }
+
+        void await(int timeoutMillis) throws IOException {
+            try {
+                if (!latch.await(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new SocketTimeoutException("Ack was not received within " + timeoutMillis + " ms");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for ack", e);
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * A single TLS session. Encryption happens on the sending thread under {@code wrapLock}, everything that touches
+     * the socket after the handshake happens on the I/O thread.
+     */
+    private class Connection implements Runnable {
+        private final Object wrapLock = new Object();
+        private final Object drainLock = new Object();
+        private final ConcurrentLinkedQueue<ByteBuffer> outbound = new ConcurrentLinkedQueue<>();
+        private final AtomicLong pendingBytes = new AtomicLong();
+        private final Map<String, PendingAck> pendingAcks = new ConcurrentHashMap<>();
+        private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER];
+
+        private SocketChannel channel;
+        private Selector selector;
+        private SelectionKey key;
+        private SSLEngine engine;
+        private ByteBuffer netIn;
+        private ByteBuffer appIn;
+        private int outBufferSize;
+        private Thread ioThread;
+
+        private volatile boolean running;
+        private volatile IOException failure;
+
+        void open() throws IOException {
+            long deadline = System.currentTimeMillis() + config.getConnectionTimeoutMilli();
+            try {
+                channel = SocketChannel.open();
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                channel.socket().setKeepAlive(true);
+                selector = Selector.open();
+                key = channel.register(selector, SelectionKey.OP_CONNECT);
+                if (!channel.connect(new InetSocketAddress(config.getHost(), config.getPort()))) {
+                    while (!channel.finishConnect()) {
+                        select(deadline);
+                    }
+                }
+
+                engine = sslContext().createSSLEngine(config.getHost(), config.getPort());
+                engine.setUseClientMode(true);
+                int packetSize = engine.getSession().getPacketBufferSize();
+                outBufferSize = packetSize * RECORDS_PER_BUFFER;
+                netIn = ByteBuffer.allocateDirect(packetSize);
+                appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+
+                handshake(deadline);
+            } catch (IOException e) {
+                closeNow();
+                throw e;
+            }
+
+            running = true;
+            key.interestOps(SelectionKey.OP_READ);
+            ioThread = new Thread(this, "logsense-nio-sender-" + config.getHost() + ":" + config.getPort());
+            ioThread.setDaemon(true);
+            ioThread.start();
+            LOG.debug("Connected to {}:{}", config.getHost(), config.getPort());
+        }
+
+        private void select(long deadline) throws IOException {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new SocketTimeoutException("Timed out connecting to " + config.getHost() + ":" + config.getPort());
+            }
+            selector.select(remaining);
+            selector.selectedKeys().clear();
+        }
+
+        private void handshake(long deadline) throws IOException {
+            engine.beginHandshake();
+            ByteBuffer netOut = ByteBuffer.allocateDirect(engine.getSession().getPacketBufferSize());
+            SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+            while (status != SSLEngineResult.HandshakeStatus.FINISHED
+                    && status != SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING) {
+                if (status == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    netOut.clear();
+                    SSLEngineResult result = engine.wrap(EMPTY, netOut);
+                    netOut.flip();
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    while (netOut.hasRemaining()) {
+                        if (channel.write(netOut) == 0) {
+                            select(deadline);
+                        }
+                    }
+                    status = result.getHandshakeStatus();
+                } else if (status == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                    netIn.flip();
+                    SSLEngineResult result = engine.unwrap(netIn, appIn);
+                    netIn.compact();
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        key.interestOps(SelectionKey.OP_READ);
+                        select(deadline);
+                        if (channel.read(netIn) < 0) {
+                            throw new EOFException("Connection closed during TLS handshake");
+                        }
+                    } else if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("TLS session closed during handshake");
+                    }
+                    status = engine.getHandshakeStatus();
+                } else if (status == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    runDelegatedTasks();
+                    status = engine.getHandshakeStatus();
+                } else {
+                    throw new SSLException("Unexpected handshake status: " + status);
+                }
+            }
+        }
+
+        private void runDelegatedTasks() {
+            Runnable task;
+            while ((task = engine.getDelegatedTask()) != null) {
+                task.run();
+            }
+        }
+
+        PendingAck expectAck(byte[] ackToken) {
+            return expectAck(ackToken, null);
+        }
+
+        PendingAck expectAck(byte[] ackToken, Outstanding outstanding) {
+            PendingAck pendingAck = new PendingAck(outstanding);
+            pendingAcks.put(tokenKey(ackToken), pendingAck);
+            return pendingAck;
+        }
+
+        void forgetAck(byte[] ackToken) {
+            pendingAcks.remove(tokenKey(ackToken));
+        }
+
+        /**
+         * Encrypts the buffers into the outbound queue. The lock is released whenever the engine cannot make
+         * progress (e.g. it waits for the peer during renegotiation), so the I/O thread may wrap its own records.
+         */
+        void encrypt(ByteBuffer[] srcs) throws IOException {
+            long deadline = System.currentTimeMillis() + config.getReadTimeoutMilli();
+            while (true) {
+                checkFailure();
+                synchronized (wrapLock) {
+                    wrapAvailable(srcs);
+                }
+                selector.wakeup();
+                if (!hasRemaining(srcs)) {
+                    return;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new SocketTimeoutException("Timed out waiting for the TLS engine to accept data");
+                }
+                LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+            }
+        }
+
+        private void wrapAvailable(ByteBuffer[] srcs) throws IOException {
+            int packetSize = engine.getSession().getPacketBufferSize();
+            ByteBuffer out = acquireBuffer(outBufferSize);
+            try {
+                while (hasRemaining(srcs)) {
+                    if (out.remaining() < packetSize) {
+                        enqueue(out);
+                        out = acquireBuffer(outBufferSize);
+                    }
+                    SSLEngineResult result = engine.wrap(srcs, out);
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new SSLException("TLS engine is closed");
+                    }
+                    if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                        runDelegatedTasks();
+                    }
+                    if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                        break;
+                    }
+                }
+            } finally {
+                if (out.position() > 0) {
+                    enqueue(out);
+                } else {
+                    releaseBuffer(out);
+                }
+            }
+        }
+
+        private void enqueue(ByteBuffer out) {
+            out.flip();
+            pendingBytes.addAndGet(out.remaining());
+            outbound.offer(out);
+        }
+
+        void awaitCapacity() throws IOException {
+            if (pendingBytes.get() <= config.getMaxPendingBytes()) {
+                return;
+            }
+            long deadline = System.currentTimeMillis() + config.getReadTimeoutMilli();
+            synchronized (drainLock) {
+                while (pendingBytes.get() > config.getMaxPendingBytes()) {
+                    checkFailure();
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new SocketTimeoutException("Timed out waiting for pending writes to drain");
+                    }
+                    try {
+                        drainLock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for pending writes to drain", e);
+                    }
+                }
+            }
+        }
+
+        private void checkFailure() throws IOException {
+            IOException e = failure;
+            if (e != null) {
+                throw e;
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    key.interestOps(outbound.isEmpty()
+                            ? SelectionKey.OP_READ
+                            : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    selector.select(SELECT_TIMEOUT_MILLIS);
+                    boolean readable = key.isValid() && key.isReadable();
+                    selector.selectedKeys().clear();
+
+                    if (readable) {
+                        read();
+                    }
+                    if (!outbound.isEmpty()) {
+                        write();
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (RuntimeException e) {
+                fail(new IOException("Unexpected error in the I/O thread", e));
+            }
+        }
+
+        private void write() throws IOException {
+            int count = 0;
+            for (ByteBuffer buffer : outbound) {
+                gather[count++] = buffer;
+                if (count == MAX_GATHER) {
+                    break;
+                }
+            }
+
+            long written = channel.write(gather, 0, count);
+            pendingBytes.addAndGet(-written);
+
+            for (int i = 0; i < count; i++) {
+                if (!gather[i].hasRemaining()) {
+                    outbound.poll();
+                    releaseBuffer(gather[i]);
+                }
+                gather[i] = null;
+            }
+
+            if (written > 0) {
+                synchronized (drainLock) {
+                    drainLock.notifyAll();
+                }
+            }
+        }
+
+        private void read() throws IOException {
+            if (channel.read(netIn) < 0) {
+                throw new EOFException("Connection closed by peer");
+            }
+
+            netIn.flip();
+            try {
+                while (netIn.hasRemaining()) {
+                    SSLEngineResult result = engine.unwrap(netIn, appIn);
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_UNDERFLOW) {
+                        break;
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.BUFFER_OVERFLOW) {
+                        ByteBuffer larger = ByteBuffer.allocate(appIn.capacity() * 2);
+                        appIn.flip();
+                        larger.put(appIn);
+                        appIn = larger;
+                        continue;
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new EOFException("TLS session closed by peer");
+                    }
+                    if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                        runDelegatedTasks();
+                    }
+                    if (engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                        synchronized (wrapLock) {
+                            ByteBuffer out = acquireBuffer(outBufferSize);
+                            engine.wrap(EMPTY, out);
+                            enqueue(out);
+                        }
+                    }
+                    if (result.bytesConsumed() == 0 && result.bytesProduced() == 0) {
+                        break;
+                    }
+                }
+            } finally {
+                netIn.compact();
+            }
+
+            parseAcks();
+        }
+
+        private void parseAcks() throws IOException {
+            appIn.flip();
+            try {
+                while (appIn.hasRemaining()) {
+                    MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(
+                            appIn.array(), appIn.arrayOffset() + appIn.position(), appIn.remaining());
+                    byte[] ack = null;
+                    try {
+                        int size = unpacker.unpackMapHeader();
+                        for (int i = 0; i < size; i++) {
+                            String name = unpacker.unpackString();
+                            ValueType type = unpacker.getNextFormat().getValueType();
+                            if ("ack".equals(name) && (type == ValueType.STRING || type == ValueType.BINARY)) {
+                                int length = type == ValueType.STRING
+                                        ? unpacker.unpackRawStringHeader()
+                                        : unpacker.unpackBinaryHeader();
+                                ack = unpacker.readPayload(length);
+                            } else {
+                                unpacker.skipValue();
+                            }
+                        }
+                    } catch (MessageInsufficientBufferException e) {
+                        // Wait for the rest of the response
+                        return;
+                    }
+                    appIn.position(appIn.position() + (int) unpacker.getTotalReadBytes());
+
+                    if (ack != null) {
+                        PendingAck pendingAck = pendingAcks.remove(tokenKey(ack));
+                        if (pendingAck != null) {
+                            pendingAck.complete();
+                        } else {
+                            LOG.debug("Received an ack nobody waits for: {}", tokenKey(ack));
+                        }
+                    }
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("Malformed ack response", e);
+            } finally {
+                appIn.compact();
+            }
+        }
+
+        void fail(IOException e) {
+            if (failure == null) {
+                failure = e;
+            }
+            running = false;
+            for (PendingAck pendingAck : pendingAcks.values()) {
+                pendingAck.fail(e);
+            }
+            pendingAcks.clear();
+            synchronized (drainLock) {
+                drainLock.notifyAll();
+            }
+            if (selector != null) {
+                selector.wakeup();
+            }
+        }
+
+        /**
+         * Gives the I/O thread up to {@code timeoutMillis} to write out what is queued, then says goodbye to the peer.
+         */
+        void close(long timeoutMillis) {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            synchronized (drainLock) {
+                while (running && failure == null && !outbound.isEmpty()) {
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        LOG.warn("Closing with {} bytes still pending", pendingBytes.get());
+                        break;
+                    }
+                    try {
+                        drainLock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+
+            running = false;
+            selector.wakeup();
+            try {
+                ioThread.join(Math.max(1, deadline - System.currentTimeMillis()));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            if (failure == null) {
+                try {
+                    synchronized (wrapLock) {
+                        engine.closeOutbound();
+                        ByteBuffer out = ByteBuffer.allocate(engine.getSession().getPacketBufferSize());
+                        engine.wrap(EMPTY, out);
+                        out.flip();
+                        channel.write(out);
+                    }
+                } catch (IOException e) {
+                    LOG.debug("Failed to send close_notify", e);
+                }
+            }
+            closeNow();
+        }
+
+        void closeNow() {
+            running = false;
+            try {
+                if (selector != null) {
+                    selector.close();
+                }
+            } catch (IOException e) {
+                LOG.debug("Failed to close selector", e);
+            }
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                LOG.debug("Failed to close channel", e);
+            }
+        }
+    }
+}
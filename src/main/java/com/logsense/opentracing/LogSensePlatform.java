@@ -0,0 +1,27 @@
+package com.logsense.opentracing;
+
+/**
+ * The few places where the tracer depends on what the JVM offers. This is the Java 8 version, the jar carries
+ * a Java 21 one in {@code META-INF/versions/21} that the JVM picks instead when it can; both must keep the
+ * same package-private signatures.
+ */
+final class LogSensePlatform {
+    private LogSensePlatform() {
+    }
+
+    /**
+     * @return whether {@link #newEmitterThread} can hand out virtual threads
+     */
+    static boolean hasVirtualThreads() {
+        return false;
+    }
+
+    /**
+     * @return an unstarted daemon thread running the span emitter
+     */
+    static Thread newEmitterThread(Runnable emitter, String name, boolean preferVirtual) {
+        Thread thread = new Thread(emitter, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+}
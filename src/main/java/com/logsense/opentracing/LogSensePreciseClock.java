@@ -0,0 +1,93 @@
+package com.logsense.opentracing;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Microsecond timestamps derived from {@link System#nanoTime()}, anchored to the wall clock once and then
+ * re-checked against it every resync interval. The wall clock only has millisecond resolution here, so the
+ * anchor is only moved when the two disagree by more than a millisecond, e.g. after an NTP step or when the
+ * nanosecond counter drifts. Spans measure from their own start reading, so a correction never makes time run
+ * backwards within a span.
+ */
+public class LogSensePreciseClock implements LogSenseClock {
+    private static final class Anchor {
+        final long epochMicros;
+        final long nanoTime;
+
+        Anchor(long epochMicros, long nanoTime) {
+            this.epochMicros = epochMicros;
+            this.nanoTime = nanoTime;
+        }
+    }
+
+    private final long resyncIntervalNanos;
+    private volatile Anchor anchor;
+
+    public LogSensePreciseClock(long resyncIntervalMillis) {
+        this(resyncIntervalMillis, true);
+    }
+
+    /**
+     * @param calibrate whether to settle the anchor right away, otherwise it is within a millisecond of the wall
+     *                  clock until {@link #calibrate()} is called
+     */
+    LogSensePreciseClock(long resyncIntervalMillis, boolean calibrate) {
+        this.resyncIntervalNanos = TimeUnit.MILLISECONDS.toNanos(resyncIntervalMillis);
+        this.anchor = calibrate ? initialAnchor() : new Anchor(currentTimeMillis() * 1000, System.nanoTime());
+    }
+
+    /**
+     * Settles the anchor to within microseconds of the wall clock, which takes up to two milliseconds. Spans
+     * started before keep their duration, only their timestamps may move by less than a millisecond.
+     */
+    void calibrate() {
+        anchor = initialAnchor();
+    }
+
+    /**
+     * Waits for the millisecond to change, which puts the anchor within microseconds of the wall clock
+     * instead of anywhere within a millisecond
+     */
+    private Anchor initialAnchor() {
+        long millis = currentTimeMillis();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2);
+        long now;
+        long nanoTime;
+        do {
+            now = currentTimeMillis();
+            nanoTime = System.nanoTime();
+        } while (now == millis && nanoTime - deadline < 0);
+        return new Anchor(now * 1000, nanoTime);
+    }
+
+    /**
+     * @return the wall clock the anchor is taken from and checked against
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public long toEpochMicros(long nanoTime) {
+        Anchor current = anchor;
+        if (nanoTime - current.nanoTime > resyncIntervalNanos) {
+            current = resync(current, nanoTime);
+        }
+        return current.epochMicros + (nanoTime - current.nanoTime) / 1000;
+    }
+
+    private Anchor resync(Anchor current, long nanoTime) {
+        long predicted = current.epochMicros + (nanoTime - current.nanoTime) / 1000;
+        long wall = currentTimeMillis() * 1000;
+        // The wall clock reads the start of its millisecond, pull the prediction back into it when it has drifted out
+        Anchor resynced = new Anchor(Math.min(Math.max(predicted, wall), wall + 999), nanoTime);
+        // Racing threads compute nearly the same anchor, whichever lands last is fine
+        anchor = resynced;
+        return resynced;
+    }
+}
@@ -0,0 +1,40 @@
+package com.logsense.opentracing;
+
+/**
+ * What exported spans come from: the token and service name of the tracer and the host it runs on. Every span
+ * of an {@link LogSenseExporter#export} call shares it.
+ */
+public final class LogSenseResource {
+    private final String customerToken;
+    private final String serviceName;
+    private final String hostName;
+
+    public LogSenseResource(String customerToken, String serviceName, String hostName) {
+        this.customerToken = customerToken;
+        this.serviceName = serviceName;
+        this.hostName = hostName;
+    }
+
+    public String getCustomerToken() {
+        return customerToken;
+    }
+
+    /**
+     * @return the service name, empty or null if none was configured
+     */
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    /**
+     * @return the local host name, null if it could not be resolved
+     */
+    public String getHostName() {
+        return hostName;
+    }
+
+    @Override
+    public String toString() {
+        return "LogSenseResource{serviceName=" + serviceName + ", hostName=" + hostName + "}";
+    }
+}
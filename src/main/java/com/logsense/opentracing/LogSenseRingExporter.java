@@ -0,0 +1,98 @@
+package com.logsense.opentracing;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the most recent spans in memory, for tests and for benchmarks that measure the tracer without the network.
+ * Exporting stores references only and never waits; once the ring is full the oldest spans are overwritten.
+ * <p>
+ * Lock-free with one thread exporting, which the emitter guarantees, and one thread calling {@link #poll()}.
+ */
+public final class LogSenseRingExporter implements LogSenseExporter {
+    private final AtomicReferenceArray<LogSenseSpanModel> slots;
+    private final int mask;
+    /**
+     * Spans the exporter has started to store; raised before a slot is overwritten, so that a reader can tell
+     */
+    private final AtomicLong claimed = new AtomicLong();
+    /**
+     * Spans stored and visible to the reader
+     */
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong overwritten = new AtomicLong();
+    private long read;
+
+    /**
+     * @param capacity number of spans kept, rounded up to a power of two
+     */
+    public LogSenseRingExporter(int capacity) {
+        if (capacity <= 0 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be within [1, 2^30]: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    @Override
+    public void export(LogSenseResource resource, List<LogSenseSpanModel> spans) {
+        long sequence = written.get();
+        claimed.set(sequence + spans.size());
+        for (int i = 0; i < spans.size(); i++) {
+            slots.lazySet((int) (sequence++ & mask), spans.get(i));
+        }
+        written.lazySet(sequence);
+    }
+
+    /**
+     * @return the oldest span not polled yet, or null if there is none; spans overwritten before they were polled
+     * are skipped and counted
+     */
+    public LogSenseSpanModel poll() {
+        while (true) {
+            long available = written.get();
+            if (read >= available) {
+                return null;
+            }
+            if (available - read > slots.length()) {
+                skipTo(available - slots.length());
+            }
+            LogSenseSpanModel span = slots.get((int) (read & mask));
+            if (claimed.get() - read > slots.length()) {
+                // Overwritten while it was read
+                skipTo(claimed.get() - slots.length());
+                continue;
+            }
+            read++;
+            return span;
+        }
+    }
+
+    private void skipTo(long sequence) {
+        overwritten.addAndGet(sequence - read);
+        read = sequence;
+    }
+
+    public int getCapacity() {
+        return slots.length();
+    }
+
+    /**
+     * @return number of spans exported since the ring was created
+     */
+    public long getExportedCount() {
+        return written.get();
+    }
+
+    /**
+     * @return number of spans overwritten before {@link #poll()} got to them
+     */
+    public long getOverwrittenCount() {
+        return overwritten.get();
+    }
+}
@@ -0,0 +1,108 @@
+package com.logsense.opentracing;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Immutable snapshot of the settings that may change while the tracer runs. Hot paths read it through a single
+ * volatile reference, changes replace the whole snapshot so readers never see half of an update.
+ */
+public final class LogSenseRuntimeSettings {
+    private final boolean enabled;
+    private final double samplingRate;
+    private final int queueSize;
+    private final int flushThreshold;
+    private final int queueDrainIntervalMillis;
+
+    LogSenseRuntimeSettings(boolean enabled, double samplingRate, int queueSize, int flushThreshold, int queueDrainIntervalMillis) {
+        if (!(samplingRate >= 0.0 && samplingRate <= 1.0)) {
+            throw new IllegalArgumentException("Sampling rate must be within [0, 1]: " + samplingRate);
+        }
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("Queue size must be positive: " + queueSize);
+        }
+        if (flushThreshold <= 0) {
+            throw new IllegalArgumentException("Flush threshold must be positive: " + flushThreshold);
+        }
+        if (queueDrainIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Queue drain interval must be positive: " + queueDrainIntervalMillis);
+        }
+        this.enabled = enabled;
+        this.samplingRate = samplingRate;
+        this.queueSize = queueSize;
+        this.flushThreshold = flushThreshold;
+        this.queueDrainIntervalMillis = queueDrainIntervalMillis;
+    }
+
+    static LogSenseRuntimeSettings from(LogSenseConfig config) {
+        return new LogSenseRuntimeSettings(config.isTracingEnabled(), config.getSamplingRate(), config.getQueueSize(),
+                config.getFlushThreshold(), config.getQueueDrainIntervalMillis());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * @return number of queued spans that wakes the emitter up before the drain interval passes
+     */
+    public int getFlushThreshold() {
+        return flushThreshold;
+    }
+
+    public int getQueueDrainIntervalMillis() {
+        return queueDrainIntervalMillis;
+    }
+
+    /**
+     * @return whether a new trace should be recorded
+     */
+    boolean sample() {
+        return sample(1.0);
+    }
+
+    /**
+     * @param factor fraction of the sampling rate to apply, lowered while the tracer is saturated
+     */
+    boolean sample(double factor) {
+        double rate = samplingRate * factor;
+        if (rate >= 1.0) {
+            return true;
+        }
+        return rate > 0.0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    public LogSenseRuntimeSettings withEnabled(boolean enabled) {
+        return new LogSenseRuntimeSettings(enabled, samplingRate, queueSize, flushThreshold, queueDrainIntervalMillis);
+    }
+
+    public LogSenseRuntimeSettings withSamplingRate(double samplingRate) {
+        return new LogSenseRuntimeSettings(enabled, samplingRate, queueSize, flushThreshold, queueDrainIntervalMillis);
+    }
+
+    public LogSenseRuntimeSettings withQueueSize(int queueSize) {
+        return new LogSenseRuntimeSettings(enabled, samplingRate, queueSize, flushThreshold, queueDrainIntervalMillis);
+    }
+
+    public LogSenseRuntimeSettings withFlushThreshold(int flushThreshold) {
+        return new LogSenseRuntimeSettings(enabled, samplingRate, queueSize, flushThreshold, queueDrainIntervalMillis);
+    }
+
+    public LogSenseRuntimeSettings withQueueDrainIntervalMillis(int queueDrainIntervalMillis) {
+        return new LogSenseRuntimeSettings(enabled, samplingRate, queueSize, flushThreshold, queueDrainIntervalMillis);
+    }
+
+    @Override
+    public String toString() {
+        return "LogSenseRuntimeSettings{enabled=" + enabled + ", samplingRate=" + samplingRate
+                + ", queueSize=" + queueSize + ", flushThreshold=" + flushThreshold
+                + ", queueDrainIntervalMillis=" + queueDrainIntervalMillis + "}";
+    }
+}
@@ -0,0 +1,114 @@
+package com.logsense.opentracing;
+
+import io.opentracing.Scope;
+import io.opentracing.ScopeManager;
+import io.opentracing.Span;
+
+/**
+ * Keeps the active spans of each thread on a reusable array stack, so that {@code active()} and
+ * {@link #activeContext()} only read the top of it. Activating a span allocates just the small {@link Scope} handed
+ * out for it; once a thread has reached a given nesting depth, the stack does not grow again.
+ *
+ * Each activation gets its own scope, so closing a scope again later, even after its slot was reused by another
+ * activation, is ignored rather than closing the newer one. Closing a scope that is not the innermost one, or on
+ * another thread than the one that activated it, is ignored as well, as it is by
+ * {@link io.opentracing.util.ThreadLocalScopeManager}.
+ */
+public class LogSenseScopeManager implements ScopeManager {
+    private static final int INITIAL_DEPTH = 8;
+
+    private final ThreadLocal<ScopeStack> stacks = new ThreadLocal<ScopeStack>() {
+        @Override
+        protected ScopeStack initialValue() {
+            return new ScopeStack();
+        }
+    };
+
+    @Override
+    public Scope activate(Span span) {
+        return stacks.get().push(span, false);
+    }
+
+    @Override
+    public Scope activate(Span span, boolean finishOnClose) {
+        return stacks.get().push(span, finishOnClose);
+    }
+
+    @Override
+    public Scope active() {
+        return stacks.get().top();
+    }
+
+    @Override
+    public Span activeSpan() {
+        StackScope top = stacks.get().top();
+        return top == null ? null : top.span;
+    }
+
+    /**
+     * @return context of the innermost active span if it is a LogSense one, null otherwise
+     */
+    public LogSenseSpanContext activeContext() {
+        StackScope top = stacks.get().top();
+        return top == null ? null : top.context;
+    }
+
+    private static final class ScopeStack {
+        private final Thread owner = Thread.currentThread();
+        private StackScope[] scopes = new StackScope[INITIAL_DEPTH];
+        private int depth;
+
+        StackScope push(Span span, boolean finishOnClose) {
+            if (depth == scopes.length) {
+                StackScope[] grown = new StackScope[scopes.length * 2];
+                System.arraycopy(scopes, 0, grown, 0, depth);
+                scopes = grown;
+            }
+            LogSenseSpanContext context = span != null && span.context() instanceof LogSenseSpanContext
+                    ? (LogSenseSpanContext) span.context() : null;
+            StackScope scope = new StackScope(this, span, context, finishOnClose);
+            scopes[depth++] = scope;
+            return scope;
+        }
+
+        StackScope top() {
+            return depth == 0 ? null : scopes[depth - 1];
+        }
+
+        void pop(StackScope scope) {
+            // A scope closed before is no longer on the stack, whatever now sits in its slot
+            if (Thread.currentThread() != owner || depth == 0 || scopes[depth - 1] != scope) {
+                return;
+            }
+            // Drop the reference so that a long-lived thread does not keep finished spans alive
+            scopes[--depth] = null;
+            if (scope.finishOnClose && scope.span != null) {
+                scope.span.finish();
+            }
+        }
+    }
+
+    private static final class StackScope implements Scope {
+        private final ScopeStack stack;
+        private final Span span;
+        private final LogSenseSpanContext context;
+        private final boolean finishOnClose;
+
+        StackScope(ScopeStack stack, Span span, LogSenseSpanContext context, boolean finishOnClose) {
+            this.stack = stack;
+            this.span = span;
+            this.context = context;
+            this.finishOnClose = finishOnClose;
+        }
+
+        @Override
+        public void close() {
+            stack.pop(this);
+        }
+
+        @Override
+        public Span span() {
+            return span;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.logsense.opentracing;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Tails the segment files written with {@code logsense.exporter=file}, for a shipper running next to the
+ * application. Records come in the order they were written; the payload of each one is the msgpack array of tag,
+ * timestamp in epoch microseconds and record map described in {@link LogSenseSegmentWriter}.
+ * <p>
+ * The position is kept in {@code <name>.offset} in the segment directory, so that several readers with different
+ * names can tail the same files. {@link #commit()} stores it durably once the records polled so far are shipped; a
+ * reader opened later with the same name goes on from there. Not thread safe.
+ */
+public final class LogSenseSegmentReader implements Closeable {
+    private final Path directory;
+    private final Path offsetPath;
+    private long sequence;
+    private int position;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long skippedSegments;
+    private long corruptRecords;
+
+    /**
+     * @param directory the directory given by {@code logsense.file.directory}
+     * @param name      name of the reader, its offset is stored under it
+     */
+    public LogSenseSegmentReader(Path directory, String name) throws IOException {
+        this.directory = directory;
+        this.offsetPath = directory.resolve(name + ".offset");
+        this.sequence = -1;
+        try {
+            String[] offset = new String(Files.readAllBytes(offsetPath), StandardCharsets.UTF_8).trim().split(" ");
+            this.sequence = Long.parseLong(offset[0]);
+            this.position = Integer.parseInt(offset[1]);
+        } catch (NoSuchFileException e) {
+            // not committed yet, starts at the oldest segment
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid offset file " + offsetPath, e);
+        }
+    }
+
+    /**
+     * A record read from a segment
+     */
+    public static final class Record {
+        private final long sequence;
+        private final int position;
+        private final byte[] payload;
+
+        private Record(long sequence, int position, byte[] payload) {
+            this.sequence = sequence;
+            this.position = position;
+            this.payload = payload;
+        }
+
+        /**
+         * @return sequence number of the segment the record is in
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * @return position of the record in its segment
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        /**
+         * @return the msgpack encoded record
+         */
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+    /**
+     * @return the next record, or null if there is none written yet
+     */
+    public Record poll() throws IOException {
+        while (true) {
+            if (mapped == null && !openSegment()) {
+                return null;
+            }
+            Record record = readRecord();
+            if (record != null) {
+                return record;
+            }
+            // A later segment means the writer is done with this one, what was appended meanwhile comes first
+            if (laterSegment() < 0) {
+                return null;
+            }
+            record = readRecord();
+            if (record != null) {
+                return record;
+            }
+            if (position + 4 <= mapped.limit() && mapped.getInt(position) != 0) {
+                corruptRecords++;
+            }
+            closeSegment();
+            sequence = laterSegment();
+            position = LogSenseSegmentWriter.HEADER_SIZE;
+        }
+    }
+
+    private Record readRecord() {
+        if (position + LogSenseSegmentWriter.RECORD_HEADER_SIZE > mapped.limit()) {
+            return null;
+        }
+        int length = mapped.getInt(position);
+        int payloadPosition = position + LogSenseSegmentWriter.RECORD_HEADER_SIZE;
+        if (length <= 0 || payloadPosition + length > mapped.limit()
+                || LogSenseSegmentWriter.checksum(mapped, payloadPosition, length) != mapped.getInt(position + 4)) {
+            return null;
+        }
+        byte[] payload = new byte[length];
+        ByteBuffer source = mapped.duplicate();
+        LogSenseSegmentWriter.position(source, payloadPosition);
+        source.get(payload);
+        Record record = new Record(sequence, position, payload);
+        position = payloadPosition + length;
+        return record;
+    }
+
+    /**
+     * Maps the current segment, moving on to the oldest one still there if it was deleted
+     *
+     * @return whether there is a segment to read
+     */
+    private boolean openSegment() throws IOException {
+        List<Long> segments = LogSenseSegmentWriter.listSegments(directory);
+        if (segments.isEmpty()) {
+            return false;
+        }
+        if (sequence < segments.get(0)) {
+            if (sequence >= 0) {
+                // The writer deleted segments that were never read
+                skippedSegments += segments.get(0) - sequence;
+            }
+            sequence = segments.get(0);
+            position = LogSenseSegmentWriter.HEADER_SIZE;
+        }
+        try {
+            channel = FileChannel.open(LogSenseSegmentWriter.segmentPath(directory, sequence), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (mapped.limit() < LogSenseSegmentWriter.HEADER_SIZE || mapped.getInt(0) == 0) {
+            // Just created, the writer has not written the header yet
+            closeSegment();
+            return false;
+        }
+        if (mapped.getInt(0) != LogSenseSegmentWriter.MAGIC) {
+            closeSegment();
+            throw new IOException("Not a LogSense segment: " + LogSenseSegmentWriter.segmentPath(directory, sequence));
+        }
+        if (mapped.getInt(4) != LogSenseSegmentWriter.VERSION) {
+            closeSegment();
+            throw new IOException("Unsupported segment version " + mapped.getInt(4));
+        }
+        position = Math.max(position, LogSenseSegmentWriter.HEADER_SIZE);
+        return true;
+    }
+
+    /**
+     * @return sequence number of the next segment after the current one, or -1 if there is none
+     */
+    private long laterSegment() throws IOException {
+        for (long segment : LogSenseSegmentWriter.listSegments(directory)) {
+            if (segment > sequence) {
+                return segment;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stores the position after the last polled record, replacing the offset file atomically
+     */
+    public void commit() throws IOException {
+        if (sequence < 0) {
+            return;
+        }
+        Path temporary = offsetPath.resolveSibling(offsetPath.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(ByteBuffer.wrap((sequence + " " + position + "\n").getBytes(StandardCharsets.UTF_8)));
+            out.force(true);
+        }
+        try {
+            Files.move(temporary, offsetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary, offsetPath, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * @return sequence number of the segment the reader is in, -1 before the first one was found
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * @return segments the writer deleted before they were read, see {@code logsense.file.segments.max}
+     */
+    public long getSkippedSegments() {
+        return skippedSegments;
+    }
+
+    /**
+     * @return records whose checksum did not match, the rest of their segment was skipped
+     */
+    public long getCorruptRecords() {
+        return corruptRecords;
+    }
+
+    private void closeSegment() throws IOException {
+        mapped = null;
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSegment();
+    }
+}
@@ -0,0 +1,279 @@
+package com.logsense.opentracing;
+
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.buffer.MessageBuffer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Appends records to memory-mapped segment files for a node-local shipper, see {@link LogSenseSegmentReader}.
+ * <p>
+ * A segment is a file of fixed size named after its sequence number ({@code 00000000000000000042.seg}), starting
+ * with a header of {@link #MAGIC} and {@link #VERSION}. Records follow, each one an int length, an int CRC32 of the
+ * payload and the payload: a msgpack array of tag, timestamp in epoch microseconds and record map. The length is
+ * written last, so a reader that sees it sees the whole record; a zero length marks the end of what was written.
+ * When a record does not fit, the writer moves on to the next segment and deletes the oldest ones past the limit.
+ * <p>
+ * Not thread safe, the emitter thread is the only writer. Appending is a memory copy, the page cache takes the
+ * data to disk; {@link #flush()} forces it there.
+ */
+final class LogSenseSegmentWriter implements Closeable {
+    static final int MAGIC = 0x4C53534D;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 8;
+    static final int MIN_SEGMENT_SIZE = 4096;
+    static final String SEGMENT_SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxSegments;
+    private final CRC32 crc = new CRC32();
+    private final MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+    private long sequence;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long appendedRecords;
+    private long deletedSegments;
+
+    LogSenseSegmentWriter(Path directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Segment size must be at least " + MIN_SEGMENT_SIZE + ": " + segmentSize);
+        }
+        if (maxSegments < 2) {
+            throw new IllegalArgumentException("At least two segments must be kept: " + maxSegments);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = maxSegments;
+        Files.createDirectories(directory);
+        List<Long> existing = listSegments(directory);
+        if (existing.isEmpty()) {
+            open(0, true);
+        } else {
+            open(existing.get(existing.size() - 1), false);
+            if (!recover()) {
+                // Whatever follows the last valid record is not ours to overwrite
+                rotate();
+            }
+        }
+    }
+
+    static Path segmentPath(Path directory, long sequence) {
+        return directory.resolve(String.format("%020d%s", sequence, SEGMENT_SUFFIX));
+    }
+
+    /**
+     * @return sequence numbers of the segments in the directory, oldest first
+     */
+    static List<Long> listSegments(Path directory) throws IOException {
+        List<Long> sequences = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return sequences;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                try {
+                    sequences.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // not a segment
+                }
+            }
+        }
+        Collections.sort(sequences);
+        return sequences;
+    }
+
+    /**
+     * Appends a record, moving on to a new segment if it does not fit in the current one
+     *
+     * @throws IOException if the record is larger than a segment, or a new segment cannot be created
+     */
+    void append(String tag, long timestampMicros, Map<String, Object> record) throws IOException {
+        packer.clear();
+        packer.packArrayHeader(3);
+        packer.packString(tag);
+        packer.packLong(timestampMicros);
+        packValue(packer, record);
+        packer.flush();
+        int length = packer.getBufferSize();
+        if (RECORD_HEADER_SIZE + length > segmentSize - HEADER_SIZE) {
+            throw new IOException("Record of " + length + " bytes does not fit in a segment of " + segmentSize);
+        }
+        if (mapped.remaining() < RECORD_HEADER_SIZE + length) {
+            rotate();
+        }
+        List<MessageBuffer> payload = packer.toBufferList();
+        crc.reset();
+        for (MessageBuffer chunk : payload) {
+            crc.update(chunk.sliceAsByteBuffer());
+        }
+        int start = mapped.position();
+        mapped.putInt(start + 4, (int) crc.getValue());
+        position(mapped, start + RECORD_HEADER_SIZE);
+        for (MessageBuffer chunk : payload) {
+            mapped.put(chunk.sliceAsByteBuffer());
+        }
+        mapped.putInt(start, length);
+        appendedRecords++;
+    }
+
+    static void packValue(MessagePacker packer, Object value) throws IOException {
+        if (value == null) {
+            packer.packNil();
+        } else if (value instanceof String) {
+            packer.packString((String) value);
+        } else if (value instanceof Boolean) {
+            packer.packBoolean((Boolean) value);
+        } else if (value instanceof Double || value instanceof Float) {
+            packer.packDouble(((Number) value).doubleValue());
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            packer.packLong(((Number) value).longValue());
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            packer.packMapHeader(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                packer.packString(String.valueOf(entry.getKey()));
+                packValue(packer, entry.getValue());
+            }
+        } else if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            packer.packArrayHeader(collection.size());
+            for (Object element : collection) {
+                packValue(packer, element);
+            }
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            packer.packArrayHeader(array.length);
+            for (Object element : array) {
+                packValue(packer, element);
+            }
+        } else {
+            packer.packString(value.toString());
+        }
+    }
+
+    /**
+     * Forces what was appended to disk
+     */
+    void flush() {
+        mapped.force();
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    long getAppendedRecords() {
+        return appendedRecords;
+    }
+
+    /**
+     * @return segments deleted to stay within the limit, a shipper that fell behind may not have read them
+     */
+    long getDeletedSegments() {
+        return deletedSegments;
+    }
+
+    private void open(long sequence, boolean create) throws IOException {
+        Path path = segmentPath(directory, sequence);
+        this.channel = create
+                ? FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, create ? segmentSize : Math.max(channel.size(), HEADER_SIZE));
+        this.sequence = sequence;
+        if (create) {
+            mapped.putInt(0, MAGIC);
+            mapped.putInt(4, VERSION);
+        }
+        position(mapped, HEADER_SIZE);
+    }
+
+    /**
+     * Finds the end of the records in a segment left by an earlier writer
+     *
+     * @return whether appending may continue there
+     */
+    private boolean recover() {
+        if (mapped.limit() < segmentSize || mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+            return false;
+        }
+        int position = HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= mapped.limit()) {
+            int length = mapped.getInt(position);
+            if (length == 0) {
+                position(mapped, position);
+                return true;
+            }
+            if (length < 0 || position + RECORD_HEADER_SIZE + length > mapped.limit()
+                    || checksum(mapped, position + RECORD_HEADER_SIZE, length) != mapped.getInt(position + 4)) {
+                return false;
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+        position(mapped, position);
+        return true;
+    }
+
+    static int checksum(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer payload = buffer.duplicate();
+        ((Buffer) payload).limit(offset + length);
+        position(payload, offset);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Through {@link Buffer}, newer JDKs override the method with a covariant return type that Java 8 lacks
+     */
+    static void position(ByteBuffer buffer, int position) {
+        ((Buffer) buffer).position(position);
+    }
+
+    private void rotate() throws IOException {
+        closeSegment();
+        open(sequence + 1, true);
+        List<Long> existing = listSegments(directory);
+        for (int i = 0; i < existing.size() - maxSegments; i++) {
+            if (Files.deleteIfExists(segmentPath(directory, existing.get(i)))) {
+                deletedSegments++;
+            }
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        if (mapped != null) {
+            mapped.force();
+            mapped = null;
+        }
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closeSegment();
+        packer.close();
+    }
+}
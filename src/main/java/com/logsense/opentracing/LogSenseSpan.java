@@ -4,25 +4,42 @@ import io.opentracing.Span;
 import io.opentracing.SpanContext;
 import io.opentracing.tag.Tag;
 
-import java.util.HashMap;
 import java.util.Map;
 
-public class LogSenseSpan implements Span {
+public class LogSenseSpan extends LogSenseSpanState implements Span {
     static final String LOG_KEY_EVENT = "event";
     static final String LOG_KEY_MESSAGE = "message";
 
     private final Object mutex = new Object();
     private final LogSenseTracer tracer;
-    private final long startTimestampRelativeNanos;
+    private final LogSenseClock clock;
+    private final long startNanoTime;
+    private final long clockStartMicros;
 
     private LogSenseSpanContext context;
     private LogSenseSpanModel model;
 
-    LogSenseSpan(LogSenseTracer tracer, LogSenseSpanContext context, LogSenseSpanModel model, long startTimestampRelativeNanos) {
+    /**
+     * Set only for spans of the operations sampled, along with the readings at the start
+     */
+    private LogSenseThreadUsage threadUsage;
+    private long usageThreadId;
+    private long startCpuNanos;
+    private long startAllocatedBytes;
+
+    /**
+     * @param startNanoTime reading of the clock when the span was started
+     * @param clockStartMicros the same reading in epoch microseconds, differs from the start timestamp of the span
+     *                         if one was given explicitly
+     */
+    LogSenseSpan(LogSenseTracer tracer, LogSenseSpanContext context, LogSenseSpanModel model, LogSenseClock clock,
+                 long startNanoTime, long clockStartMicros) {
         this.context = context;
         this.tracer = tracer;
         this.model = model;
-        this.startTimestampRelativeNanos = startTimestampRelativeNanos;
+        this.clock = clock;
+        this.startNanoTime = startNanoTime;
+        this.clockStartMicros = clockStartMicros;
     }
 
     @Override
@@ -37,9 +54,19 @@ public class LogSenseSpan implements Span {
 
     @Override
     public void finish(long finishTimeMicros) {
+        if (!markFinished()) {
+            // Finishing twice would report the span twice
+            return;
+        }
         synchronized (mutex) {
+            if (threadUsage != null) {
+                recordUsage();
+            }
             this.model.setDurationMicros(durationMicros(finishTimeMicros));
-            tracer.addSpan(this.model);
+            tracer.countLimited(this.model);
+            if (!context.isSampledOut()) {
+                tracer.addSpan(this.model);
+            }
         }
     }
 
@@ -49,7 +76,11 @@ public class LogSenseSpan implements Span {
             return this;
         }
         synchronized (mutex) {
-            this.model.setTagValue(key, value);
+            if (isFinished()) {
+                // Finished spans go to the exporter on the emitter thread, later changes are ignored
+                return this;
+            }
+            this.model.setTagValue(tracer.getTagKeys().intern(key), value);
         }
         return this;
     }
@@ -60,7 +91,10 @@ public class LogSenseSpan implements Span {
             return this;
         }
         synchronized (mutex) {
-            this.model.setTagValue(key, value);
+            if (isFinished()) {
+                return this;
+            }
+            this.model.setTagValue(tracer.getTagKeys().intern(key), value);
         }
         return this;
     }
@@ -71,6 +105,10 @@ public class LogSenseSpan implements Span {
             return this;
         }
         synchronized (mutex) {
+            if (isFinished()) {
+                return this;
+            }
+            key = tracer.getTagKeys().intern(key);
             if (value instanceof Long || value instanceof Integer) {
                 this.model.setTagValue(key, value.longValue());
             } else if (value instanceof Double || value instanceof Float) {
@@ -104,12 +142,18 @@ public class LogSenseSpan implements Span {
 
     @Override
     public synchronized LogSenseSpan setBaggageItem(String key, String value) {
-        context.addBaggageItem(key, value);
+        if (!context.putBaggageItem(key, value)) {
+            tracer.countDroppedBaggageItem();
+        }
         return this;
     }
 
-    public synchronized LogSenseSpan setOperationName(String operationName) {
-        model.setOperationName(operationName);
+    public LogSenseSpan setOperationName(String operationName) {
+        synchronized (mutex) {
+            if (!isFinished()) {
+                model.setOperationName(tracer.getOperationNames().intern(operationName));
+            }
+        }
         return this;
     }
 
@@ -128,59 +172,73 @@ public class LogSenseSpan implements Span {
 
     @Override
     public final LogSenseSpan log(long timestampMicros, Map<String, ?> fields) {
-        for (Map.Entry<String, ?> kv : fields.entrySet()) {
-            final Object inValue = kv.getValue();
-
-            synchronized (mutex) {
-                if (inValue instanceof String) {
-                    this.model.setTagValue(kv.getKey(), (String)inValue);
-                } else if (inValue instanceof Number) {
-                    if (inValue instanceof Long || inValue instanceof Integer) {
-                        this.model.setTagValue(kv.getKey(), ((Number) inValue).longValue());
-                    } else if (inValue instanceof Double || inValue instanceof Float) {
-                        this.model.setTagValue(kv.getKey(), ((Number) inValue).doubleValue());
-                    } else {
-                        this.model.setTagValue(kv.getKey(), inValue.toString());
-                    }
-                } else if (inValue instanceof Boolean) {
-                    this.model.setTagValue(kv.getKey(), (Boolean) inValue);
-                } else {
-                    this.model.setTagValue(kv.getKey(), inValue.toString());
-                }
+        if (fields == null || fields.isEmpty()) {
+            return this;
+        }
+        synchronized (mutex) {
+            if (isFinished()) {
+                return this;
             }
-
+            this.model.addLogEvent(timestampMicros, fields);
         }
         return this;
     }
 
     @Override
     public LogSenseSpan log(String message) {
-        return log(nowMicros(), message, null);
+        return log(nowMicros(), message);
     }
 
     @Override
     public LogSenseSpan log(long timestampMicroseconds, String message) {
-        return log(timestampMicroseconds, message, null);
+        if (message == null) {
+            return this;
+        }
+        synchronized (mutex) {
+            if (isFinished()) {
+                return this;
+            }
+            this.model.addLogEvent(timestampMicroseconds, message);
+        }
+        return this;
     }
 
-    private LogSenseSpan log(long timestampMicroseconds, String message, /* @Nullable */ Object payload) {
-        Map<String, Object> fields = new HashMap<>();
-        fields.put("message", message);
-        if (payload != null) {
-            fields.put("payload", payload);
+    /**
+     * Takes the readings that the CPU time and allocated bytes of the span are measured from
+     */
+    void startUsage(LogSenseThreadUsage threadUsage) {
+        this.threadUsage = threadUsage;
+        usageThreadId = Thread.currentThread().getId();
+        startAllocatedBytes = threadUsage.allocatedBytes(usageThreadId);
+        startCpuNanos = threadUsage.cpuNanos();
+    }
+
+    private void recordUsage() {
+        if (Thread.currentThread().getId() != usageThreadId) {
+            // The counters of either thread say nothing about the work done for the span on the other one
+            return;
+        }
+        long cpuNanos = threadUsage.cpuNanos();
+        long allocatedBytes = threadUsage.allocatedBytes(usageThreadId);
+        if (startCpuNanos >= 0 && cpuNanos >= 0) {
+            model.setCpuTimeMicros((cpuNanos - startCpuNanos) / 1000);
+        }
+        if (startAllocatedBytes >= 0 && allocatedBytes >= 0) {
+            model.setAllocatedBytes(allocatedBytes - startAllocatedBytes);
         }
-        return log(timestampMicroseconds, fields);
     }
 
+    LogSenseSpanModel getModel() {
+        return model;
+    }
+
+    /**
+     * Measured from the start reading rather than converted on its own, so that a drift correction of the clock
+     * cannot make timestamps within the span go backwards
+     */
     private long nowMicros() {
-        if (startTimestampRelativeNanos > 0) {
-            // Note that startTimestampRelativeNanos will be -1 if the user
-            // provided an explicit start timestamp in the SpanBuilder.
-            long durationMicros = (System.nanoTime() - startTimestampRelativeNanos) / 1000;
-            return model.getStartTimeStamp() + durationMicros;
-        } else {
-            return System.currentTimeMillis() * 1000;
-        }
+        long elapsedMicros = (clock.nanoTime() - startNanoTime) / 1000;
+        return Math.max(model.getStartTimeStamp(), clockStartMicros + elapsedMicros);
     }
 
     private long durationMicros(long finishTimeMicros) {
@@ -128,39 +128,27 @@ public class LogSenseSpanBuilder implements Tracer.SpanBuilder {
         }
     }
 
-    private LogSenseSpanContext activeSpanContext() {
-        Scope handle = this.tracer.scopeManager().active();
-        if (handle == null || handle.span() == null) {
-            return null;
-        }
-
-        io.opentracing.SpanContext spanContext = handle.span().context();
-        if(spanContext instanceof LogSenseSpanContext) {
-            return (LogSenseSpanContext) spanContext;
-        }
-
-        return null;
-    }
-
     @Override
     public io.opentracing.Span startManual() {
         if (tracer.isDisabled()) {
             return NoopSpan.INSTANCE;
         }
 
-        long startTimestampRelativeNanos = -1;
+        LogSenseClock clock = tracer.getClock();
+        long startNanoTime = clock.nanoTime();
+        long clockStartMicros = clock.toEpochMicros(startNanoTime);
         if (startTimestampMicros == 0) {
-            startTimestampRelativeNanos = System.nanoTime();
-            startTimestampMicros = System.currentTimeMillis() * 1000;
+            startTimestampMicros = clockStartMicros;
         }
 
-        model.setOperationName(operationName);
+        model.setLimits(tracer.getSpanLimits());
+        model.setOperationName(tracer.getOperationNames().intern(operationName));
         model.setStartTimeStamp(startTimestampMicros);
 
         Long traceId = this.traceId;
 
         if(parent == null && !ignoringActiveSpan) {
-            parent = activeSpanContext();
+            parent = tracer.activeSpanContext();
             this.asChildOf(parent);
         }
 
@@ -168,19 +156,17 @@ public class LogSenseSpanBuilder implements Tracer.SpanBuilder {
             traceId = parent.getTraceId();
         }
 
-        LogSenseSpanContext newSpanContext;
-        if (traceId != null && spanId != null) {
-            newSpanContext = new LogSenseSpanContext(traceId, spanId);
-        } else if (traceId != null) {
-            newSpanContext = new LogSenseSpanContext(traceId);
-        } else {
-            newSpanContext = new LogSenseSpanContext();
-        }
+        // The sampling decision is made once per trace and travels with the context
+        boolean sampledOut = parent != null ? parent.isSampledOut() : !tracer.sample();
+
+        // Children share the parent's baggage as it is now, later writes on either side make new versions
+        LogSenseBaggage baggage = parent != null ? parent.getBaggage() : LogSenseBaggage.empty(tracer.getSpanLimits());
+        LogSenseSpanContext newSpanContext = new LogSenseSpanContext(traceId, spanId, baggage, sampledOut);
 
         // Set the SpanContext of the span
         model.setSpanContext(newSpanContext);
 
-        LogSenseSpan span = new LogSenseSpan(tracer, newSpanContext, model, startTimestampRelativeNanos);
+        LogSenseSpan span = new LogSenseSpan(tracer, newSpanContext, model, clock, startNanoTime, clockStartMicros);
         for (Map.Entry<String, String> pair : stringTags.entrySet()) {
             span.setTag(pair.getKey(), pair.getValue());
         }
@@ -201,6 +187,11 @@ public class LogSenseSpanBuilder implements Tracer.SpanBuilder {
                 model.setFollowFromSpanId(x);
             }
         }
+        // Last, so that the tracer's own work on the span is left out
+        LogSenseThreadUsage threadUsage = tracer.getThreadUsage();
+        if (threadUsage.isEnabled(operationName)) {
+            span.startUsage(threadUsage);
+        }
         return span;
     }
 }
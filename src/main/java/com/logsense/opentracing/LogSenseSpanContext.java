@@ -1,24 +1,23 @@
 package com.logsense.opentracing;
 
 
-import java.util.HashMap;
 import java.util.Map;
-import java.util.Random;
 
 public class LogSenseSpanContext implements io.opentracing.SpanContext {
     private final long traceId;
     private final long spanId;
-    private boolean sampledOut = false;
-    private final Map<String, String> baggage;
-
-    private static Random random;
+    private final boolean sampledOut;
+    /**
+     * Replaced, never changed, by writes; children take the version current when they start
+     */
+    private volatile LogSenseBaggage baggage;
 
     public LogSenseSpanContext() {
         this(Util.generateRandomGUID(), Util.generateRandomGUID());
     }
 
     public LogSenseSpanContext(long traceId, long spanId) {
-        this(traceId, spanId, null);
+        this(traceId, spanId, (Map<String, String>) null);
     }
 
     LogSenseSpanContext(long traceId) {
@@ -30,6 +29,10 @@ public class LogSenseSpanContext implements io.opentracing.SpanContext {
     }
 
     LogSenseSpanContext(Long traceId, Long spanId, Map<String, String> baggage) {
+        this(traceId, spanId, LogSenseBaggage.of(baggage, LogSenseSpanLimits.DEFAULT), false);
+    }
+
+    LogSenseSpanContext(Long traceId, Long spanId, LogSenseBaggage baggage, boolean sampledOut) {
         if (traceId == null) {
             traceId = Util.generateRandomGUID();
         }
@@ -38,13 +41,10 @@ public class LogSenseSpanContext implements io.opentracing.SpanContext {
             spanId = Util.generateRandomGUID();
         }
 
-        if (baggage == null) {
-            baggage = new HashMap<>();
-        }
-
         this.traceId = traceId;
         this.spanId = spanId;
         this.baggage = baggage;
+        this.sampledOut = sampledOut;
     }
 
     @SuppressWarnings("WeakerAccess")
@@ -75,14 +75,34 @@ public class LogSenseSpanContext implements io.opentracing.SpanContext {
         return this.baggage.get(key);
     }
 
+    /**
+     * @return the current baggage version, safe to share with child contexts
+     */
+    public LogSenseBaggage getBaggage() {
+        return baggage;
+    }
+
     @Override
     public Iterable<Map.Entry<String, String>> baggageItems() {
-        return this.baggage.entrySet();
+        return this.baggage;
     }
 
     public void addBaggageItem(String key, String value) {
-        this.baggage.put(key, value);
+        putBaggageItem(key, value);
+    }
+
+    /**
+     * @return false if the item was refused by the baggage limits
+     */
+    synchronized boolean putBaggageItem(String key, String value) {
+        LogSenseBaggage current = this.baggage;
+        LogSenseBaggage updated = current.with(key, value);
+        if (updated == current) {
+            return value == null || value.equals(current.get(key));
+        }
+        this.baggage = updated;
+        return true;
     }
 
 
-}
\ No newline at end of file
+}
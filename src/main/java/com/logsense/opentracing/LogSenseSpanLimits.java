@@ -0,0 +1,79 @@
+package com.logsense.opentracing;
+
+/**
+ * Bounds on what a single span may hold. They are applied when an attribute is added, so a span never holds
+ * more than roughly {@code maxRecordBytes} of tags and log events whatever the instrumentation does.
+ */
+public final class LogSenseSpanLimits {
+    static final LogSenseSpanLimits DEFAULT = new LogSenseSpanLimits(128, 128, 4096, 100, 65536, 64, 8192);
+
+    private final int maxTags;
+    private final int maxKeyLength;
+    private final int maxValueLength;
+    private final int maxLogEvents;
+    private final int maxRecordBytes;
+    private final int maxBaggageEntries;
+    private final int maxBaggageBytes;
+
+    LogSenseSpanLimits(int maxTags, int maxKeyLength, int maxValueLength, int maxLogEvents, int maxRecordBytes,
+                       int maxBaggageEntries, int maxBaggageBytes) {
+        this.maxTags = maxTags;
+        this.maxKeyLength = maxKeyLength;
+        this.maxValueLength = maxValueLength;
+        this.maxLogEvents = maxLogEvents;
+        this.maxRecordBytes = maxRecordBytes;
+        this.maxBaggageEntries = maxBaggageEntries;
+        this.maxBaggageBytes = maxBaggageBytes;
+    }
+
+    static LogSenseSpanLimits from(LogSenseConfig config) {
+        return new LogSenseSpanLimits(config.getMaxTags(), config.getMaxKeyLength(), config.getMaxValueLength(),
+                config.getMaxLogEvents(), config.getMaxRecordBytes(), config.getMaxBaggageEntries(),
+                config.getMaxBaggageBytes());
+    }
+
+    /**
+     * @return how many tags a span keeps; also the number of fields kept per log event
+     */
+    public int getMaxTags() {
+        return maxTags;
+    }
+
+    public int getMaxKeyLength() {
+        return maxKeyLength;
+    }
+
+    public int getMaxValueLength() {
+        return maxValueLength;
+    }
+
+    public int getMaxLogEvents() {
+        return maxLogEvents;
+    }
+
+    /**
+     * @return estimated encoded size of all tags and log events of a span
+     */
+    public int getMaxRecordBytes() {
+        return maxRecordBytes;
+    }
+
+    public int getMaxBaggageEntries() {
+        return maxBaggageEntries;
+    }
+
+    /**
+     * @return UTF-8 size of all baggage keys and values, which bounds the propagation headers
+     */
+    public int getMaxBaggageBytes() {
+        return maxBaggageBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "LogSenseSpanLimits{maxTags=" + maxTags + ", maxKeyLength=" + maxKeyLength
+                + ", maxValueLength=" + maxValueLength + ", maxLogEvents=" + maxLogEvents
+                + ", maxRecordBytes=" + maxRecordBytes + ", maxBaggageEntries=" + maxBaggageEntries
+                + ", maxBaggageBytes=" + maxBaggageBytes + "}";
+    }
+}
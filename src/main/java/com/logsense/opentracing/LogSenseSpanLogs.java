@@ -0,0 +1,94 @@
+package com.logsense.opentracing;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Log events of one span, kept as two parallel arrays: the timestamps and, per event, either the message
+ * string or the fields flattened into a key/value array. Storage grows up to {@code maxEvents}, events beyond
+ * that are only counted.
+ */
+final class LogSenseSpanLogs {
+    static final String KEY_TIMESTAMP = "timestamp_us";
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private final int maxEvents;
+    private long[] timestamps;
+    private Object[] events;
+    private int size;
+    private int dropped;
+
+    LogSenseSpanLogs(int maxEvents) {
+        this.maxEvents = maxEvents;
+    }
+
+    /**
+     * @return whether there is room for one more event
+     */
+    boolean hasRoom() {
+        return size < maxEvents;
+    }
+
+    /**
+     * @param event the message, or the fields as a key/value array; the caller has checked {@link #hasRoom()}
+     */
+    void add(long timestampMicros, Object event) {
+        if (timestamps == null) {
+            int capacity = Math.min(INITIAL_CAPACITY, maxEvents);
+            timestamps = new long[capacity];
+            events = new Object[capacity];
+        } else if (size == timestamps.length) {
+            int capacity = (int) Math.min((long) size * 2, maxEvents);
+            long[] grownTimestamps = new long[capacity];
+            Object[] grownEvents = new Object[capacity];
+            System.arraycopy(timestamps, 0, grownTimestamps, 0, size);
+            System.arraycopy(events, 0, grownEvents, 0, size);
+            timestamps = grownTimestamps;
+            events = grownEvents;
+        }
+        timestamps[size] = timestampMicros;
+        events[size] = event;
+        size++;
+    }
+
+    void countDropped() {
+        dropped++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return number of events that did not fit
+     */
+    int getDropped() {
+        return dropped;
+    }
+
+    /**
+     * @return the events in the shape they are exported in, one map per event
+     */
+    List<Map<String, Object>> toList() {
+        List<Map<String, Object>> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Map<String, Object> event;
+            if (events[i] instanceof String) {
+                event = new HashMap<>(4);
+                event.put(LogSenseSpan.LOG_KEY_MESSAGE, events[i]);
+            } else {
+                Object[] keyValues = (Object[]) events[i];
+                event = new HashMap<>(keyValues.length);
+                for (int k = 0; k < keyValues.length && keyValues[k] != null; k += 2) {
+                    event.put((String) keyValues[k], keyValues[k + 1]);
+                }
+            }
+            event.put(KEY_TIMESTAMP, timestamps[i]);
+            out.add(event);
+        }
+        return out;
+    }
+}
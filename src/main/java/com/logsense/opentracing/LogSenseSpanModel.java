@@ -1,11 +1,15 @@
 package com.logsense.opentracing;
 
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 public class LogSenseSpanModel {
     private long durationMicros;
+    private long cpuTimeMicros = -1;
+    private long allocatedBytes = -1;
     private long startTimeStamp;
     private String operationName;
     private LogSenseSpanContext spanContext;
@@ -17,6 +21,17 @@ public class LogSenseSpanModel {
 
     private Map<String,Object> tagValues = new HashMap<>();
 
+    /**
+     * Space taken by a log event besides its fields: the timestamp and the map header
+     */
+    private static final int LOG_EVENT_OVERHEAD_BYTES = 24;
+
+    private LogSenseSpanLimits limits = LogSenseSpanLimits.DEFAULT;
+    private LogSenseSpanLogs logs;
+    private int recordBytes;
+    private int truncatedAttributes;
+    private int droppedAttributes;
+
     public Map<String, Object> getTagValues() {
         return tagValues;
     }
@@ -46,6 +61,10 @@ public class LogSenseSpanModel {
     }
 
     public void setOperationName(String operationName) {
+        if (operationName != null && operationName.length() > limits.getMaxValueLength()) {
+            truncatedAttributes++;
+            operationName = operationName.substring(0, limits.getMaxValueLength());
+        }
         this.operationName = operationName;
     }
 
@@ -69,20 +88,187 @@ public class LogSenseSpanModel {
         this.durationMicros = durationMicros;
     }
 
+    /**
+     * @return CPU time the thread of the span used while it ran, -1 if not measured
+     */
+    public long getCpuTimeMicros() {
+        return cpuTimeMicros;
+    }
+
+    public void setCpuTimeMicros(long cpuTimeMicros) {
+        this.cpuTimeMicros = cpuTimeMicros;
+    }
+
+    /**
+     * @return bytes the thread of the span allocated while it ran, -1 if not measured
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    public void setAllocatedBytes(long allocatedBytes) {
+        this.allocatedBytes = allocatedBytes;
+    }
+
     public void setTagValue(String key, long value) {
-        this.tagValues.put(key, value);
+        putTag(key, value);
     }
 
     public void setTagValue(String key, String value) {
-        this.tagValues.put(key, value);
+        putTag(key, value);
     }
 
     public void setTagValue(String key, Boolean value) {
-        this.tagValues.put(key, value);
+        putTag(key, value);
     }
 
     public void setTagValue(String key, Double value) {
-        this.tagValues.put(key, value);
+        putTag(key, value);
+    }
+
+    public void setLimits(LogSenseSpanLimits limits) {
+        this.limits = limits;
+    }
+
+    private void putTag(String key, Object value) {
+        key = limitKey(key);
+        value = limitValue(value);
+        Object previous = tagValues.get(key);
+        if (previous == null && tagValues.size() >= limits.getMaxTags()) {
+            droppedAttributes++;
+            return;
+        }
+        int bytes = previous == null ? estimateBytes(key) + estimateBytes(value) : estimateBytes(value) - estimateBytes(previous);
+        if (!reserveBytes(bytes)) {
+            droppedAttributes++;
+            return;
+        }
+        tagValues.put(key, value);
+    }
+
+    public void addLogEvent(long timestampMicros, String message) {
+        LogSenseSpanLogs logs = logs();
+        if (!logs.hasRoom()) {
+            logs.countDropped();
+            return;
+        }
+        message = (String) limitValue(message);
+        if (!reserveBytes(estimateBytes(message) + LOG_EVENT_OVERHEAD_BYTES)) {
+            logs.countDropped();
+            return;
+        }
+        logs.add(timestampMicros, message);
+    }
+
+    public void addLogEvent(long timestampMicros, Map<String, ?> fields) {
+        LogSenseSpanLogs logs = logs();
+        if (!logs.hasRoom()) {
+            logs.countDropped();
+            return;
+        }
+        int fieldCount = Math.min(fields.size(), limits.getMaxTags());
+        Object[] keyValues = new Object[fieldCount * 2];
+        int bytes = LOG_EVENT_OVERHEAD_BYTES;
+        int i = 0;
+        for (Map.Entry<String, ?> kv : fields.entrySet()) {
+            if (kv.getKey() == null) {
+                continue;
+            }
+            if (i == keyValues.length) {
+                droppedAttributes++;
+                continue;
+            }
+            String key = limitKey(kv.getKey());
+            Object value = limitValue(kv.getValue());
+            bytes += estimateBytes(key) + estimateBytes(value);
+            keyValues[i++] = key;
+            keyValues[i++] = value;
+        }
+        if (!reserveBytes(bytes)) {
+            logs.countDropped();
+            return;
+        }
+        logs.add(timestampMicros, keyValues);
+    }
+
+    private LogSenseSpanLogs logs() {
+        // Most spans never log, do not pay for the storage up front
+        if (logs == null) {
+            logs = new LogSenseSpanLogs(limits.getMaxLogEvents());
+        }
+        return logs;
+    }
+
+    private String limitKey(String key) {
+        if (key.length() > limits.getMaxKeyLength()) {
+            truncatedAttributes++;
+            return key.substring(0, limits.getMaxKeyLength());
+        }
+        return key;
+    }
+
+    /**
+     * @return the value in the form it is exported in, strings cut to the value length limit
+     */
+    private Object limitValue(Object value) {
+        if (value == null || value instanceof Boolean || value instanceof Long || value instanceof Double) {
+            return value;
+        }
+        if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return ((Number) value).longValue();
+        }
+        if (value instanceof Float) {
+            return ((Number) value).doubleValue();
+        }
+        String string = value.toString();
+        if (string.length() > limits.getMaxValueLength()) {
+            truncatedAttributes++;
+            return string.substring(0, limits.getMaxValueLength());
+        }
+        return string;
+    }
+
+    private boolean reserveBytes(int bytes) {
+        if (recordBytes + bytes > limits.getMaxRecordBytes()) {
+            return false;
+        }
+        recordBytes += bytes;
+        return true;
+    }
+
+    /**
+     * @return roughly what the value takes once encoded
+     */
+    private static int estimateBytes(Object value) {
+        if (value instanceof String) {
+            return 5 + Util.utf8Length((String) value);
+        }
+        return 9;
+    }
+
+    /**
+     * @return number of keys and values that were cut to the length limits
+     */
+    public int getTruncatedAttributes() {
+        return truncatedAttributes;
+    }
+
+    /**
+     * @return number of tags and log fields that did not fit, dropped log events are counted separately
+     */
+    public int getDroppedAttributes() {
+        return droppedAttributes;
+    }
+
+    /**
+     * @return the log events, one map per event with its timestamp under {@link LogSenseSpanLogs#KEY_TIMESTAMP}
+     */
+    public List<Map<String, Object>> getLogEvents() {
+        return logs == null ? Collections.<Map<String, Object>>emptyList() : logs.toList();
+    }
+
+    public int getDroppedLogEvents() {
+        return logs == null ? 0 : logs.getDropped();
     }
 
     public Map<String,Object> asMap() {
@@ -104,6 +290,12 @@ public class LogSenseSpanModel {
 
         out.put(PREFIX+"operation_name", getOperationName());
         out.put(PREFIX+"duration_us", getDurationMicros());
+        if (cpuTimeMicros >= 0) {
+            out.put(PREFIX+"cpu_us", cpuTimeMicros);
+        }
+        if (allocatedBytes >= 0) {
+            out.put(PREFIX+"allocated_bytes", allocatedBytes);
+        }
         out.put(PREFIX+"trace_id", getSpanContext().getTraceId());
         out.put(PREFIX+"span_id", getSpanContext().getSpanId());
 
@@ -113,6 +305,20 @@ public class LogSenseSpanModel {
         if (followFromSpanId != null) {
             out.put(PREFIX+"follow_from_span_id", followFromSpanId);
         }
+        if (logs != null) {
+            if (logs.size() > 0) {
+                out.put(PREFIX+"logs", logs.toList());
+            }
+            if (logs.getDropped() > 0) {
+                out.put(PREFIX+"logs_dropped", logs.getDropped());
+            }
+        }
+        if (truncatedAttributes > 0) {
+            out.put(PREFIX+"attributes_truncated", truncatedAttributes);
+        }
+        if (droppedAttributes > 0) {
+            out.put(PREFIX+"attributes_dropped", droppedAttributes);
+        }
 
         return out;
     }
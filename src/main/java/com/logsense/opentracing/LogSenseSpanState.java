@@ -0,0 +1,25 @@
+package com.logsense.opentracing;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Lifecycle flag of a span, kept in the span object itself so that it costs no extra allocation. The Java 21
+ * version in {@code META-INF/versions/21} does the same with a {@code VarHandle}.
+ */
+abstract class LogSenseSpanState {
+    private static final AtomicIntegerFieldUpdater<LogSenseSpanState> FINISHED =
+            AtomicIntegerFieldUpdater.newUpdater(LogSenseSpanState.class, "finished");
+
+    private volatile int finished;
+
+    /**
+     * @return true for the one caller that finished the span, false if it was finished already
+     */
+    final boolean markFinished() {
+        return FINISHED.compareAndSet(this, 0, 1);
+    }
+
+    final boolean isFinished() {
+        return finished != 0;
+    }
+}
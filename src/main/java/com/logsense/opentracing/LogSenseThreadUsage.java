@@ -0,0 +1,120 @@
+package com.logsense.opentracing;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.Set;
+import java.util.logging.Logger;
+
+/**
+ * Reads the CPU time and the bytes allocated by the current thread, for the spans of the operations it is turned on
+ * for. Both readings are -1 where the JVM does not offer them, which includes virtual threads.
+ */
+final class LogSenseThreadUsage {
+    private static final Logger log = Logger.getLogger(LogSenseThreadUsage.class.getName());
+
+    /**
+     * Operation name that turns sampling on for all operations
+     */
+    static final String ALL_OPERATIONS = "*";
+
+    static final LogSenseThreadUsage NONE = new LogSenseThreadUsage(Collections.<String>emptySet());
+
+    private final Set<String> operations;
+    private final boolean allOperations;
+    private final ThreadMXBean cpuTime;
+    private final com.sun.management.ThreadMXBean allocatedBytes;
+
+    LogSenseThreadUsage(Set<String> operations) {
+        this.operations = operations;
+        this.allOperations = operations.contains(ALL_OPERATIONS);
+        if (operations.isEmpty()) {
+            cpuTime = null;
+            allocatedBytes = null;
+            return;
+        }
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        cpuTime = enableCpuTime(threads) ? threads : null;
+        allocatedBytes = enableAllocatedBytes(threads);
+        if (cpuTime == null) {
+            log.warning("This JVM does not measure the CPU time of threads, spans go without it");
+        }
+        if (allocatedBytes == null) {
+            log.warning("This JVM does not measure the bytes allocated by threads, spans go without them");
+        }
+    }
+
+    static LogSenseThreadUsage from(LogSenseConfig config) {
+        Set<String> operations = config.getUsageOperations();
+        return operations.isEmpty() ? NONE : new LogSenseThreadUsage(operations);
+    }
+
+    private static boolean enableCpuTime(ThreadMXBean threads) {
+        if (!threads.isCurrentThreadCpuTimeSupported()) {
+            return false;
+        }
+        try {
+            if (!threads.isThreadCpuTimeEnabled()) {
+                threads.setThreadCpuTimeEnabled(true);
+            }
+            return true;
+        } catch (UnsupportedOperationException | SecurityException e) {
+            return false;
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean enableAllocatedBytes(ThreadMXBean threads) {
+        try {
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+                return null;
+            }
+            com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+            if (!allocations.isThreadAllocatedMemorySupported()) {
+                return null;
+            }
+            if (!allocations.isThreadAllocatedMemoryEnabled()) {
+                allocations.setThreadAllocatedMemoryEnabled(true);
+            }
+            return allocations;
+        } catch (UnsupportedOperationException | SecurityException | LinkageError e) {
+            // Not a HotSpot derived JVM
+            return null;
+        }
+    }
+
+    /**
+     * @return whether spans of this operation are sampled; cheap when sampling is off
+     */
+    boolean isEnabled(String operationName) {
+        return !operations.isEmpty() && (allOperations || operations.contains(operationName));
+    }
+
+    /**
+     * @return CPU time the current thread used so far in nanoseconds, -1 if unknown
+     */
+    long cpuNanos() {
+        return cpuTime == null ? -1 : cpuTime.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * @param threadId id of the current thread
+     * @return bytes the thread allocated so far, -1 if unknown
+     */
+    long allocatedBytes(long threadId) {
+        return allocatedBytes == null ? -1 : allocatedBytes.getThreadAllocatedBytes(threadId);
+    }
+
+    boolean isCpuTimeSupported() {
+        return cpuTime != null;
+    }
+
+    boolean isAllocatedBytesSupported() {
+        return allocatedBytes != null;
+    }
+
+    @Override
+    public String toString() {
+        return "LogSenseThreadUsage{operations=" + operations + ", cpuTime=" + (cpuTime != null)
+                + ", allocatedBytes=" + (allocatedBytes != null) + "}";
+    }
+}
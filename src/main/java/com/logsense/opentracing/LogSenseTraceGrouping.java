@@ -0,0 +1,82 @@
+package com.logsense.opentracing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the spans of one drain cycle into one record per trace. Fields with the same value in every span of
+ * the trace (token, service, host, trace id, most baggage) are written once; the rest of each span goes into
+ * the {@value #KEY_SPANS} array together with its start time.
+ */
+final class LogSenseTraceGrouping {
+    static final String KEY_TYPE = "_type";
+    static final String KEY_TRACE_ID = "ot.trace_id";
+    static final String KEY_SPANS = "ot.spans";
+    static final String KEY_START = "ot.start_us";
+    static final String TYPE_GROUP = "trace_group";
+
+    private LogSenseTraceGrouping() {
+    }
+
+    /**
+     * @param maxSpansPerRecord larger traces are split over several records
+     * @return the records to send, in the order the traces first appeared; traces with a single span stay as they are
+     */
+    static List<LogSenseTracer.FluentDataFacade> group(Collection<LogSenseTracer.FluentDataFacade> spans, int maxSpansPerRecord) {
+        Map<Object, List<LogSenseTracer.FluentDataFacade>> traces = new LinkedHashMap<>();
+        for (LogSenseTracer.FluentDataFacade span : spans) {
+            Object traceId = span.data.get(KEY_TRACE_ID);
+            List<LogSenseTracer.FluentDataFacade> trace = traces.get(traceId);
+            if (trace == null) {
+                trace = new ArrayList<>();
+                traces.put(traceId, trace);
+            }
+            trace.add(span);
+        }
+
+        List<LogSenseTracer.FluentDataFacade> records = new ArrayList<>(traces.size());
+        for (List<LogSenseTracer.FluentDataFacade> trace : traces.values()) {
+            for (int from = 0; from < trace.size(); from += maxSpansPerRecord) {
+                List<LogSenseTracer.FluentDataFacade> part = trace.subList(from, Math.min(trace.size(), from + maxSpansPerRecord));
+                records.add(part.size() == 1 ? part.get(0) : groupTrace(part));
+            }
+        }
+        return records;
+    }
+
+    private static LogSenseTracer.FluentDataFacade groupTrace(List<LogSenseTracer.FluentDataFacade> trace) {
+        Map<String, Object> shared = new HashMap<>(trace.get(0).data);
+        long timestampMicros = Long.MAX_VALUE;
+        for (LogSenseTracer.FluentDataFacade span : trace) {
+            timestampMicros = Math.min(timestampMicros, span.timestampMicros);
+            Iterator<Map.Entry<String, Object>> it = shared.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Object> entry = it.next();
+                Object value = span.data.get(entry.getKey());
+                if (value == null || !value.equals(entry.getValue())) {
+                    it.remove();
+                }
+            }
+        }
+
+        List<Map<String, Object>> spans = new ArrayList<>(trace.size());
+        for (LogSenseTracer.FluentDataFacade span : trace) {
+            Map<String, Object> own = new HashMap<>(span.data.size() - shared.size() + 2);
+            for (Map.Entry<String, Object> entry : span.data.entrySet()) {
+                if (!shared.containsKey(entry.getKey()) && !KEY_TYPE.equals(entry.getKey())) {
+                    own.put(entry.getKey(), entry.getValue());
+                }
+            }
+            own.put(KEY_START, span.timestampMicros);
+            spans.add(own);
+        }
+        shared.put(KEY_TYPE, TYPE_GROUP);
+        shared.put(KEY_SPANS, spans);
+        return new LogSenseTracer.FluentDataFacade(timestampMicros, shared, trace.size());
+    }
+}
@@ -4,15 +4,15 @@ import io.opentracing.*;
 import io.opentracing.propagation.Format;
 import io.opentracing.propagation.TextMap;
 import io.opentracing.util.ThreadLocalScopeManager;
-import org.komamitsu.fluency.EventTime;
-import org.komamitsu.fluency.Fluency;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
 import java.util.*;
-import java.util.logging.Level;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 
@@ -27,15 +27,50 @@ public class LogSenseTracer implements Tracer, Closeable {
 
     public static final Logger logger = Logger.getLogger(LogSenseTracer.class.getName());
 
-    private ScopeManager scopeManager = new ThreadLocalScopeManager();
-
-    private FluentEmitter emitter;
-    private Thread emitterThread;
+    /**
+     * Tracers to close when the JVM exits. One hook serves all of them, so a closed tracer does not stay
+     * reachable from the hook.
+     */
+    private static final Set<LogSenseTracer> openTracers = Collections.newSetFromMap(new ConcurrentHashMap<LogSenseTracer, Boolean>());
+    private static final AtomicBoolean shutdownHookAdded = new AtomicBoolean();
+
+    private ScopeManager scopeManager;
+
+    /**
+     * Null until the tracer started in the background; spans finished before wait in {@link #pending}
+     */
+    private volatile LogSenseTransport.Tenant tenant;
+    private final Deque<LogSenseSpanModel> pending = new ArrayDeque<>();
+    private final CountDownLatch started = new CountDownLatch(1);
+    /**
+     * Set when the tracer closed without waiting for its start, the start then undoes itself; guarded by pending
+     */
+    private boolean abandoned;
     private Boolean enabled = false;
 
     private final LogSenseConfig config;
+    private final Properties overrides;
+    /**
+     * Given to the constructor, null to use the one configured
+     */
+    private final LogSenseExporter exporter;
+    private volatile LogSenseRuntimeSettings settings;
+    private LogSenseSpanLimits spanLimits;
+    private LogSenseNameTable operationNames;
+    private LogSenseNameTable tagKeys;
+    private LogSenseThreadUsage threadUsage;
+    private LogSenseBackpressure backpressure;
+    private volatile LogSenseClock clock;
+    private final AtomicLong truncatedAttributes = new AtomicLong();
+    private final AtomicLong droppedAttributes = new AtomicLong();
+    private final AtomicLong droppedLogEvents = new AtomicLong();
+    private final AtomicLong droppedBaggageItems = new AtomicLong();
+    private LogSenseControl control;
+    private final AtomicBoolean closed = new AtomicBoolean();
 
     public LogSenseTracer() {
+        overrides = null;
+        exporter = null;
         config = LogSenseConfig.get();
         prepareFluentEmitter();
     }
@@ -43,6 +78,8 @@ public class LogSenseTracer implements Tracer, Closeable {
     public LogSenseTracer(String customerToken) {
         Properties prop = new Properties();
         prop.setProperty(LogSenseConfig.CUSTOMER_TOKEN.getPropertyName(), customerToken);
+        overrides = prop;
+        exporter = null;
         config = LogSenseConfig.get(prop);
         prepareFluentEmitter();
     }
@@ -52,169 +89,364 @@ public class LogSenseTracer implements Tracer, Closeable {
         prop.setProperty(LogSenseConfig.CUSTOMER_TOKEN.getPropertyName(), customerToken);
         prop.setProperty(LogSenseConfig.HOST.getPropertyName(), host);
         prop.setProperty(LogSenseConfig.PORT.getPropertyName(), Integer.toString(port));
+        overrides = prop;
+        exporter = null;
+        config = LogSenseConfig.get(prop);
+        prepareFluentEmitter();
+    }
+
+    /**
+     * Hands the spans to the given exporter instead of the configured one, e.g. a {@link LogSenseRingExporter} to
+     * measure the tracer without the network. Tracers given the same exporter share its queue; it is closed with
+     * the last of them.
+     */
+    public LogSenseTracer(String customerToken, LogSenseExporter exporter) {
+        if (exporter == null) {
+            throw new IllegalArgumentException("Exporter must not be null");
+        }
+        Properties prop = new Properties();
+        prop.setProperty(LogSenseConfig.CUSTOMER_TOKEN.getPropertyName(), customerToken);
+        overrides = prop;
+        this.exporter = exporter;
         config = LogSenseConfig.get(prop);
         prepareFluentEmitter();
     }
 
     private void prepareFluentEmitter() {
+        settings = LogSenseRuntimeSettings.from(config);
+        spanLimits = LogSenseSpanLimits.from(config);
+        operationNames = new LogSenseNameTable("operation names", config.getMaxOperationNames());
+        tagKeys = new LogSenseNameTable("tag keys", config.getMaxTagKeys());
+        threadUsage = LogSenseThreadUsage.from(config);
+        backpressure = LogSenseBackpressure.from(config);
+        scopeManager = config.isThreadLocalScopeManagerEnabled() ? new ThreadLocalScopeManager() : new LogSenseScopeManager();
+        clock = config.isCoarseClockEnabled()
+                ? new LogSenseCoarseClock(config.getClockCoarseTickMillis(), config.getClockResyncIntervalMillis(), false)
+                : new LogSensePreciseClock(config.getClockResyncIntervalMillis(), false);
+
         if (config.getCustomerToken() != null && !config.getCustomerToken().isEmpty()) {
             logger.info("Enabling LogSense Tracer");
             this.enabled = true;
         } else {
             logger.info("Disabling LogSense Tracer as no "+LogSenseConfig.CUSTOMER_TOKEN.toString() + " is provided");
+            started.countDown();
             return;
         }
 
-        emitter = new FluentEmitter(config.getCustomerToken(), config.getHost(), config.getPort(), config.getServiceName());
-
-        Runtime.getRuntime().addShutdownHook(new Thread() {
+        control = new LogSenseControl(this);
+        closeOnExit(this);
+        LogSenseBackground.execute(new Runnable() {
             @Override
             public void run() {
-                LogSenseTracer.this.close();
+                start();
             }
         });
+    }
 
-        emitterThread = new Thread(emitter);
-        emitterThread.setDaemon(true);
-        emitterThread.start();
+    /**
+     * Calibrates the clock, attaches to the transport and watches the configuration, none of which the
+     * constructor should wait for
+     */
+    private void start() {
+        try {
+            calibrate(clock);
+            LogSenseTransport.Tenant attached = LogSenseTransport.attach(this, control);
+            boolean undo;
+            synchronized (pending) {
+                for (LogSenseSpanModel spanModel : pending) {
+                    attached.emit(spanModel);
+                }
+                pending.clear();
+                tenant = attached;
+                undo = abandoned;
+            }
+            if (undo) {
+                attached.detach(System.nanoTime());
+            } else {
+                LogSenseConfigWatcher.register(this);
+            }
+        } finally {
+            started.countDown();
+        }
+    }
+
+    private static void calibrate(LogSenseClock clock) {
+        if (clock instanceof LogSensePreciseClock) {
+            ((LogSensePreciseClock) clock).calibrate();
+        } else if (clock instanceof LogSenseCoarseClock) {
+            ((LogSenseCoarseClock) clock).calibrate();
+        }
+    }
+
+    /**
+     * @return whether the tracer started before the deadline
+     */
+    boolean awaitStarted(long deadlineNanos) throws InterruptedException {
+        return started.await(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private static void closeOnExit(LogSenseTracer tracer) {
+        openTracers.add(tracer);
+        if (shutdownHookAdded.compareAndSet(false, true)) {
+            Runtime.getRuntime().addShutdownHook(new Thread("logsense-shutdown") {
+                @Override
+                public void run() {
+                    // Every tracer drains at the same time, so exit waits for the longest timeout rather than their sum
+                    long startNanos = System.nanoTime();
+                    LogSenseTransport.stopAll(startNanos);
+                    for (LogSenseTracer openTracer : openTracers) {
+                        openTracer.close(startNanos);
+                    }
+                }
+            });
+        }
+    }
+
+    LogSenseConfig getConfig() {
+        return config;
+    }
+
+    LogSenseExporter getExporter() {
+        return exporter;
     }
 
     public boolean isDisabled() {
-        return !enabled;
+        return !enabled || !settings.isEnabled();
     }
 
     void addSpan(LogSenseSpanModel spanModel) {
-        if (enabled) {
-            emitter.emit(spanModel.getStartTimeStamp(), spanModel.asMap());
+        if (isDisabled()) {
+            return;
+        }
+        LogSenseTransport.Tenant current = tenant;
+        if (current == null) {
+            synchronized (pending) {
+                current = tenant;
+                if (current == null) {
+                    if (pending.size() < config.getQueueSize()) {
+                        pending.add(spanModel);
+                    } else {
+                        backpressure.countDropped();
+                    }
+                    return;
+                }
+            }
         }
+        current.emit(spanModel);
     }
 
-    private static class FluentDataFacade {
-        private static final String LOGSENSE_TOKEN_KEY = "cs_customer_token";
-        private static final String LOGSENSE_SERVICENAME_KEY = "ot.service.name";
-        private static final String LOGSENSE_HOSTNAME_KEY = "ot.service.host";
+    public LogSenseClock getClock() {
+        return clock;
+    }
 
-        FluentDataFacade(long timestampMicros, String customerToken, String serviceName, String hostName, Map<String,Object> data) {
-            Map<String, Object> allData = new HashMap<>(data);
-            allData.put(LOGSENSE_TOKEN_KEY, customerToken);
-            if (serviceName != null && !serviceName.isEmpty()) {
-                allData.put(LOGSENSE_SERVICENAME_KEY, serviceName);
-            }
-            if (hostName != null && !hostName.isEmpty()) {
-                allData.put(LOGSENSE_HOSTNAME_KEY, hostName);
+    /**
+     * Replaces the clock new spans are timed with, spans already started keep the one they started with.
+     * The previous clock is closed if it is {@link Closeable}.
+     */
+    public void setClock(LogSenseClock clock) {
+        if (clock == null) {
+            throw new IllegalArgumentException("Clock must not be null");
+        }
+        closeClock(this.clock);
+        this.clock = clock;
+    }
+
+    private static void closeClock(LogSenseClock clock) {
+        if (clock instanceof Closeable) {
+            try {
+                ((Closeable) clock).close();
+            } catch (IOException e) {
+                logger.warning("Failed to close clock: " + e);
             }
-            this.data = allData;
-            this.timestampMicros = timestampMicros;
         }
+    }
 
-        final long timestampMicros;
-        final Map<String,Object> data;
+    /**
+     * @return the policy applied when the span queue is full, with its counters; listeners can be added to it
+     */
+    public LogSenseBackpressure getBackpressure() {
+        return backpressure;
     }
 
-    private class FluentEmitter implements Runnable {
-        private static final int SLEEP_MILLIS = 500;
+    /**
+     * @return whether a new trace should be recorded, taking the sampling rate and saturation into account
+     */
+    boolean sample() {
+        return settings.sample(backpressure.getSamplingFactor());
+    }
+
+    LogSenseSpanLimits getSpanLimits() {
+        return spanLimits;
+    }
 
-        private String logsense_token;
-        private String host;
-        private int port;
-        private String serviceName;
-        private String hostName;
+    /**
+     * @return the operation names of the spans started so far, bounded by {@code logsense.operation.names.max}
+     */
+    public LogSenseNameTable getOperationNames() {
+        return operationNames;
+    }
 
-        private Fluency fluency;
-        private List<FluentDataFacade> buffer;
-        private boolean connected = false;
-        private boolean stopped = false;
+    /**
+     * @return the tag keys set so far, bounded by {@code logsense.tag.keys.max}
+     */
+    public LogSenseNameTable getTagKeys() {
+        return tagKeys;
+    }
 
-        public FluentEmitter(String token, String host, int port, String serviceName) {
-            this.logsense_token = token;
-            this.host = host;
-            this.port = port;
-            this.buffer = new ArrayList<>();
-            this.serviceName = serviceName;
+    LogSenseThreadUsage getThreadUsage() {
+        return threadUsage;
+    }
 
-            try {
-                this.hostName = InetAddress.getLocalHost().getHostName();
-            } catch (UnknownHostException e) {
-                this.hostName = null;
-            }
+    /**
+     * Adds what the limits cut from a finished span to the tracer-wide counters
+     */
+    void countLimited(LogSenseSpanModel spanModel) {
+        if (spanModel.getTruncatedAttributes() > 0) {
+            truncatedAttributes.addAndGet(spanModel.getTruncatedAttributes());
         }
+        if (spanModel.getDroppedAttributes() > 0) {
+            droppedAttributes.addAndGet(spanModel.getDroppedAttributes());
+        }
+        if (spanModel.getDroppedLogEvents() > 0) {
+            droppedLogEvents.addAndGet(spanModel.getDroppedLogEvents());
+        }
+    }
 
-        public void emit(final long timestamp, final Map<String,Object> data) {
-            if (logger.isLoggable(Level.FINER)) {
-                logger.finer("Emitting data package: "+Arrays.toString(data.entrySet().toArray()));
-            }
+    void countDroppedBaggageItem() {
+        droppedBaggageItems.incrementAndGet();
+    }
 
-            synchronized (buffer) {
-                buffer.add(new FluentDataFacade(timestamp, logsense_token, serviceName, hostName, data));
-            }
-        }
+    long getDroppedBaggageItemCount() {
+        return droppedBaggageItems.get();
+    }
 
-        private void connect() {
-            if (connected)
-                return;
+    long getTruncatedAttributeCount() {
+        return truncatedAttributes.get();
+    }
+
+    long getDroppedAttributeCount() {
+        return droppedAttributes.get();
+    }
+
+    long getDroppedLogEventCount() {
+        return droppedLogEvents.get();
+    }
 
-            LogSenseFluencyBuilder builder = new LogSenseFluencyBuilder();
-            this.fluency = builder.build(this.host, this.port);
-            logger.info("LogSense tracing connected to "+this.host+":"+this.port);
-            connected = true;
+    /**
+     * @return the current runtime settings; cheap enough to call on every span
+     */
+    LogSenseRuntimeSettings getSettings() {
+        return settings;
+    }
+
+    void setSettings(LogSenseRuntimeSettings settings) {
+        this.settings = settings;
+        if (tenant != null) {
+            tenant.setSettings(settings);
         }
+    }
 
+    /**
+     * Picks up runtime settings from the current configuration. Settings that require a new connection are
+     * only reported, they take effect after a restart.
+     */
+    void reloadSettings() {
+        LogSenseConfig reloaded = LogSenseConfig.get(overrides);
+        if (!equal(reloaded.getCustomerToken(), config.getCustomerToken())
+                || !equal(reloaded.getHost(), config.getHost())
+                || reloaded.getPort() != config.getPort()
+                || !reloaded.getEndpoints().equals(config.getEndpoints())) {
+            logger.warning("LogSense token or endpoint changed, this requires a restart to take effect");
+        }
+        if (control != null) {
+            control.apply(LogSenseRuntimeSettings.from(reloaded));
+        } else {
+            setSettings(LogSenseRuntimeSettings.from(reloaded));
+        }
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
 
-        public void stop() {
-            logger.info("LogSense tracing emitter is being stopped");
+    /**
+     * @return the runtime control of this tracer, null if the tracer is disabled
+     */
+    public LogSenseControlMBean getControl() {
+        return control;
+    }
 
-            this.stopped = true;
-            if (fluency != null) {
-                try {
-                    fluency.close();
-                    connected = false;
-                } catch (IOException e) {
-                    // skip
-                }
-            }
+    void flush() {
+        if (tenant != null) {
+            tenant.flush();
         }
+    }
 
-        @Override
-        public void run() {
-            while (!Thread.interrupted() && !stopped) {
-                try {
-                    Thread.sleep(SLEEP_MILLIS);
+    int getQueuedSpanCount() {
+        LogSenseTransport.Tenant current = tenant;
+        if (current != null) {
+            return current.getQueuedCount();
+        }
+        synchronized (pending) {
+            return tenant == null ? pending.size() : tenant.getQueuedCount();
+        }
+    }
 
-                    connect();
+    static class FluentDataFacade {
+        private static final String LOGSENSE_TOKEN_KEY = "cs_customer_token";
+        private static final String LOGSENSE_SERVICENAME_KEY = "ot.service.name";
+        private static final String LOGSENSE_HOSTNAME_KEY = "ot.service.host";
 
-                    List<FluentDataFacade> bufferCopy = new ArrayList<>();
-                    synchronized (buffer) {
-                        if (!buffer.isEmpty()) {
-                            bufferCopy.addAll(buffer);
-                            buffer.clear();
-                        }
-                    }
+        /**
+         * Keeps trace-grouped records of very large traces at a size the endpoint accepts
+         */
+        private static final int MAX_SPANS_PER_GROUPED_RECORD = 256;
 
-                    IOException lastException = null;
-                    for (FluentDataFacade event : bufferCopy) {
-                        try {
-                            int timestampSeconds = (int) (event.timestampMicros/1000000L);
-                            int timestampMicrosecondRemainder = (int) (event.timestampMicros%1000000);
-                            EventTime time = new EventTime(timestampSeconds, timestampMicrosecondRemainder*1000);
-                            fluency.emit("ot", time, event.data);
-                        } catch (IOException ioe) {
-                            lastException = ioe;
-                            connected = false;
-                            // pass silently?
-                        }
-                    }
+        /**
+         * @param data the record, taken over rather than copied
+         */
+        FluentDataFacade(long timestampMicros, String customerToken, String serviceName, String hostName, Map<String,Object> data) {
+            data.put(LOGSENSE_TOKEN_KEY, customerToken);
+            if (serviceName != null && !serviceName.isEmpty()) {
+                data.put(LOGSENSE_SERVICENAME_KEY, serviceName);
+            }
+            if (hostName != null && !hostName.isEmpty()) {
+                data.put(LOGSENSE_HOSTNAME_KEY, hostName);
+            }
+            this.data = data;
+            this.timestampMicros = timestampMicros;
+            this.spanCount = 1;
+        }
 
-                    if (!connected && lastException != null) {
-                        // Something went wrong, lets log it somehow
-                        lastException.printStackTrace();
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
+        FluentDataFacade(long timestampMicros, Map<String,Object> data, int spanCount) {
+            this.timestampMicros = timestampMicros;
+            this.data = data;
+            this.spanCount = spanCount;
+        }
+
+        /**
+         * @param grouped whether to put spans of the same trace into one record, see {@link LogSenseTraceGrouping}
+         * @return the records sent for the spans
+         */
+        static List<FluentDataFacade> records(LogSenseResource resource, List<LogSenseSpanModel> spans, boolean grouped) {
+            List<FluentDataFacade> records = new ArrayList<>(spans.size());
+            for (LogSenseSpanModel span : spans) {
+                records.add(new FluentDataFacade(span.getStartTimeStamp(), resource.getCustomerToken(),
+                        resource.getServiceName(), resource.getHostName(), span.asMap()));
+            }
+            if (grouped && records.size() > 1) {
+                return LogSenseTraceGrouping.group(records, MAX_SPANS_PER_GROUPED_RECORD);
             }
+            return records;
         }
-    }
 
+        final long timestampMicros;
+        final Map<String,Object> data;
+        /**
+         * Number of spans in the record, more than one for a trace-grouped record
+         */
+        final int spanCount;
+    }
 
     @Override
     public ScopeManager scopeManager() {
@@ -223,8 +455,21 @@ public class LogSenseTracer implements Tracer, Closeable {
 
     @Override
     public Span activeSpan() {
-        Scope scope = scopeManager.active();
-        return scope == null ? null : scope.span();
+        return scopeManager.activeSpan();
+    }
+
+    /**
+     * @return context of the active span if it is a LogSense one, null otherwise
+     */
+    LogSenseSpanContext activeSpanContext() {
+        if (scopeManager instanceof LogSenseScopeManager) {
+            return ((LogSenseScopeManager) scopeManager).activeContext();
+        }
+        Span span = scopeManager.activeSpan();
+        if (span != null && span.context() instanceof LogSenseSpanContext) {
+            return (LogSenseSpanContext) span.context();
+        }
+        return null;
     }
 
 
@@ -233,9 +478,65 @@ public class LogSenseTracer implements Tracer, Closeable {
         return scopeManager().activate(span);
     }
 
+    /**
+     * Sends the queued spans, waiting for them to be sent for up to the shutdown timeout; what is still left
+     * at that point is reported and dropped
+     */
     @Override
     public void close() {
-        emitter.stop();
+        close(System.nanoTime());
+    }
+
+    /**
+     * @param startNanos when closing began, the shutdown timeout counts from there
+     */
+    void close(long startNanos) {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        long deadlineNanos = startNanos + TimeUnit.MILLISECONDS.toNanos(config.getShutdownTimeoutMillis());
+        LogSenseTransport.Tenant current = awaitTenant(deadlineNanos);
+        LogSenseConfigWatcher.unregister(this);
+        openTracers.remove(this);
+        closeClock(clock);
+        if (current != null) {
+            current.detach(deadlineNanos);
+        } else if (control != null) {
+            control.unregister();
+        }
+    }
+
+    /**
+     * @return the tenant once the tracer started, null if it did not start before the deadline or is disabled
+     */
+    private LogSenseTransport.Tenant awaitTenant(long deadlineNanos) {
+        try {
+            awaitStarted(deadlineNanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (pending) {
+            if (tenant == null && control != null) {
+                logger.warning("LogSense tracer closed before it started, dropping " + pending.size() + " spans");
+                abandoned = true;
+                pending.clear();
+            }
+            return tenant;
+        }
+    }
+
+    /**
+     * @return spans that were queued when the tracer closed and could not be handed over before the deadline
+     */
+    int getSpansLostOnClose() {
+        return tenant == null ? 0 : tenant.getSpansLostOnClose();
+    }
+
+    /**
+     * @return size of the spans handed over to Fluency that it had not sent when the tracer closed
+     */
+    long getBytesUnsentOnClose() {
+        return tenant == null ? 0 : tenant.getBytesUnsentOnClose();
     }
 
     @Override
@@ -255,7 +556,7 @@ public class LogSenseTracer implements Tracer, Closeable {
 
             tm.put(FIELD_NAME_TRACE_ID, Util.toHexString(logSenseSpanContext.getTraceId()));
             tm.put(FIELD_NAME_SPAN_ID, Util.toHexString(logSenseSpanContext.getSpanId()));
-            tm.put(FIELD_NAME_SAMPLED, "true");
+            tm.put(FIELD_NAME_SAMPLED, logSenseSpanContext.isSampledOut() ? "false" : "true");
             for (Map.Entry<String, String> e : spanContext.baggageItems()) {
                 tm.put(PREFIX_BAGGAGE + e.getKey(), e.getValue());
             }
@@ -267,7 +568,8 @@ public class LogSenseTracer implements Tracer, Closeable {
     private LogSenseSpanContext extract(TextMap carrier) {
         Long traceId = null;
         Long spanId = null;
-        Map<String, String> baggage = new HashMap<>();
+        boolean sampledOut = false;
+        LogSenseBaggage baggage = LogSenseBaggage.empty(spanLimits);
 
         for (Map.Entry<String, String> entry : carrier) {
             String key = entry.getKey().toLowerCase(english);
@@ -280,8 +582,18 @@ public class LogSenseTracer implements Tracer, Closeable {
                 spanId = Util.fromHexString(entry.getValue());
             }
 
+            if (FIELD_NAME_SAMPLED.equals(key)) {
+                sampledOut = "false".equalsIgnoreCase(entry.getValue());
+            }
+
             if (key.startsWith(PREFIX_BAGGAGE)) {
-                baggage.put(key.substring(PREFIX_BAGGAGE.length()), entry.getValue());
+                String itemKey = key.substring(PREFIX_BAGGAGE.length());
+                LogSenseBaggage updated = baggage.with(itemKey, entry.getValue());
+                // The same instance also comes back for a value already held, e.g. from a repeated header
+                if (updated == baggage && entry.getValue() != null && !entry.getValue().equals(baggage.get(itemKey))) {
+                    droppedBaggageItems.incrementAndGet();
+                }
+                baggage = updated;
             }
         }
 
@@ -289,7 +601,7 @@ public class LogSenseTracer implements Tracer, Closeable {
             return null;
         }
 
-        return new LogSenseSpanContext(traceId, spanId, baggage);
+        return new LogSenseSpanContext(traceId, spanId, baggage, sampledOut);
     }
 
     @Override
@@ -0,0 +1,604 @@
+package com.logsense.opentracing;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The span queue, emitter thread and exporter for one endpoint, shared by every tracer in the JVM that sends to the
+ * same host and port (or list of endpoints, segment file directory, or was given the same exporter). Each tracer attaches as a
+ * {@link Tenant}, its spans are exported with its own {@link LogSenseResource}. The exporter is set up from the
+ * configuration of the tracer that opened the transport, runtime settings changed on any of the tracers apply to
+ * the shared queue.
+ *
+ * While the queue is at least half full, a tenant holding its fair share of it (the queue size divided by the number
+ * of tenants) or more has further spans dropped, so that one busy tenant cannot starve the others.
+ */
+final class LogSenseTransport implements Runnable {
+    private static final Logger logger = Logger.getLogger(LogSenseTransport.class.getName());
+
+    /**
+     * Open transports by endpoint, or by exporter for tracers given one, guarded by the class lock
+     */
+    private static final Map<Object, LogSenseTransport> transports = new HashMap<>();
+
+    private final Object key;
+    private final LogSenseConfig config;
+    private final List<Tenant> tenants = new CopyOnWriteArrayList<>();
+    /**
+     * Tenants whose MBean the emitter thread still has to register
+     */
+    private final Queue<Tenant> starting = new ConcurrentLinkedQueue<>();
+    private final Thread thread;
+    private volatile LogSenseRuntimeSettings settings;
+    private String hostName;
+
+    private final LogSenseExporter exporter;
+    /**
+     * Guards the buffer. A lock rather than a monitor, so that waiting on a virtual thread does not pin
+     * its carrier.
+     */
+    private final ReentrantLock bufferLock = new ReentrantLock();
+    private final Condition bufferReady = bufferLock.newCondition();
+    private final Condition spaceAvailable = bufferLock.newCondition();
+    private ArrayDeque<Queued> buffer = new ArrayDeque<>();
+    private volatile boolean stopped = false;
+    private int queueDropped = 0;
+    /**
+     * Threads waiting for room in the buffer under the block policy, the drain does not wait while there are any
+     */
+    private int waitingForSpace = 0;
+    private volatile boolean flushRequested = false;
+    private volatile long stopDeadlineNanos;
+    private volatile int sentOnStop;
+    private volatile int lostOnStop;
+    /**
+     * Spans taken from the queue and not handed over to the exporter yet, lost if closing times out meanwhile
+     */
+    private volatile int inFlight;
+    private volatile long unsentBytesOnStop;
+
+    private LogSenseTransport(Object key, LogSenseConfig config, LogSenseRuntimeSettings settings, LogSenseExporter exporter) {
+        this.key = key;
+        this.config = config;
+        this.settings = settings;
+        this.exporter = exporter;
+        this.thread = LogSensePlatform.newEmitterThread(this, "logsense-emitter", config.isVirtualThreadsEnabled());
+    }
+
+    /**
+     * Attaches a tracer to the transport for its endpoint, opening one if there is none yet. Host name lookup,
+     * MBean registration and the connection are left to the emitter thread, spans queue up meanwhile.
+     */
+    static Tenant attach(LogSenseTracer tracer, LogSenseControl control) {
+        LogSenseConfig config = tracer.getConfig();
+        Object key = tracer.getExporter() != null ? tracer.getExporter() : endpoint(config);
+        LogSenseTransport transport;
+        Tenant tenant;
+        boolean opened = false;
+        synchronized (LogSenseTransport.class) {
+            transport = transports.get(key);
+            if (transport == null) {
+                transport = new LogSenseTransport(key, config, tracer.getSettings(), exporter(tracer));
+                transports.put(key, transport);
+                opened = true;
+            }
+            tenant = transport.new Tenant(tracer, control);
+            transport.tenants.add(tenant);
+        }
+        transport.starting.add(tenant);
+        if (opened) {
+            transport.thread.start();
+        } else {
+            transport.wakeUp(false);
+        }
+        return tenant;
+    }
+
+    /**
+     * Stops every transport, their queues drain in parallel until each one's shutdown timeout after {@code startNanos}
+     */
+    static void stopAll(long startNanos) {
+        List<LogSenseTransport> open;
+        synchronized (LogSenseTransport.class) {
+            open = new ArrayList<>(transports.values());
+        }
+        for (LogSenseTransport transport : open) {
+            transport.stop(startNanos + TimeUnit.MILLISECONDS.toNanos(transport.config.getShutdownTimeoutMillis()));
+        }
+    }
+
+    /**
+     * @return what tracers share a transport for: the host and port, or the directory of the segment files
+     */
+    private static String endpoint(LogSenseConfig config) {
+        if (config.isFileExporterEnabled()) {
+            return "file:" + Paths.get(config.getFileDirectory()).toAbsolutePath().normalize();
+        }
+        if (config.getEndpoints().size() > 1) {
+            return config.getEndpoints().toString();
+        }
+        return config.getHost() + ":" + config.getPort();
+    }
+
+    private static LogSenseExporter exporter(LogSenseTracer tracer) {
+        if (tracer.getExporter() != null) {
+            return tracer.getExporter();
+        }
+        LogSenseConfig config = tracer.getConfig();
+        return config.isFileExporterEnabled() ? new LogSenseFileExporter(config) : new LogSenseFluencyExporter(config);
+    }
+
+    static synchronized int getOpenCount() {
+        return transports.size();
+    }
+
+    /**
+     * A span in the queue, with the tenant it was queued for
+     */
+    private static final class Queued {
+        final LogSenseSpanModel span;
+        final Tenant tenant;
+
+        Queued(LogSenseSpanModel span, Tenant tenant) {
+            this.span = span;
+            this.tenant = tenant;
+        }
+    }
+
+    /**
+     * One tracer's share of a transport, with the resource its spans are exported with
+     */
+    final class Tenant {
+        private final String token;
+        private final String serviceName;
+        private final LogSenseBackpressure backpressure;
+        private final LogSenseControl control;
+        /**
+         * Created on the emitter thread once the host name is known
+         */
+        private LogSenseResource resource;
+        /**
+         * Spans of this tenant in the buffer, guarded by the buffer lock
+         */
+        private int queued;
+        private volatile int spansLostOnClose;
+        private volatile long bytesUnsentOnClose;
+
+        private Tenant(LogSenseTracer tracer, LogSenseControl control) {
+            LogSenseConfig tenantConfig = tracer.getConfig();
+            this.token = tenantConfig.getCustomerToken();
+            this.serviceName = tenantConfig.getServiceName();
+            this.backpressure = tracer.getBackpressure();
+            this.control = control;
+        }
+
+        void emit(LogSenseSpanModel span) {
+            if (logger.isLoggable(Level.FINER)) {
+                logger.finer("Emitting span: " + span);
+            }
+
+            Queued event = new Queued(span, this);
+            LogSenseRuntimeSettings current = settings;
+            bufferLock.lock();
+            try {
+                if (isOverShare(current.getQueueSize())) {
+                    dropSpan(this);
+                    return;
+                }
+                if (buffer.size() >= current.getQueueSize() && !makeRoom(this, current)) {
+                    return;
+                }
+                buffer.add(event);
+                queued++;
+                if (buffer.size() == current.getFlushThreshold()) {
+                    bufferReady.signal();
+                }
+            } finally {
+                bufferLock.unlock();
+            }
+        }
+
+        private boolean isOverShare(int queueSize) {
+            int tenantCount = tenants.size();
+            return tenantCount > 1 && buffer.size() >= queueSize / 2 && queued >= Math.max(1, queueSize / tenantCount);
+        }
+
+        void flush() {
+            wakeUp(true);
+        }
+
+        void setSettings(LogSenseRuntimeSettings settings) {
+            LogSenseTransport.this.settings = settings;
+            wakeUp(false);
+        }
+
+        int getQueuedCount() {
+            bufferLock.lock();
+            try {
+                return queued;
+            } finally {
+                bufferLock.unlock();
+            }
+        }
+
+        /**
+         * Detaches the tenant. The last one stops the transport, sending what is queued until the deadline;
+         * otherwise the tenant's spans are handed over and the transport keeps running for the others.
+         */
+        void detach(long deadlineNanos) {
+            boolean last;
+            synchronized (LogSenseTransport.class) {
+                tenants.remove(this);
+                last = tenants.isEmpty();
+                if (last && transports.get(key) == LogSenseTransport.this) {
+                    transports.remove(key);
+                }
+            }
+            control.unregister();
+            if (last) {
+                stop(deadlineNanos);
+                awaitStopped(this, deadlineNanos);
+            } else {
+                awaitHandedOver(this, deadlineNanos);
+            }
+        }
+
+        /**
+         * @return spans of this tenant that were queued when it detached and could not be handed over in time
+         */
+        int getSpansLostOnClose() {
+            return spansLostOnClose;
+        }
+
+        /**
+         * @return size of the spans handed over to Fluency that it had not sent when the transport stopped
+         */
+        long getBytesUnsentOnClose() {
+            return bytesUnsentOnClose;
+        }
+    }
+
+    /**
+     * Applies the backpressure policy of the tenant to a full queue, with the buffer lock held
+     *
+     * @return whether the new span may be queued
+     */
+    private boolean makeRoom(Tenant tenant, LogSenseRuntimeSettings current) {
+        LogSenseBackpressure backpressure = tenant.backpressure;
+        backpressure.onFull(current.getQueueSize());
+        switch (backpressure.getPolicy()) {
+            case DROP_OLDEST:
+                dropOldest(tenant);
+                return true;
+            case BLOCK:
+                backpressure.countBlocked();
+                long remainingNanos = TimeUnit.MILLISECONDS.toNanos(backpressure.getBlockTimeoutMillis());
+                waitingForSpace++;
+                try {
+                    while (buffer.size() >= settings.getQueueSize() && !stopped && remainingNanos > 0) {
+                        // No point in waiting for the drain interval
+                        bufferReady.signal();
+                        remainingNanos = spaceAvailable.awaitNanos(remainingNanos);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    waitingForSpace--;
+                }
+                if (buffer.size() < settings.getQueueSize() && !stopped) {
+                    return true;
+                }
+                dropSpan(tenant);
+                return false;
+            default:
+                dropSpan(tenant);
+                return false;
+        }
+    }
+
+    /**
+     * Drops the oldest span of the tenant, or the oldest one at all if it has none queued
+     */
+    private void dropOldest(Tenant tenant) {
+        Queued dropped = null;
+        if (tenant.queued > 0) {
+            for (Iterator<Queued> it = buffer.iterator(); it.hasNext(); ) {
+                Queued event = it.next();
+                if (event.tenant == tenant) {
+                    it.remove();
+                    dropped = event;
+                    break;
+                }
+            }
+        } else {
+            dropped = buffer.pollFirst();
+        }
+        if (dropped != null) {
+            dropped.tenant.queued--;
+        }
+        dropSpan(tenant);
+    }
+
+    private void dropSpan(Tenant tenant) {
+        queueDropped++;
+        tenant.backpressure.countDropped();
+    }
+
+    void wakeUp(boolean flush) {
+        bufferLock.lock();
+        try {
+            if (flush) {
+                flushRequested = true;
+            }
+            bufferReady.signal();
+            if (stopped) {
+                spaceAvailable.signalAll();
+            }
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    int getQueuedCount() {
+        bufferLock.lock();
+        try {
+            return buffer.size();
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    /**
+     * Runs on the emitter thread, a misconfigured resolver can take seconds to answer
+     */
+    private void resolveHostName() {
+        try {
+            this.hostName = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            this.hostName = null;
+        }
+    }
+
+    private void registerStartingTenants() {
+        Tenant tenant;
+        while ((tenant = starting.poll()) != null) {
+            tenant.control.register(tenant.serviceName);
+        }
+    }
+
+    /**
+     * Makes the emitter thread send what is queued and exit, it gives up on the spans at the deadline
+     */
+    private void stop(long deadlineNanos) {
+        if (stopped) {
+            return;
+        }
+        logger.info("LogSense tracing emitter is being stopped");
+        this.stopDeadlineNanos = deadlineNanos;
+        this.stopped = true;
+        wakeUp(false);
+    }
+
+    private void awaitStopped(Tenant tenant, long deadlineNanos) {
+        long startNanos = System.nanoTime();
+        try {
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadlineNanos - startNanos);
+            thread.join(Math.max(1, remainingMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        int stillQueued = 0;
+        if (thread.isAlive()) {
+            // Past the deadline, whatever the emitter is stuck on must not keep the caller waiting
+            thread.interrupt();
+            stillQueued = getQueuedCount();
+        }
+        tenant.spansLostOnClose = lostOnStop + inFlight + stillQueued;
+        tenant.bytesUnsentOnClose = unsentBytesOnStop;
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        if (tenant.spansLostOnClose > 0 || tenant.bytesUnsentOnClose > 0) {
+            logger.warning("LogSense transport to " + key + " closed after " + elapsedMillis + " ms, " + sentOnStop
+                    + " queued spans handed over, " + tenant.spansLostOnClose + " spans lost and "
+                    + tenant.bytesUnsentOnClose + " bytes not sent within the shutdown timeout");
+        } else {
+            logger.info("LogSense transport to " + key + " closed after " + elapsedMillis + " ms, " + sentOnStop
+                    + " queued spans sent");
+        }
+    }
+
+    /**
+     * Waits until the emitter has taken the tenant's spans from the queue, the transport stays open for the others
+     */
+    private void awaitHandedOver(Tenant tenant, long deadlineNanos) {
+        wakeUp(true);
+        bufferLock.lock();
+        try {
+            long remainingNanos = deadlineNanos - System.nanoTime();
+            while (tenant.queued > 0 && !stopped && remainingNanos > 0) {
+                remainingNanos = spaceAvailable.awaitNanos(remainingNanos);
+            }
+            if (tenant.queued > 0) {
+                logger.warning("LogSense tracer detached with " + tenant.queued
+                        + " spans still queued, the shared transport to " + key + " sends them later");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    /**
+     * Exports what is still queued when the transport stops and waits for the exporter to write it out, or have
+     * it acknowledged in ack mode, until the deadline
+     */
+    private void drainOnStop() {
+        Collection<Queued> remaining = takeQueued();
+        int failed = export(remaining);
+        sentOnStop += remaining.size() - failed;
+        lostOnStop += failed;
+
+        try {
+            exporter.flush();
+            while (exporter.getBufferedBytes() > 0 && System.nanoTime() - stopDeadlineNanos < 0) {
+                Thread.sleep(10);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.FINE, "Flushing LogSense spans on close failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        unsentBytesOnStop = exporter.getBufferedBytes();
+        try {
+            exporter.close();
+        } catch (IOException | RuntimeException e) {
+            logger.log(Level.WARNING, "Closing the LogSense exporter failed", e);
+        }
+    }
+
+    /**
+     * Swaps the buffer for an empty one, emit() fills the fresh one meanwhile
+     */
+    private Collection<Queued> takeQueued() {
+        bufferLock.lock();
+        try {
+            if (buffer.isEmpty()) {
+                return Collections.emptyList();
+            }
+            Collection<Queued> taken = buffer;
+            buffer = new ArrayDeque<>();
+            // Through the spans rather than the tenants, a detaching tenant waits for its count to reach zero
+            for (Queued event : taken) {
+                event.tenant.queued = 0;
+            }
+            inFlight = taken.size();
+            return taken;
+        } finally {
+            bufferLock.unlock();
+        }
+    }
+
+    /**
+     * Hands the spans to the exporter, one call per tenant in the order their first spans were queued
+     *
+     * @return number of spans the exporter failed to take
+     */
+    private int export(Collection<Queued> events) {
+        if (events.isEmpty()) {
+            return 0;
+        }
+        Map<Tenant, List<LogSenseSpanModel>> batches = new LinkedHashMap<>();
+        for (Queued event : events) {
+            List<LogSenseSpanModel> batch = batches.get(event.tenant);
+            if (batch == null) {
+                batch = new ArrayList<>(batches.isEmpty() ? events.size() : 16);
+                batches.put(event.tenant, batch);
+            }
+            batch.add(event.span);
+        }
+
+        int failed = 0;
+        Exception lastFailure = null;
+        for (Map.Entry<Tenant, List<LogSenseSpanModel>> batch : batches.entrySet()) {
+            List<LogSenseSpanModel> spans = batch.getValue();
+            try {
+                exporter.export(resource(batch.getKey()), spans);
+            } catch (IOException | RuntimeException e) {
+                failed += spans.size();
+                lastFailure = e;
+            }
+            // Only once the exporter returns, one stuck connecting past the shutdown deadline loses them
+            inFlight -= spans.size();
+        }
+        if (lastFailure != null) {
+            logger.warning("Exporting " + failed + " LogSense spans failed: " + lastFailure);
+        }
+        return failed;
+    }
+
+    private LogSenseResource resource(Tenant tenant) {
+        if (tenant.resource == null) {
+            tenant.resource = new LogSenseResource(tenant.token, tenant.serviceName, hostName);
+        }
+        return tenant.resource;
+    }
+
+    @Override
+    public void run() {
+        try {
+            loop();
+        } finally {
+            drainOnStop();
+        }
+    }
+
+    private void loop() {
+        resolveHostName();
+
+        while (!Thread.interrupted() && !stopped) {
+            registerStartingTenants();
+            try {
+                LogSenseRuntimeSettings current = settings;
+                Collection<Queued> bufferCopy;
+                int dropped;
+                bufferLock.lock();
+                try {
+                    if (!flushRequested && !stopped && waitingForSpace == 0 && starting.isEmpty()
+                            && buffer.size() < current.getFlushThreshold()) {
+                        bufferReady.await(current.getQueueDrainIntervalMillis(), TimeUnit.MILLISECONDS);
+                    }
+                    if (stopped) {
+                        // drainOnStop() takes it from here, counting what it cannot send
+                        break;
+                    }
+                    bufferCopy = takeQueued();
+                    for (Tenant tenant : tenants) {
+                        tenant.backpressure.onDrained(bufferCopy.size(), current.getQueueSize());
+                    }
+                    spaceAvailable.signalAll();
+                    dropped = queueDropped;
+                    queueDropped = 0;
+                } finally {
+                    bufferLock.unlock();
+                }
+
+                // Exporters connect with the first spans, not before there is something to send
+                dropped += export(bufferCopy);
+
+                if (dropped > 0) {
+                    logger.warning("LogSense tracing queue or buffer is full, dropped " + dropped + " spans");
+                }
+
+                if (flushRequested) {
+                    flushRequested = false;
+                    try {
+                        exporter.flush();
+                    } catch (IOException | RuntimeException e) {
+                        logger.warning("Flushing LogSense spans failed: " + e);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -16,4 +16,14 @@ public class Util {
     static String toHexString(long l) {
         return Long.toHexString(l);
     }
+
+    static int utf8Length(String s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            // A surrogate pair takes 4 bytes, 2 per char
+            bytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+        }
+        return bytes;
+    }
 }
\ No newline at end of file
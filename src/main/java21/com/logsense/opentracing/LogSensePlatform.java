@@ -0,0 +1,24 @@
+package com.logsense.opentracing;
+
+/**
+ * Java 21 version of the platform hooks, see the Java 8 one for the contract.
+ */
+final class LogSensePlatform {
+    private LogSensePlatform() {
+    }
+
+    static boolean hasVirtualThreads() {
+        return true;
+    }
+
+    /**
+     * The emitter spends nearly all of its time waiting for spans or for the endpoint, a virtual thread does
+     * that without holding a platform thread. Virtual threads are always daemon threads.
+     */
+    static Thread newEmitterThread(Runnable emitter, String name, boolean preferVirtual) {
+        if (preferVirtual) {
+            return Thread.ofVirtual().name(name).unstarted(emitter);
+        }
+        return Thread.ofPlatform().name(name).daemon(true).unstarted(emitter);
+    }
+}
@@ -0,0 +1,31 @@
+package com.logsense.opentracing;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Java 21 version of the span lifecycle flag. A {@code VarHandle} has none of the per-call access checks of a
+ * field updater and lets readers use acquire instead of full volatile semantics.
+ */
+abstract class LogSenseSpanState {
+    private static final VarHandle FINISHED;
+
+    static {
+        try {
+            FINISHED = MethodHandles.lookup().findVarHandle(LogSenseSpanState.class, "finished", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    @SuppressWarnings("unused")
+    private int finished;
+
+    final boolean markFinished() {
+        return FINISHED.compareAndSet(this, 0, 1);
+    }
+
+    final boolean isFinished() {
+        return (int) FINISHED.getAcquire(this) != 0;
+    }
+}
@@ -0,0 +1,260 @@
+package com.logsense.opentracing;
+
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessagePacker;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ArrayValue;
+import org.msgpack.value.MapValue;
+import org.msgpack.value.Value;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Minimal TLS forward-protocol endpoint, answering acks when asked to
+ */
+class FakeFluentdServer implements Closeable {
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private final boolean ackEnabled;
+    private final List<Value> messages = new CopyOnWriteArrayList<>();
+    private final List<Socket> clients = new CopyOnWriteArrayList<>();
+    private final AtomicInteger events = new AtomicInteger();
+    private final List<HeldAck> heldAcks = new ArrayList<>();
+    private final AtomicInteger acksToDrop = new AtomicInteger();
+    private volatile boolean holdingAcks;
+
+    private volatile SSLServerSocket serverSocket;
+
+    FakeFluentdServer(boolean ackEnabled) {
+        this.ackEnabled = ackEnabled;
+    }
+
+    static SSLContext sslContext() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream is = FakeFluentdServer.class.getResourceAsStream("/test-keystore.p12")) {
+            keyStore.load(is, PASSWORD);
+        }
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(keyStore, PASSWORD);
+        TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        tmf.init(keyStore);
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
+        return context;
+    }
+
+    FakeFluentdServer start() throws Exception {
+        return start(0);
+    }
+
+    FakeFluentdServer start(int port) throws Exception {
+        serverSocket = (SSLServerSocket) sslContext().getServerSocketFactory()
+                .createServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "fake-fluentd-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return this;
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    List<Value> getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return the record of every event received, for entries sent in packed forward mode
+     */
+    List<Value> getRecords() {
+        List<Value> records = new ArrayList<>();
+        for (Value message : messages) {
+            Value entries = message.asArrayValue().get(1);
+            if (!entries.isRawValue()) {
+                continue;
+            }
+            try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(entries.asRawValue().asByteArray())) {
+                while (unpacker.hasNext()) {
+                    records.add(unpacker.unpackValue().asArrayValue().get(1));
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return records;
+    }
+
+    int getEventCount() {
+        return events.get();
+    }
+
+    private void accept() {
+        SSLServerSocket server = serverSocket;
+        while (!server.isClosed()) {
+            try {
+                final Socket client = server.accept();
+                clients.add(client);
+                Thread handler = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        handle(client);
+                    }
+                }, "fake-fluentd-client");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket client) {
+        try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(client.getInputStream())) {
+            OutputStream out = client.getOutputStream();
+            while (unpacker.hasNext()) {
+                Value message = unpacker.unpackValue();
+                messages.add(message);
+                ArrayValue array = message.asArrayValue();
+                events.addAndGet(countEvents(array.get(1)));
+
+                if (ackEnabled && array.size() > 2) {
+                    Value chunk = findChunk(array.get(2).asMapValue());
+                    if (chunk != null) {
+                        String token = new String(chunk.asRawValue().asByteArray(), "UTF-8");
+                        if (acksToDrop.getAndDecrement() > 0) {
+                            continue;
+                        }
+                        acksToDrop.set(0);
+                        synchronized (heldAcks) {
+                            if (holdingAcks) {
+                                heldAcks.add(new HeldAck(out, token));
+                                continue;
+                            }
+                        }
+                        ack(out, token);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            // Client went away
+        } finally {
+            clients.remove(client);
+        }
+    }
+
+    private static void ack(OutputStream out, String token) throws IOException {
+        synchronized (out) {
+            MessagePacker packer = MessagePack.newDefaultPacker(out);
+            packer.packMapHeader(1);
+            packer.packString("ack");
+            packer.packString(token);
+            packer.flush();
+        }
+    }
+
+    private static class HeldAck {
+        final OutputStream out;
+        final String token;
+
+        HeldAck(OutputStream out, String token) {
+            this.out = out;
+            this.token = token;
+        }
+    }
+
+    /**
+     * Keeps the acks of the chunks received from now on until {@link #releaseAcks()}
+     */
+    void holdAcks() {
+        synchronized (heldAcks) {
+            holdingAcks = true;
+        }
+    }
+
+    /**
+     * Sends the held acks, newest first, and acks at once again
+     */
+    void releaseAcks() throws IOException {
+        synchronized (heldAcks) {
+            holdingAcks = false;
+            for (int i = heldAcks.size() - 1; i >= 0; i--) {
+                ack(heldAcks.get(i).out, heldAcks.get(i).token);
+            }
+            heldAcks.clear();
+        }
+    }
+
+    /**
+     * @return clients currently connected
+     */
+    int getConnectionCount() {
+        return clients.size();
+    }
+
+    /**
+     * Closes the connection of the client that connected first, leaving the others and the listener alone
+     */
+    void dropOldestConnection() throws IOException {
+        clients.get(0).close();
+    }
+
+    /**
+     * Never acks the next {@code count} chunks
+     */
+    void dropAcks(int count) {
+        acksToDrop.set(count);
+    }
+
+    private static Value findChunk(MapValue option) {
+        for (Map.Entry<Value, Value> entry : option.entrySet()) {
+            if ("chunk".equals(entry.getKey().asStringValue().asString())) {
+                return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    private static int countEvents(Value entries) throws IOException {
+        if (entries.isArrayValue()) {
+            return entries.asArrayValue().size();
+        }
+        int count = 0;
+        try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(entries.asRawValue().asByteArray())) {
+            while (unpacker.hasNext()) {
+                unpacker.skipValue();
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        for (Socket client : clients) {
+            client.close();
+        }
+    }
+}
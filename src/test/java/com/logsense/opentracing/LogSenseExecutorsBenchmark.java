@@ -0,0 +1,64 @@
+package com.logsense.opentracing;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Measures what a traced executor hop costs on top of a plain one. The executor runs tasks on the calling
+ * thread so that only the capture and restore of the span is measured. Run with
+ * {@code mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=com.logsense.opentracing.LogSenseExecutorsBenchmark}.
+ */
+public class LogSenseExecutorsBenchmark {
+    private static final int WARMUP = 5000000;
+    private static final int ITERATIONS = 20000000;
+
+    private static long sink;
+
+    public static void main(String[] args) {
+        LogSenseTracer tracer = new LogSenseTracer("benchmark");
+        Executor direct = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        Executor traced = LogSenseExecutors.executor(tracer, direct);
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                sink++;
+            }
+        };
+        Runnable untracedTask = LogSenseExecutors.untraced(task);
+
+        Span span = tracer.buildSpan("benchmark").start();
+        Scope scope = tracer.activateSpan(span);
+        try {
+            for (int round = 0; round < 3; round++) {
+                report("plain", run(direct, task));
+                report("traced", run(traced, task));
+                report("traced, opted out", run(traced, untracedTask));
+            }
+        } finally {
+            scope.close();
+            tracer.close();
+        }
+    }
+
+    private static double run(Executor executor, Runnable task) {
+        for (int i = 0; i < WARMUP; i++) {
+            executor.execute(task);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            executor.execute(task);
+        }
+        return (System.nanoTime() - start) / (double) ITERATIONS;
+    }
+
+    private static void report(String name, double nanosPerHop) {
+        System.out.println(String.format("%-20s %6.1f ns/hop", name, nanosPerHop));
+    }
+}
@@ -0,0 +1,224 @@
+package com.logsense.opentracing;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMapAdapter;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Guards what the tracer allocates on the application thread, measured with
+ * {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)} against the budgets in
+ * {@code allocation-budgets.properties}, where {@code <scenario>.java<version>} overrides the budget of a scenario
+ * on that Java version. A change that allocates more must either be fixed or raise the budget in the same commit.
+ * Each scenario is measured a few times after a warm-up and the lowest result counts, so that JIT compilation and
+ * the occasional background allocation do not make it flaky.
+ */
+public class TestLogSenseAllocation {
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 20000;
+    private static final int ROUNDS = 3;
+
+    private static com.sun.management.ThreadMXBean threads;
+    private static Properties budgets;
+    private static LogSenseTracer tracer;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private interface Operation {
+        void run(int iteration) throws Exception;
+    }
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Allocation measurement needs com.sun.management.ThreadMXBean",
+                bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        budgets = new Properties();
+        try (InputStream in = TestLogSenseAllocation.class.getResourceAsStream("/allocation-budgets.properties")) {
+            budgets.load(in);
+        }
+        tracer = new LogSenseTracer("allocation", new LogSenseRingExporter(1024));
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        if (tracer != null) {
+            tracer.close();
+        }
+    }
+
+    /**
+     * @return bytes allocated per operation, the lowest of {@link #ROUNDS} measurements
+     */
+    private static long measure(Operation operation) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            operation.run(i);
+        }
+        long lowest = Long.MAX_VALUE;
+        long threadId = Thread.currentThread().getId();
+        for (int round = 0; round < ROUNDS; round++) {
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < ITERATIONS; i++) {
+                operation.run(i);
+            }
+            long after = threads.getThreadAllocatedBytes(threadId);
+            lowest = Math.min(lowest, (after - before) / ITERATIONS);
+        }
+        return lowest;
+    }
+
+    private static String javaVersion() {
+        String version = System.getProperty("java.specification.version");
+        return version.startsWith("1.") ? version.substring(2) : version;
+    }
+
+    private static void assertWithinBudget(String scenario, Operation operation) throws Exception {
+        String budget = budgets.getProperty(scenario + ".java" + javaVersion(), budgets.getProperty(scenario));
+        assertTrue("No allocation budget for " + scenario, budget != null);
+        long bytes = measure(operation);
+        long limit = Long.parseLong(budget.trim());
+        assertTrue(scenario + " allocates " + bytes + " bytes per operation on Java " + javaVersion()
+                + ", over its budget of " + limit, bytes <= limit);
+    }
+
+    private static Operation startAndFinish(final int tagCount) {
+        final String[] keys = new String[tagCount];
+        for (int i = 0; i < tagCount; i++) {
+            keys[i] = "tag-" + i;
+        }
+        return new Operation() {
+            @Override
+            public void run(int iteration) {
+                LogSenseSpanBuilder builder = (LogSenseSpanBuilder) tracer.buildSpan("operation");
+                for (String key : keys) {
+                    builder.withTag(key, iteration);
+                }
+                builder.start().finish();
+            }
+        };
+    }
+
+    @Test
+    public void testSpanWithoutTags() throws Exception {
+        assertWithinBudget("span.tags.0", startAndFinish(0));
+    }
+
+    @Test
+    public void testSpanWithFourTags() throws Exception {
+        assertWithinBudget("span.tags.4", startAndFinish(4));
+    }
+
+    @Test
+    public void testSpanWithSixteenTags() throws Exception {
+        assertWithinBudget("span.tags.16", startAndFinish(16));
+    }
+
+    @Test
+    public void testInject() throws Exception {
+        final SpanContext context = tracer.buildSpan("parent").start().context();
+        final Map<String, String> carrier = new HashMap<>();
+        final TextMapAdapter adapter = new TextMapAdapter(carrier);
+        assertWithinBudget("propagation.inject", new Operation() {
+            @Override
+            public void run(int iteration) {
+                carrier.clear();
+                tracer.inject(context, Format.Builtin.TEXT_MAP, adapter);
+            }
+        });
+    }
+
+    @Test
+    public void testExtract() throws Exception {
+        Span parent = tracer.buildSpan("parent").start();
+        final Map<String, String> carrier = new HashMap<>();
+        tracer.inject(parent.context(), Format.Builtin.TEXT_MAP, new TextMapAdapter(carrier));
+        final TextMapAdapter adapter = new TextMapAdapter(carrier);
+        assertWithinBudget("propagation.extract", new Operation() {
+            @Override
+            public void run(int iteration) {
+                tracer.extract(Format.Builtin.TEXT_MAP, adapter);
+            }
+        });
+    }
+
+    private static List<LogSenseSpanModel> finishedSpans(int count) {
+        LogSenseRingExporter ring = new LogSenseRingExporter(count);
+        LogSenseTracer source = new LogSenseTracer("allocation", ring);
+        try {
+            for (int i = 0; i < count; i++) {
+                source.buildSpan("operation").withTag("http.status_code", 200).withTag("component", "test").start().finish();
+            }
+            source.flush();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (ring.getExportedCount() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            source.close();
+        }
+        List<LogSenseSpanModel> spans = new ArrayList<>();
+        LogSenseSpanModel span;
+        while ((span = ring.poll()) != null) {
+            spans.add(span);
+        }
+        assertEquals(count, spans.size());
+        return spans;
+    }
+
+    @Test
+    public void testRecordBuilding() throws Exception {
+        final List<LogSenseSpanModel> spans = finishedSpans(100);
+        final LogSenseResource resource = new LogSenseResource("allocation", "service", "host");
+        final List<LogSenseSpanModel> single = new ArrayList<>();
+        assertWithinBudget("export.record", new Operation() {
+            @Override
+            public void run(int iteration) {
+                single.clear();
+                single.add(spans.get(iteration % spans.size()));
+                LogSenseTracer.FluentDataFacade.records(resource, single, false);
+            }
+        });
+    }
+
+    @Test
+    public void testEncoding() throws Exception {
+        final List<LogSenseSpanModel> spans = finishedSpans(100);
+        final Map<String, Object> record = spans.get(0).asMap();
+        final LogSenseSegmentWriter writer = new LogSenseSegmentWriter(folder.getRoot().toPath(), 64 << 20, 2);
+        try {
+            assertWithinBudget("export.encode", new Operation() {
+                @Override
+                public void run(int iteration) throws Exception {
+                    writer.append("ot", iteration, record);
+                }
+            });
+        } finally {
+            writer.close();
+        }
+    }
+}
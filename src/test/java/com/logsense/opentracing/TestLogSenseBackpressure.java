@@ -0,0 +1,90 @@
+package com.logsense.opentracing;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogSenseBackpressure {
+    private static final String[] PROPERTIES = {
+            LogSenseConfig.QUEUE_SIZE.getPropertyName(),
+            LogSenseConfig.QUEUE_DRAIN_INTERVAL_MILLIS.getPropertyName(),
+            LogSenseConfig.BACKPRESSURE_POLICY.getPropertyName(),
+            LogSenseConfig.BACKPRESSURE_BLOCK_TIMEOUT_MILLIS.getPropertyName()
+    };
+
+    private LogSenseTracer tracer;
+
+    private LogSenseTracer tracer(String policy) throws InterruptedException {
+        System.setProperty(LogSenseConfig.QUEUE_SIZE.getPropertyName(), "2");
+        // Only a full queue under the block policy wakes the emitter up
+        System.setProperty(LogSenseConfig.QUEUE_DRAIN_INTERVAL_MILLIS.getPropertyName(), "60000");
+        System.setProperty(LogSenseConfig.BACKPRESSURE_POLICY.getPropertyName(), policy);
+        System.setProperty(LogSenseConfig.BACKPRESSURE_BLOCK_TIMEOUT_MILLIS.getPropertyName(), "5000");
+        LogSenseConfig.reload();
+        tracer = new LogSenseTracer("foo-bar");
+        // The policy applies to the queue of the transport, which the tracer attaches to once started
+        assertTrue(tracer.awaitStarted(System.nanoTime() + TimeUnit.SECONDS.toNanos(5)));
+        return tracer;
+    }
+
+    @After
+    public void tearDown() {
+        if (tracer != null) {
+            tracer.close();
+        }
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+        LogSenseConfig.reload();
+    }
+
+    private static void finishSpans(LogSenseTracer tracer, int count) {
+        for (int i = 0; i < count; i++) {
+            tracer.buildSpan("op-" + i).start().finish();
+        }
+    }
+
+    @Test
+    public void testDropOldestKeepsQueueBounded() throws InterruptedException {
+        LogSenseTracer tracer = tracer("drop-oldest");
+        final AtomicInteger saturations = new AtomicInteger();
+        tracer.getBackpressure().addListener(new LogSenseBackpressure.Listener() {
+            @Override
+            public void onSaturated(LogSenseBackpressure.Policy policy, int queueSize) {
+                assertEquals(LogSenseBackpressure.Policy.DROP_OLDEST, policy);
+                saturations.incrementAndGet();
+            }
+        });
+
+        finishSpans(tracer, 5);
+
+        assertEquals(2, tracer.getQueuedSpanCount());
+        assertEquals(3, tracer.getBackpressure().getDroppedCount());
+        assertEquals("Notified once per saturation", 1, saturations.get());
+    }
+
+    @Test
+    public void testBlockWaitsForTheEmitter() throws InterruptedException {
+        LogSenseTracer tracer = tracer("block");
+
+        finishSpans(tracer, 5);
+
+        assertEquals(0, tracer.getBackpressure().getDroppedCount());
+        assertTrue(tracer.getBackpressure().getBlockedCount() >= 1);
+    }
+
+    @Test
+    public void testDegradeLowersSampling() throws InterruptedException {
+        LogSenseTracer tracer = tracer("degrade-sampling");
+
+        finishSpans(tracer, 3);
+
+        assertEquals(1, tracer.getBackpressure().getDroppedCount());
+        assertEquals(0.5, tracer.getBackpressure().getSamplingFactor(), 0.0);
+    }
+}
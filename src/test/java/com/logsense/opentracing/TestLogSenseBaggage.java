@@ -0,0 +1,128 @@
+package com.logsense.opentracing;
+
+import io.opentracing.Span;
+import io.opentracing.SpanContext;
+import io.opentracing.propagation.Format;
+import io.opentracing.propagation.TextMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestLogSenseBaggage {
+    private LogSenseTracer tracer;
+
+    @Before
+    public void setUp() {
+        tracer = new LogSenseTracer("foo-bar");
+    }
+
+    @After
+    public void tearDown() {
+        tracer.close();
+    }
+
+    private static Map<String, String> asMap(Iterable<Map.Entry<String, String>> items) {
+        Map<String, String> map = new HashMap<>();
+        for (Map.Entry<String, String> item : items) {
+            assertNull("Each key appears once", map.put(item.getKey(), item.getValue()));
+        }
+        return map;
+    }
+
+    @Test
+    public void testChildSharesParentBaggage() {
+        Span parent = tracer.buildSpan("parent").start();
+        parent.setBaggageItem("tenant", "acme");
+        Span child = tracer.buildSpan("child").asChildOf(parent).start();
+
+        LogSenseSpanContext parentContext = (LogSenseSpanContext) parent.context();
+        LogSenseSpanContext childContext = (LogSenseSpanContext) child.context();
+        assertSame(parentContext.getBaggage(), childContext.getBaggage());
+        assertEquals("acme", child.getBaggageItem("tenant"));
+
+        child.setBaggageItem("user", "42");
+        parent.setBaggageItem("tenant", "other");
+        assertNull(parent.getBaggageItem("user"));
+        assertEquals("acme", child.getBaggageItem("tenant"));
+        assertEquals(2, asMap(child.context().baggageItems()).size());
+    }
+
+    @Test
+    public void testNewerValuesShadowOlderOnes() {
+        LogSenseBaggage baggage = LogSenseBaggage.empty(LogSenseSpanLimits.DEFAULT);
+        for (int i = 0; i < 100; i++) {
+            baggage = baggage.with("counter", Integer.toString(i)).with("fixed", "x");
+        }
+        assertEquals(2, baggage.size());
+        assertEquals("99", baggage.get("counter"));
+        Map<String, String> items = asMap(baggage);
+        assertEquals("99", items.get("counter"));
+        assertEquals("x", items.get("fixed"));
+        assertEquals(Util.utf8Length("counter99fixedx"), baggage.getBytes());
+    }
+
+    @Test
+    public void testLimitsRefuseWrites() {
+        LogSenseSpanLimits limits = new LogSenseSpanLimits(128, 128, 4096, 100, 65536, 2, 20);
+        LogSenseBaggage baggage = LogSenseBaggage.empty(limits).with("a", "1").with("b", "2");
+        assertSame(baggage, baggage.with("c", "3"));
+        assertSame(baggage, baggage.with("a", "a value longer than the byte limit"));
+        assertEquals("3", baggage.with("a", "3").get("a"));
+
+        LogSenseSpanContext context = new LogSenseSpanContext(1L, 2L, baggage, false);
+        assertFalse(context.putBaggageItem("c", "3"));
+    }
+
+    private static TextMap headers(final String... keyValues) {
+        return new TextMap() {
+            @Override
+            public Iterator<Map.Entry<String, String>> iterator() {
+                List<Map.Entry<String, String>> entries = new ArrayList<>();
+                for (int i = 0; i < keyValues.length; i += 2) {
+                    entries.add(new AbstractMap.SimpleImmutableEntry<>(keyValues[i], keyValues[i + 1]));
+                }
+                return entries.iterator();
+            }
+
+            @Override
+            public void put(String key, String value) {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    @Test
+    public void testRepeatedHeadersAreNotCountedAsDropped() {
+        System.setProperty(LogSenseConfig.MAX_BAGGAGE_ENTRIES.getPropertyName(), "1");
+        LogSenseConfig.reload();
+        LogSenseTracer limited = new LogSenseTracer("foo-bar");
+        try {
+            SpanContext context = limited.extract(Format.Builtin.HTTP_HEADERS, headers(
+                    LogSenseTracer.FIELD_NAME_TRACE_ID, "1", LogSenseTracer.FIELD_NAME_SPAN_ID, "2",
+                    "ot-baggage-user", "42", "OT-Baggage-User", "42", "ot-baggage-user", "42"));
+            assertEquals("42", asMap(context.baggageItems()).get("user"));
+            assertEquals(0, limited.getDroppedBaggageItemCount());
+
+            limited.extract(Format.Builtin.HTTP_HEADERS, headers(
+                    LogSenseTracer.FIELD_NAME_TRACE_ID, "1", LogSenseTracer.FIELD_NAME_SPAN_ID, "2",
+                    "ot-baggage-user", "42", "ot-baggage-user", "42", "ot-baggage-tenant", "acme"));
+            assertEquals("Only the item over the limit", 1, limited.getDroppedBaggageItemCount());
+        } finally {
+            limited.close();
+            System.clearProperty(LogSenseConfig.MAX_BAGGAGE_ENTRIES.getPropertyName());
+            LogSenseConfig.reload();
+        }
+    }
+}
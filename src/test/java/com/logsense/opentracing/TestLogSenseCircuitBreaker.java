@@ -0,0 +1,157 @@
+package com.logsense.opentracing;
+
+import org.junit.Test;
+import org.komamitsu.fluency.fluentd.ingester.sender.FluentdSender;
+import org.komamitsu.fluency.fluentd.ingester.sender.RetryableSender;
+import org.komamitsu.fluency.fluentd.ingester.sender.retry.ExponentialBackOffRetryStrategy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestLogSenseCircuitBreaker {
+    private static ExponentialBackOffRetryStrategy backOff(int maxRetryCount, int baseMillis, int maxMillis) {
+        ExponentialBackOffRetryStrategy.Config config = new ExponentialBackOffRetryStrategy.Config();
+        config.setMaxRetryCount(maxRetryCount);
+        config.setBaseIntervalMillis(baseMillis);
+        config.setMaxIntervalMillis(maxMillis);
+        return new ExponentialBackOffRetryStrategy(config);
+    }
+
+    private static class FlakySender extends FluentdSender {
+        final AtomicInteger attempts = new AtomicInteger();
+        volatile boolean up;
+        volatile RuntimeException unchecked;
+
+        @Override
+        public boolean isAvailable() {
+            return true;
+        }
+
+        @Override
+        public synchronized void send(List<ByteBuffer> buffers) throws IOException {
+            // FluentdSender wraps what sendInternal throws, other senders may not
+            if (unchecked != null) {
+                attempts.incrementAndGet();
+                throw unchecked;
+            }
+            super.send(buffers);
+        }
+
+        @Override
+        protected void sendInternal(List<ByteBuffer> buffers, byte[] ackToken) throws IOException {
+            attempts.incrementAndGet();
+            if (!up) {
+                throw new IOException("down");
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testOpensHalfOpensAndCloses() throws Exception {
+        LogSenseCircuitBreaker breaker = new LogSenseCircuitBreaker(2, backOff(2, 50, 200));
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(LogSenseCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(LogSenseCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+
+        Thread.sleep(60);
+        assertTrue(breaker.tryAcquire());
+        assertEquals(LogSenseCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse("Only one probe at a time", breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(LogSenseCircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.getRetryDelayMillis() > 50);
+
+        Thread.sleep(110);
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess();
+        assertEquals(LogSenseCircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(2, breaker.getOpenedCount());
+        assertEquals(2, breaker.getRejectedCount());
+    }
+
+    @Test
+    public void testSenderRejectsWithoutBlockingWhileOpen() throws Exception {
+        FlakySender base = new FlakySender();
+        LogSenseFluencyBuilder.LogSenseRetryableSender sender = new LogSenseFluencyBuilder.LogSenseRetryableSender(
+                new RetryableSender.Config(), base, backOff(1, 10000, 10000));
+        List<ByteBuffer> data = Collections.singletonList(ByteBuffer.wrap(new byte[]{1}));
+
+        try {
+            sender.send(data);
+            fail("Expected the first send to fail");
+        } catch (IOException e) {
+            assertFalse(e instanceof LogSenseFluencyBuilder.CircuitOpenException);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            try {
+                sender.send(data);
+                fail("Expected the circuit to be open");
+            } catch (LogSenseFluencyBuilder.CircuitOpenException e) {
+                // expected
+            }
+        }
+        assertTrue("Rejections must not wait for the back-off", System.nanoTime() - start < 1000000000L);
+        assertEquals(1, base.attempts.get());
+        assertFalse(sender.isAvailable());
+
+        long closeStart = System.nanoTime();
+        sender.close();
+        assertTrue(System.nanoTime() - closeStart < 1000000000L);
+    }
+
+    @Test
+    public void testUncheckedFailureOfProbeReleasesIt() throws Exception {
+        FlakySender base = new FlakySender();
+        LogSenseFluencyBuilder.LogSenseRetryableSender sender = new LogSenseFluencyBuilder.LogSenseRetryableSender(
+                new RetryableSender.Config(), base, backOff(1, 50, 50));
+        LogSenseCircuitBreaker breaker = sender.getCircuitBreaker();
+        List<ByteBuffer> data = Collections.singletonList(ByteBuffer.wrap(new byte[]{1}));
+        try {
+            try {
+                sender.send(data);
+                fail("Expected the first send to fail");
+            } catch (IOException e) {
+                assertEquals(LogSenseCircuitBreaker.State.OPEN, breaker.getState());
+            }
+
+            Thread.sleep(60);
+            base.unchecked = new IllegalStateException("bug in the sender");
+            try {
+                sender.send(data);
+                fail("Expected the probe to fail");
+            } catch (IOException e) {
+                // Wrapped on the way out, by then the breaker must have seen it
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+            assertEquals("The failed probe opens the circuit again", LogSenseCircuitBreaker.State.OPEN, breaker.getState());
+
+            Thread.sleep(60);
+            base.unchecked = null;
+            base.up = true;
+            sender.send(data);
+            assertEquals(LogSenseCircuitBreaker.State.CLOSED, breaker.getState());
+            assertEquals(3, base.attempts.get());
+        } finally {
+            sender.close();
+        }
+    }
+}
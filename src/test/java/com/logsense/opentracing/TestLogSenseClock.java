@@ -0,0 +1,127 @@
+package com.logsense.opentracing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogSenseClock {
+    private LogSenseTracer tracer;
+
+    @Before
+    public void setUp() {
+        tracer = new LogSenseTracer("foo-bar");
+    }
+
+    @After
+    public void tearDown() {
+        tracer.close();
+    }
+
+    private static class ManualClock implements LogSenseClock {
+        volatile long nanoTime;
+        volatile long epochMicrosAtZero = 1500000000000000L;
+
+        @Override
+        public long nanoTime() {
+            return nanoTime;
+        }
+
+        @Override
+        public long toEpochMicros(long nanoTime) {
+            return epochMicrosAtZero + nanoTime / 1000;
+        }
+    }
+
+    private static class SteppedWallClock extends LogSensePreciseClock {
+        volatile long offsetMillis;
+
+        SteppedWallClock(long resyncIntervalMillis) {
+            super(resyncIntervalMillis);
+        }
+
+        @Override
+        long currentTimeMillis() {
+            return super.currentTimeMillis() + offsetMillis;
+        }
+    }
+
+    @Test
+    public void testPreciseClockFollowsWallClockWithMicrosecondResolution() throws Exception {
+        LogSensePreciseClock clock = new LogSensePreciseClock(1000);
+        long before = System.currentTimeMillis() * 1000;
+        long now = clock.nowMicros();
+        long after = System.currentTimeMillis() * 1000 + 1000;
+        assertTrue(now >= before - 1000 && now <= after);
+
+        boolean subMillisecond = false;
+        long previous = clock.nowMicros();
+        for (int i = 0; i < 1000; i++) {
+            long next = clock.nowMicros();
+            assertTrue(next >= previous);
+            subMillisecond |= next % 1000 != 0;
+            previous = next;
+        }
+        assertTrue("Timestamps should not be rounded to milliseconds", subMillisecond);
+    }
+
+    @Test
+    public void testPreciseClockCorrectsDrift() throws Exception {
+        SteppedWallClock clock = new SteppedWallClock(10);
+        clock.offsetMillis = 5000;
+        assertTrue("No correction before the resync interval", clock.nowMicros() < System.currentTimeMillis() * 1000 + 1000);
+
+        Thread.sleep(20);
+        long corrected = clock.nowMicros();
+        long expected = (System.currentTimeMillis() + 5000) * 1000;
+        assertTrue(Math.abs(corrected - expected) < TimeUnit.MILLISECONDS.toMicros(50));
+    }
+
+    @Test
+    public void testSpanTimestampsAreMonotonicWhenTheClockSteps() {
+        ManualClock clock = new ManualClock();
+        clock.nanoTime = TimeUnit.SECONDS.toNanos(1);
+        tracer.setClock(clock);
+
+        LogSenseSpan span = (LogSenseSpan) tracer.buildSpan("op").start();
+        assertEquals(1500000001000000L, span.getModel().getStartTimeStamp());
+
+        clock.epochMicrosAtZero -= TimeUnit.SECONDS.toMicros(10);
+        clock.nanoTime += 1500;
+        span.finish();
+        assertEquals(1, span.getModel().getDurationMicros());
+    }
+
+    @Test
+    public void testExplicitStartIsNeverAfterFinish() {
+        ManualClock clock = new ManualClock();
+        tracer.setClock(clock);
+
+        long future = clock.nowMicros() + 5000;
+        LogSenseSpan span = (LogSenseSpan) tracer.buildSpan("op").withStartTimestamp(future).start();
+        clock.nanoTime += 1000000;
+        span.finish();
+        assertEquals(0, span.getModel().getDurationMicros());
+    }
+
+    @Test
+    public void testCoarseClockAdvancesInTicks() throws Exception {
+        LogSenseCoarseClock clock = new LogSenseCoarseClock(5, 1000);
+        try {
+            long first = clock.nanoTime();
+            assertEquals(first, clock.nanoTime());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (clock.nanoTime() == first && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertTrue(clock.nanoTime() - first >= TimeUnit.MILLISECONDS.toNanos(4));
+            assertTrue(Math.abs(clock.nowMicros() - System.currentTimeMillis() * 1000) < TimeUnit.MILLISECONDS.toMicros(50));
+        } finally {
+            clock.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.logsense.opentracing;
+
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogSenseConfig {
+    private static LogSenseConfig config(String... keyValues) {
+        Properties prop = new Properties();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            prop.setProperty(keyValues[i], keyValues[i + 1]);
+        }
+        return LogSenseConfig.get(prop);
+    }
+
+    @Test
+    public void testProfileChangesDefaults() {
+        LogSenseConfig config = config(LogSenseConfig.PROFILE.getPropertyName(), "high-throughput");
+
+        assertEquals(LogSenseConfig.Profile.HIGH_THROUGHPUT, config.getProfile());
+        assertEquals(100000, config.getQueueSize());
+        assertTrue(config.isNioSenderEnabled());
+    }
+
+    @Test
+    public void testExplicitValueWinsOverProfile() {
+        LogSenseConfig config = config(
+                LogSenseConfig.PROFILE.getPropertyName(), "low-memory",
+                LogSenseConfig.QUEUE_SIZE.getPropertyName(), "123");
+
+        assertEquals(123, config.getQueueSize());
+        assertEquals(16777216, config.getMaxBufferSize());
+    }
+
+    @Test
+    public void testInvalidValuesFallBack() {
+        LogSenseConfig config = config(
+                LogSenseConfig.PROFILE.getPropertyName(), "no-such-profile",
+                LogSenseConfig.QUEUE_SIZE.getPropertyName(), "-1",
+                LogSenseConfig.BUFFER_CHUNK_INITIAL_SIZE.getPropertyName(), "8388608",
+                LogSenseConfig.RETRY_MAX_INTERVAL_MILLIS.getPropertyName(), "abc");
+
+        assertEquals(LogSenseConfig.Profile.DEFAULT, config.getProfile());
+        assertEquals(10000, config.getQueueSize());
+        assertEquals(8388608, config.getBufferChunkRetentionSize());
+        assertEquals(5000, config.getRetryMaxIntervalMillis());
+    }
+}
@@ -0,0 +1,85 @@
+package com.logsense.opentracing;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class TestLogSenseExecutors {
+    private LogSenseTracer tracer;
+    private ExecutorService pool;
+    private ScheduledExecutorService scheduler;
+
+    @Before
+    public void setUp() {
+        tracer = new LogSenseTracer("foo-bar");
+        pool = LogSenseExecutors.executorService(tracer, Executors.newFixedThreadPool(2));
+        scheduler = LogSenseExecutors.scheduledExecutorService(tracer, Executors.newSingleThreadScheduledExecutor());
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+        scheduler.shutdownNow();
+        tracer.close();
+    }
+
+    private final Callable<Span> activeSpan = new Callable<Span>() {
+        @Override
+        public Span call() {
+            return tracer.activeSpan();
+        }
+    };
+
+    @Test
+    public void testActiveSpanFollowsTasks() throws Exception {
+        Span span = tracer.buildSpan("parent").start();
+        Scope scope = tracer.activateSpan(span);
+        try {
+            assertSame(span, pool.submit(activeSpan).get());
+            assertSame(span, scheduler.schedule(activeSpan, 1, TimeUnit.MILLISECONDS).get());
+            assertNull(pool.submit(LogSenseExecutors.untraced(activeSpan)).get());
+        } finally {
+            scope.close();
+        }
+        // Nothing is left active on the pool threads
+        assertNull(pool.submit(activeSpan).get());
+    }
+
+    @Test
+    public void testCompletableFutureChain() throws Exception {
+        Span span = tracer.buildSpan("parent").start();
+        Scope scope = tracer.activateSpan(span);
+        CompletableFuture<Span> future;
+        try {
+            future = LogSenseExecutors.supplyAsync(tracer, new Supplier<Span>() {
+                @Override
+                public Span get() {
+                    return tracer.activeSpan();
+                }
+            }, pool).thenApplyAsync(new Function<Span, Span>() {
+                @Override
+                public Span apply(Span previous) {
+                    assertSame(previous, tracer.activeSpan());
+                    return tracer.activeSpan();
+                }
+            }, LogSenseExecutors.executor(tracer, pool));
+        } finally {
+            scope.close();
+        }
+        assertSame(span, future.get());
+    }
+}
@@ -0,0 +1,149 @@
+package com.logsense.opentracing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.msgpack.value.Value;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogSenseExportPipeline {
+    private static final LogSenseResource RESOURCE = new LogSenseResource("token", "service", "host");
+
+    private FakeFluentdServer server;
+    private SSLContext defaultContext;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeFluentdServer(false).start();
+        defaultContext = SSLContext.getDefault();
+        SSLContext.setDefault(FakeFluentdServer.sslContext());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        SSLContext.setDefault(defaultContext);
+    }
+
+    private static List<LogSenseSpanModel> spans(int count) {
+        List<LogSenseSpanModel> spans = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            LogSenseSpanModel span = new LogSenseSpanModel();
+            span.setOperationName("op-" + i);
+            span.setSpanContext(new LogSenseSpanContext(1L, i));
+            spans.add(span);
+        }
+        return spans;
+    }
+
+    @Test
+    public void testSpansGoThroughTheEncoderPool() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty(LogSenseConfig.HOST.getPropertyName(), "127.0.0.1");
+        properties.setProperty(LogSenseConfig.PORT.getPropertyName(), Integer.toString(server.getPort()));
+        properties.setProperty(LogSenseConfig.SENDER.getPropertyName(), LogSenseConfig.SENDER_NIO);
+        properties.setProperty(LogSenseConfig.ENCODER_THREADS.getPropertyName(), "3");
+        properties.setProperty(LogSenseConfig.FLUSH_THRESHOLD.getPropertyName(), "50");
+        LogSenseFluencyExporter exporter = new LogSenseFluencyExporter(LogSenseConfig.get(properties));
+        LogSenseTracer tracer = new LogSenseTracer("pipeline-token", exporter);
+        try {
+            for (int i = 0; i < 500; i++) {
+                tracer.buildSpan("op").withTag("index", i).start().finish();
+            }
+        } finally {
+            tracer.close();
+        }
+
+        LogSenseExportPipeline pipeline = exporter.getPipeline();
+        assertEquals(3, pipeline.getEncoderThreads());
+        assertEquals(500, pipeline.getEncodedSpanCount());
+        assertEquals(500, pipeline.getSentSpanCount());
+        assertEquals(0, pipeline.getFailedSpanCount());
+        assertTrue(pipeline.getEncodedBytes() > 0);
+        assertEquals(0, tracer.getSpansLostOnClose());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getEventCount() < 500 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        boolean[] seen = new boolean[500];
+        for (Value record : server.getRecords()) {
+            String text = record.toString();
+            assertTrue(text, text.contains("pipeline-token") && text.contains("\"ot.operation_name\":\"op\""));
+            int index = Integer.parseInt(text.replaceAll(".*\"ot.index\":(\\d+).*", "$1"));
+            assertFalse("Sent once", seen[index]);
+            seen[index] = true;
+        }
+        for (boolean sent : seen) {
+            assertTrue(sent);
+        }
+    }
+
+    @Test
+    public void testSlowSinkHoldsUpTheEarlierStages() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Integer> sent = new ArrayList<>();
+        final CountDownLatch flushed = new CountDownLatch(1);
+        final LogSenseExportPipeline pipeline = new LogSenseExportPipeline(2, 1, false, new LogSenseExportPipeline.Sink() {
+            @Override
+            public void send(LogSenseExportPipeline.Encoded encoded) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                synchronized (sent) {
+                    sent.add(encoded.spanCount);
+                }
+            }
+
+            @Override
+            public void flush() {
+                flushed.countDown();
+            }
+        });
+        try {
+            // One batch in the sink, one in each queue and one with each encoder, then the queues are full
+            for (int i = 0; i < 5; i++) {
+                pipeline.submit(RESOURCE, spans(10));
+            }
+            assertTrue(pipeline.getPendingBytes() > 0);
+            pipeline.flush();
+            assertEquals(1, flushed.getCount());
+
+            Thread blocked = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        pipeline.submit(RESOURCE, spans(10));
+                    } catch (IOException e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            blocked.start();
+            blocked.join(300);
+            assertTrue("Submitting waits for room in the encode queue", blocked.isAlive());
+
+            release.countDown();
+            blocked.join(5000);
+            assertTrue(flushed.await(5, TimeUnit.SECONDS));
+            assertEquals(0, pipeline.getPendingBytes());
+            assertEquals(60, pipeline.getSentSpanCount());
+            assertTrue(pipeline.getCollectWaitNanos() > 0);
+        } finally {
+            pipeline.close();
+        }
+    }
+}
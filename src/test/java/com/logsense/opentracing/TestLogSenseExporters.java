@@ -0,0 +1,126 @@
+package com.logsense.opentracing;
+
+import io.opentracing.Span;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestLogSenseExporters {
+    private static final LogSenseResource RESOURCE = new LogSenseResource("token", "service", "host");
+
+    private static List<LogSenseSpanModel> spans(int from, int to) {
+        List<LogSenseSpanModel> spans = new ArrayList<>();
+        for (int i = from; i < to; i++) {
+            LogSenseSpanModel span = new LogSenseSpanModel();
+            span.setOperationName("op-" + i);
+            spans.add(span);
+        }
+        return spans;
+    }
+
+    @Test
+    public void testTracerExportsToGivenExporter() throws Exception {
+        LogSenseRingExporter ring = new LogSenseRingExporter(16);
+        LogSenseTracer tracer = new LogSenseTracer("ring-token", ring);
+        try {
+            Span span = tracer.buildSpan("first").withTag("k", "v").start();
+            span.finish();
+            span.setTag("late", "ignored");
+            tracer.buildSpan("second").start().finish();
+            tracer.flush();
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (ring.getExportedCount() < 2 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            LogSenseSpanModel first = ring.poll();
+            assertEquals("first", first.getOperationName());
+            assertEquals("v", first.getTagValues().get("k"));
+            assertFalse("Finished spans do not change", first.getTagValues().containsKey("late"));
+            assertEquals("second", ring.poll().getOperationName());
+            assertNull(ring.poll());
+        } finally {
+            tracer.close();
+        }
+    }
+
+    @Test
+    public void testRingOverwritesOldest() {
+        LogSenseRingExporter ring = new LogSenseRingExporter(3);
+        assertEquals(4, ring.getCapacity());
+
+        ring.export(RESOURCE, spans(0, 10));
+        for (int i = 6; i < 10; i++) {
+            assertEquals("op-" + i, ring.poll().getOperationName());
+        }
+        assertNull(ring.poll());
+        assertEquals(10, ring.getExportedCount());
+        assertEquals(6, ring.getOverwrittenCount());
+    }
+
+    @Test
+    public void testRingReaderKeepsUpWithConcurrentExport() throws Exception {
+        final LogSenseRingExporter ring = new LogSenseRingExporter(1024);
+        final int total = 200000;
+        Thread exporter = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < total; i += 100) {
+                    ring.export(RESOURCE, spans(i, i + 100));
+                }
+            }
+        };
+        exporter.start();
+
+        int received = 0;
+        int previous = -1;
+        while (received + ring.getOverwrittenCount() < total) {
+            LogSenseSpanModel span = ring.poll();
+            if (span == null) {
+                Thread.yield();
+                continue;
+            }
+            int index = Integer.parseInt(span.getOperationName().substring(3));
+            assertTrue(index > previous);
+            previous = index;
+            received++;
+        }
+        exporter.join();
+        assertEquals(total, received + ring.getOverwrittenCount());
+    }
+
+    @Test
+    public void testCompositeSharesSpansAndSurvivesFailures() throws Exception {
+        LogSenseRingExporter first = new LogSenseRingExporter(8);
+        LogSenseRingExporter second = new LogSenseRingExporter(8);
+        LogSenseExporter failing = new LogSenseExporter() {
+            @Override
+            public void export(LogSenseResource resource, List<LogSenseSpanModel> spans) throws IOException {
+                throw new IOException("down");
+            }
+        };
+        LogSenseCompositeExporter composite = new LogSenseCompositeExporter(first, failing, second);
+
+        List<LogSenseSpanModel> spans = spans(0, 2);
+        try {
+            composite.export(RESOURCE, spans);
+            fail("Expected the failure to be reported");
+        } catch (IOException e) {
+            assertEquals("down", e.getMessage());
+        }
+        for (LogSenseSpanModel span : spans) {
+            assertSame(span, first.poll());
+            assertSame(span, second.poll());
+        }
+        composite.close();
+    }
+}
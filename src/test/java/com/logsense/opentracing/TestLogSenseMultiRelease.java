@@ -0,0 +1,97 @@
+package com.logsense.opentracing;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * The versioned classes are only picked from a multi-release jar, never from the classes directory the other tests
+ * run on, so this packs the compiled classes into one and loads the platform classes from it.
+ */
+public class TestLogSenseMultiRelease {
+    private static final String[] CLASSES = {"LogSensePlatform", "LogSenseSpanState"};
+    private static final String PACKAGE_PATH = "com/logsense/opentracing/";
+
+    private static int javaVersion() {
+        String version = System.getProperty("java.specification.version");
+        return Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+    }
+
+    private static File classesDirectory() throws Exception {
+        URL url = LogSensePlatform.class.getProtectionDomain().getCodeSource().getLocation();
+        return new File(url.toURI());
+    }
+
+    private static File multiReleaseJar(File classes) throws IOException {
+        File jar = File.createTempFile("logsense-mr", ".jar");
+        jar.deleteOnExit();
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(new Attributes.Name("Multi-Release"), "true");
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+            for (String name : CLASSES) {
+                add(out, classes, PACKAGE_PATH + name + ".class");
+                add(out, classes, "META-INF/versions/21/" + PACKAGE_PATH + name + ".class");
+            }
+        }
+        return jar;
+    }
+
+    private static void add(JarOutputStream out, File classes, String path) throws IOException {
+        File file = new File(classes, path);
+        assertTrue("Missing " + file, file.isFile());
+        out.putNextEntry(new ZipEntry(path));
+        out.write(Files.readAllBytes(file.toPath()));
+        out.closeEntry();
+    }
+
+    private static Class<?> load(URLClassLoader loader, String name) throws ClassNotFoundException {
+        // Initialized, so that the Java 21 span state resolves its VarHandle
+        return Class.forName("com.logsense.opentracing." + name, true, loader);
+    }
+
+    private static boolean hasVirtualThreads(Class<?> platform) throws Exception {
+        Method method = platform.getDeclaredMethod("hasVirtualThreads");
+        method.setAccessible(true);
+        return (Boolean) method.invoke(null);
+    }
+
+    @Test
+    public void testJava21LoadsVersionedClasses() throws Exception {
+        assumeTrue("Versioned classes are only built and used on JDK 21", javaVersion() >= 21);
+        File jar = multiReleaseJar(classesDirectory());
+        try (URLClassLoader loader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null)) {
+            Class<?> platform = load(loader, "LogSensePlatform");
+            assertTrue(hasVirtualThreads(platform));
+            Method newThread = platform.getDeclaredMethod("newEmitterThread", Runnable.class, String.class, boolean.class);
+            newThread.setAccessible(true);
+            Runnable idle = new Runnable() {
+                @Override
+                public void run() {
+                }
+            };
+            Thread thread = (Thread) newThread.invoke(null, idle, "logsense-test", true);
+            assertEquals("logsense-test", thread.getName());
+            assertTrue(thread.isDaemon());
+
+            Class<?> state = load(loader, "LogSenseSpanState");
+            Field finished = state.getDeclaredField("FINISHED");
+            assertEquals("java.lang.invoke.VarHandle", finished.getType().getName());
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.logsense.opentracing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.komamitsu.fluency.fluentd.ingester.FluentdIngester;
+import org.msgpack.core.MessageBufferPacker;
+import org.msgpack.core.MessagePack;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TestLogSenseNioSender {
+    private FakeFluentdServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeFluentdServer(true).start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    private LogSenseNioSender newSender(int port) throws Exception {
+        return newSender(port, 1, 2000);
+    }
+
+    private LogSenseNioSender newSender(int port, int ackWindowSize, int readTimeoutMillis) throws Exception {
+        return new LogSenseNioSender(newConfig(port, ackWindowSize, readTimeoutMillis));
+    }
+
+    private static LogSenseNioSender.Config newConfig(int port, int ackWindowSize, int readTimeoutMillis) throws Exception {
+        LogSenseNioSender.Config config = new LogSenseNioSender.Config();
+        config.setHost("127.0.0.1");
+        config.setPort(port);
+        config.setSslContext(FakeFluentdServer.sslContext());
+        config.setConnectionTimeoutMilli(2000);
+        config.setReadTimeoutMilli(readTimeoutMillis);
+        config.setAckWindowSize(ackWindowSize);
+        return config;
+    }
+
+    private static FluentdIngester ackingIngester(LogSenseNioSender sender) {
+        FluentdIngester.Config ingesterConfig = new FluentdIngester.Config();
+        ingesterConfig.setAckResponseMode(true);
+        return new FluentdIngester(ingesterConfig, sender);
+    }
+
+    private static ByteBuffer chunk(int events) throws IOException {
+        MessageBufferPacker packer = MessagePack.newDefaultBufferPacker();
+        for (int i = 0; i < events; i++) {
+            packer.packArrayHeader(2);
+            packer.packLong(System.currentTimeMillis() / 1000);
+            packer.packMapHeader(1);
+            packer.packString("ot.operation_name");
+            packer.packString("op-" + i);
+        }
+        return ByteBuffer.wrap(packer.toByteArray());
+    }
+
+    private void awaitEvents(int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getEventCount() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, server.getEventCount());
+    }
+
+    @Test
+    public void testPipelinedSendsArriveInOrder() throws Exception {
+        LogSenseNioSender sender = newSender(server.getPort());
+        FluentdIngester ingester = new FluentdIngester(sender);
+        for (int i = 0; i < 50; i++) {
+            ingester.ingest("ot", chunk(100));
+        }
+        awaitEvents(5000);
+        assertEquals(50, server.getMessages().size());
+        ingester.close();
+    }
+
+    @Test
+    public void testAckModeWaitsForEveryChunk() throws Exception {
+        LogSenseNioSender sender = newSender(server.getPort());
+        FluentdIngester.Config ingesterConfig = new FluentdIngester.Config();
+        ingesterConfig.setAckResponseMode(true);
+        FluentdIngester ingester = new FluentdIngester(ingesterConfig, sender);
+        for (int i = 0; i < 10; i++) {
+            ingester.ingest("ot", chunk(10));
+            assertEquals((i + 1) * 10, server.getEventCount());
+        }
+        ingester.close();
+    }
+
+    @Test
+    public void testAckWindowKeepsSeveralChunksInFlight() throws Exception {
+        final LogSenseNioSender sender = newSender(server.getPort(), 4, 2000);
+        final FluentdIngester ingester = ackingIngester(sender);
+        server.holdAcks();
+        for (int i = 0; i < 4; i++) {
+            ingester.ingest("ot", chunk(10));
+        }
+        awaitEvents(40);
+        assertEquals(4, sender.getUnackedChunkCount());
+        assertTrue(sender.getUnackedBytes() > 0);
+
+        Thread fifth = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    ingester.ingest("ot", chunk(10));
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        fifth.start();
+        fifth.join(300);
+        assertTrue("The window is full", fifth.isAlive());
+
+        // Acked newest first
+        server.releaseAcks();
+        fifth.join(5000);
+        assertFalse(fifth.isAlive());
+        awaitEvents(50);
+
+        ingester.close();
+        assertEquals(0, sender.getUnackedBytes());
+        assertEquals(0, sender.getRetransmitCount());
+    }
+
+    @Test
+    public void testChunkWithoutAckIsSentAgain() throws Exception {
+        LogSenseNioSender sender = newSender(server.getPort(), 4, 300);
+        FluentdIngester ingester = ackingIngester(sender);
+        server.dropAcks(1);
+        ingester.ingest("ot", chunk(10));
+        awaitEvents(10);
+        assertEquals(1, sender.getUnackedChunkCount());
+
+        Thread.sleep(400);
+        ingester.ingest("ot", chunk(5));
+        awaitEvents(25);
+        assertEquals(1, sender.getRetransmitCount());
+
+        ingester.close();
+        assertEquals(0, sender.getUnackedBytes());
+        assertEquals(3, server.getMessages().size());
+    }
+
+    @Test
+    public void testChunkWithoutAckIsSentAgainWithoutFurtherSends() throws Exception {
+        LogSenseNioSender sender = newSender(server.getPort(), 4, 300);
+        FluentdIngester ingester = ackingIngester(sender);
+        server.dropAcks(1);
+        ingester.ingest("ot", chunk(10));
+
+        // Nothing else is sent, the timer notices the missing ack
+        awaitEvents(20);
+        assertEquals(1, sender.getRetransmitCount());
+        long deadline = System.currentTimeMillis() + 5000;
+        while (sender.getUnackedChunkCount() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("The window is settled", 0, sender.getUnackedChunkCount());
+        assertEquals(0, sender.getUnackedBytes());
+
+        ingester.close();
+        assertEquals(2, server.getMessages().size());
+    }
+
+    @Test
+    public void testTimerDoesNotReconnect() throws Exception {
+        LogSenseNioSender sender = newSender(server.getPort(), 4, 300);
+        FluentdIngester ingester = ackingIngester(sender);
+        server.dropAcks(1);
+        ingester.ingest("ot", chunk(10));
+        awaitEvents(10);
+
+        int port = server.getPort();
+        server.close();
+        server = new FakeFluentdServer(true).start(port);
+        Thread.sleep(500);
+        assertEquals("The next send reconnects, not the timer", 1, sender.getConnectCount());
+        assertEquals(0, server.getEventCount());
+
+        ingester.ingest("ot", chunk(5));
+        awaitEvents(15);
+        assertEquals(2, sender.getConnectCount());
+        ingester.close();
+        assertEquals(0, sender.getUnackedBytes());
+    }
+
+    private static void awaitStandby(LogSenseNioSender sender) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!sender.hasStandby() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue("Standby connection opened", sender.hasStandby());
+    }
+
+    @Test
+    public void testStandbyTakesOverFailedConnection() throws Exception {
+        LogSenseNioSender.Config config = newConfig(server.getPort(), 1, 2000);
+        config.setStandbyEnabled(true);
+        LogSenseNioSender sender = new LogSenseNioSender(config);
+        FluentdIngester ingester = ackingIngester(sender);
+        ingester.ingest("ot", chunk(1));
+        awaitStandby(sender);
+        assertEquals(2, sender.getConnectCount());
+        assertEquals(2, server.getConnectionCount());
+
+        server.dropOldestConnection();
+        try {
+            ingester.ingest("ot", chunk(1));
+        } catch (IOException e) {
+            // Sent before the failure was noticed, the standby is used from the next send on
+            ingester.ingest("ot", chunk(1));
+        }
+        assertEquals(1, sender.getStandbyTakeoverCount());
+        awaitEvents(2);
+
+        // A new standby replaces the one taken over
+        awaitStandby(sender);
+        assertEquals(3, sender.getConnectCount());
+        ingester.close();
+        assertFalse(sender.hasStandby());
+    }
+
+    @Test
+    public void testUnreachableEndpointFails() throws Exception {
+        int port = server.getPort();
+        server.close();
+        LogSenseNioSender sender = newSender(port);
+        try {
+            new FluentdIngester(sender).ingest("ot", chunk(1));
+            fail("Expected the send to fail");
+        } catch (IOException e) {
+            // expected
+        } finally {
+            sender.close();
+        }
+    }
+}
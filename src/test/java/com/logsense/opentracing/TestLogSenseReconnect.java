@@ -0,0 +1,272 @@
+package com.logsense.opentracing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.komamitsu.fluency.Fluency;
+import org.komamitsu.fluency.fluentd.ingester.sender.RetryableSender;
+import org.komamitsu.fluency.fluentd.ingester.sender.heartbeat.Heartbeater;
+import org.komamitsu.fluency.ingester.sender.Sender;
+import org.msgpack.value.Value;
+
+import javax.net.ssl.SSLContext;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogSenseReconnect {
+    private static final LogSenseResource RESOURCE = new LogSenseResource("token", "service", "host");
+    /**
+     * Heartbeats every 100 ms and endpoints left out for 300 ms after a failure should move chunks well within this
+     */
+    private static final long SWITCH_BOUND_MILLIS = 3000;
+
+    private FakeFluentdServer server;
+    private SSLContext defaultContext;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeFluentdServer(true).start();
+        defaultContext = SSLContext.getDefault();
+        SSLContext.setDefault(FakeFluentdServer.sslContext());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        SSLContext.setDefault(defaultContext);
+    }
+
+    private static List<LogSenseSpanModel> spans(int count) {
+        return spans("op-", count);
+    }
+
+    private static List<LogSenseSpanModel> spans(String prefix, int count) {
+        List<LogSenseSpanModel> spans = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            LogSenseSpanModel span = new LogSenseSpanModel();
+            span.setOperationName(prefix + i);
+            span.setSpanContext(new LogSenseSpanContext(1L, i));
+            spans.add(span);
+        }
+        return spans;
+    }
+
+    private Properties properties(int port) {
+        Properties properties = new Properties();
+        properties.setProperty(LogSenseConfig.HOST.getPropertyName(), "127.0.0.1");
+        properties.setProperty(LogSenseConfig.PORT.getPropertyName(), Integer.toString(port));
+        properties.setProperty(LogSenseConfig.ACK_ENABLED.getPropertyName(), "true");
+        properties.setProperty(LogSenseConfig.FLUSH_INTERVAL_MILLIS.getPropertyName(), "50");
+        properties.setProperty(LogSenseConfig.RETRY_BASE_INTERVAL_MILLIS.getPropertyName(), "50");
+        properties.setProperty(LogSenseConfig.RETRY_MAX_INTERVAL_MILLIS.getPropertyName(), "200");
+        properties.setProperty(LogSenseConfig.READ_TIMEOUT_MILLIS.getPropertyName(), "1000");
+        return properties;
+    }
+
+    private static Sender baseSender(Fluency fluency) {
+        Sender sender = fluency.getFlusher().getIngester().getSender();
+        return ((RetryableSender) sender).getBaseSender();
+    }
+
+    /**
+     * @return how long it took until the server had the expected events
+     */
+    private static long awaitEvents(LogSenseExporter exporter, FakeFluentdServer server, int expected) throws Exception {
+        long start = System.currentTimeMillis();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (server.getEventCount() < expected && System.currentTimeMillis() < deadline) {
+            exporter.flush();
+            Thread.sleep(20);
+        }
+        assertEquals(expected, server.getEventCount());
+        return System.currentTimeMillis() - start;
+    }
+
+    /**
+     * @return operations of the given batch the server received, each counted once
+     */
+    private static Set<String> operations(FakeFluentdServer server, String prefix) {
+        Set<String> operations = new HashSet<>();
+        for (Value record : server.getRecords()) {
+            for (Map.Entry<Value, Value> field : record.asMapValue().entrySet()) {
+                if (field.getValue().isStringValue() && field.getValue().asStringValue().asString().startsWith(prefix)) {
+                    operations.add(field.getValue().asStringValue().asString());
+                }
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Waits for the ack of the chunk the server received, the sender only counts the switch once it arrives
+     */
+    private static void awaitAcked(LogSenseFluencyBuilder.LogSenseMultiSender failover, int port) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!("127.0.0.1:" + port).equals(failover.getActiveEndpoint()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testExporterKeepsFluencyAcrossEndpointRestart() throws Exception {
+        int port = server.getPort();
+        LogSenseFluencyExporter exporter = new LogSenseFluencyExporter(LogSenseConfig.get(properties(port)));
+        try {
+            exporter.export(RESOURCE, spans(10));
+            awaitEvents(exporter, server, 10);
+            Fluency fluency = exporter.getFluency();
+            LogSenseFluencyBuilder.LogSenseSSLSender sender = (LogSenseFluencyBuilder.LogSenseSSLSender) baseSender(fluency);
+            assertEquals(1, sender.getConnectCount());
+
+            server.close();
+            server = new FakeFluentdServer(true).start(port);
+            exporter.export(RESOURCE, spans(10));
+            awaitEvents(exporter, server, 10);
+
+            assertSame("Buffers and sender are reused", fluency, exporter.getFluency());
+            assertEquals(2, sender.getConnectCount());
+        } finally {
+            exporter.close();
+        }
+    }
+
+    @Test
+    public void testChunksInTheAckWindowOfAFailedEndpointMoveToTheNextOne() throws Exception {
+        FakeFluentdServer secondary = new FakeFluentdServer(true).start();
+        int primaryPort = server.getPort();
+        Properties properties = properties(primaryPort);
+        properties.setProperty(LogSenseConfig.ENDPOINTS.getPropertyName(),
+                "127.0.0.1:" + primaryPort + ",127.0.0.1:" + secondary.getPort());
+        properties.setProperty(LogSenseConfig.SENDER.getPropertyName(), LogSenseConfig.SENDER_NIO);
+        properties.setProperty(LogSenseConfig.ACK_WINDOW_SIZE.getPropertyName(), "4");
+        properties.setProperty(LogSenseConfig.HEARTBEAT_INTERVAL_MILLIS.getPropertyName(), "100");
+        properties.setProperty(LogSenseConfig.ENDPOINT_DOWN_MILLIS.getPropertyName(), "300");
+        LogSenseFluencyExporter exporter = new LogSenseFluencyExporter(LogSenseConfig.get(properties));
+        try {
+            exporter.export(RESOURCE, spans("first-", 10));
+            awaitEvents(exporter, server, 10);
+            LogSenseFluencyBuilder.LogSenseMultiSender failover = exporter.getFailoverSender();
+            awaitAcked(failover, primaryPort);
+
+            // Fluency lets go of these once they are in the window, the primary never acks them
+            server.holdAcks();
+            exporter.export(RESOURCE, spans("in-flight-", 10));
+            awaitEvents(exporter, server, 20);
+            server.close();
+
+            // They move with the first chunk sent after the primary's connection was found failed
+            int exported = 0;
+            long deadline = System.currentTimeMillis() + 10000;
+            while (operations(secondary, "in-flight-").size() < 10 && System.currentTimeMillis() < deadline) {
+                exporter.export(RESOURCE, spans("after-" + exported + "-", 1));
+                exported++;
+                for (int i = 0; i < 5 && operations(secondary, "in-flight-").size() < 10; i++) {
+                    exporter.flush();
+                    Thread.sleep(20);
+                }
+            }
+            assertEquals("Nothing in flight lost", 10, operations(secondary, "in-flight-").size());
+            assertTrue(failover.getResentChunkCount() >= 1);
+            deadline = System.currentTimeMillis() + 10000;
+            while (operations(secondary, "after-").size() < exported && System.currentTimeMillis() < deadline) {
+                exporter.flush();
+                Thread.sleep(20);
+            }
+            assertEquals(exported, operations(secondary, "after-").size());
+        } finally {
+            exporter.close();
+            secondary.close();
+        }
+    }
+
+    @Test
+    public void testHeartbeatsResumeTheTlsSession() throws Exception {
+        Heartbeater.Config config = new Heartbeater.Config();
+        config.setHost("127.0.0.1");
+        config.setPort(server.getPort());
+        config.setIntervalMillis(50);
+        LogSenseFailureDetector.TlsHeartbeater heartbeater = new LogSenseFailureDetector.TlsHeartbeater(config, 2000);
+        LogSenseFailureDetector detector = new LogSenseFailureDetector(heartbeater, 16, 300);
+        try {
+            assertSame(heartbeater, detector.getHeartbeater());
+            long deadline = System.currentTimeMillis() + 5000;
+            while (heartbeater.getResumedCount() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue("Resumed " + heartbeater.getResumedCount() + " times", heartbeater.getResumedCount() >= 3);
+            assertTrue(detector.isAvailable());
+        } finally {
+            detector.close();
+        }
+    }
+
+    @Test
+    public void testFailsOverAndBackWithinBoundedTime() throws Exception {
+        FakeFluentdServer secondary = new FakeFluentdServer(true).start();
+        int primaryPort = server.getPort();
+        Properties properties = properties(primaryPort);
+        properties.setProperty(LogSenseConfig.ENDPOINTS.getPropertyName(),
+                "127.0.0.1:" + primaryPort + ",127.0.0.1:" + secondary.getPort());
+        properties.setProperty(LogSenseConfig.HEARTBEAT_INTERVAL_MILLIS.getPropertyName(), "100");
+        properties.setProperty(LogSenseConfig.ENDPOINT_DOWN_MILLIS.getPropertyName(), "300");
+        LogSenseFluencyExporter exporter = new LogSenseFluencyExporter(LogSenseConfig.get(properties));
+        try {
+            exporter.export(RESOURCE, spans(10));
+            awaitEvents(exporter, server, 10);
+            LogSenseFluencyBuilder.LogSenseMultiSender failover = exporter.getFailoverSender();
+            awaitAcked(failover, primaryPort);
+            assertEquals("127.0.0.1:" + primaryPort, failover.getActiveEndpoint());
+            // Let a few heartbeats go through
+            Thread.sleep(300);
+
+            server.close();
+            exporter.export(RESOURCE, spans(10));
+            long failoverMillis = awaitEvents(exporter, secondary, 10);
+            assertTrue("Failed over in " + failoverMillis + " ms", failoverMillis < SWITCH_BOUND_MILLIS);
+            awaitAcked(failover, secondary.getPort());
+            assertEquals(1, failover.getFailoverCount());
+            assertEquals("127.0.0.1:" + secondary.getPort(), failover.getActiveEndpoint());
+            LogSenseFailureDetector primaryDetector = failover.getFailureDetectors().get(0);
+            assertTrue(primaryDetector.getDownCount() >= 1);
+            assertTrue(failover.getLastTimeToDetectMillis() >= 0);
+            assertTrue(failover.getLastTimeToDetectMillis() < SWITCH_BOUND_MILLIS);
+
+            server = new FakeFluentdServer(true).start(primaryPort);
+            long restarted = System.currentTimeMillis();
+            // A few heartbeats may still fail while the endpoint comes back, chunks then keep going to the secondary
+            int exported = 0;
+            while (server.getEventCount() == 0 && System.currentTimeMillis() - restarted < SWITCH_BOUND_MILLIS) {
+                exporter.export(RESOURCE, spans(10));
+                exported += 10;
+                for (int i = 0; i < 5 && server.getEventCount() == 0; i++) {
+                    exporter.flush();
+                    Thread.sleep(20);
+                }
+            }
+            long failbackMillis = System.currentTimeMillis() - restarted;
+            assertTrue("Failed back in " + failbackMillis + " ms", server.getEventCount() > 0);
+            awaitAcked(failover, primaryPort);
+            assertEquals("127.0.0.1:" + primaryPort, failover.getActiveEndpoint());
+            assertTrue(failover.getFailbackCount() >= 1);
+            long deadline = System.currentTimeMillis() + 10000;
+            while (server.getEventCount() + secondary.getEventCount() < 10 + exported && System.currentTimeMillis() < deadline) {
+                exporter.flush();
+                Thread.sleep(20);
+            }
+            assertEquals("Nothing lost while switching", 10 + exported, server.getEventCount() + secondary.getEventCount());
+            assertTrue(failover.getLastTimeToRecoverMillis() >= 0);
+            assertTrue(failover.getLastTimeToRecoverMillis() < SWITCH_BOUND_MILLIS);
+        } finally {
+            exporter.close();
+            secondary.close();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.logsense.opentracing;
+
+import io.opentracing.Scope;
+import io.opentracing.Span;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogSenseScopeManager {
+    private LogSenseTracer tracer;
+    private LogSenseScopeManager scopeManager;
+
+    @Before
+    public void setUp() {
+        tracer = new LogSenseTracer("foo-bar");
+        scopeManager = (LogSenseScopeManager) tracer.scopeManager();
+    }
+
+    @After
+    public void tearDown() {
+        tracer.close();
+    }
+
+    @Test
+    public void testDeepNestingRestoresParents() {
+        int depth = 50;
+        Span[] spans = new Span[depth];
+        Scope[] scopes = new Scope[depth];
+        for (int i = 0; i < depth; i++) {
+            spans[i] = tracer.buildSpan("op-" + i).start();
+            scopes[i] = scopeManager.activate(spans[i]);
+            assertSame(spans[i], scopeManager.activeSpan());
+            assertSame(spans[i].context(), scopeManager.activeContext());
+        }
+        for (int i = depth - 1; i >= 0; i--) {
+            scopes[i].close();
+            if (i > 0) {
+                assertSame(spans[i - 1], scopeManager.activeSpan());
+            }
+        }
+        assertNull(scopeManager.active());
+        assertNull(scopeManager.activeContext());
+    }
+
+    @Test
+    public void testBuilderUsesActiveContextAsParent() {
+        Span parent = tracer.buildSpan("parent").start();
+        Scope scope = scopeManager.activate(parent, true);
+        LogSenseSpan child = (LogSenseSpan) tracer.buildSpan("child").start();
+        assertEquals(((LogSenseSpanContext) parent.context()).getTraceId(),
+                ((LogSenseSpanContext) child.context()).getTraceId());
+
+        scope.close();
+        assertTrue(((LogSenseSpan) parent).isFinished());
+        assertFalse(child.isFinished());
+    }
+
+    @Test
+    public void testClosingOutOfOrderIsIgnored() {
+        Span outer = tracer.buildSpan("outer").start();
+        Span inner = tracer.buildSpan("inner").start();
+        Scope outerScope = scopeManager.activate(outer);
+        Scope innerScope = scopeManager.activate(inner);
+
+        outerScope.close();
+        assertSame(inner, scopeManager.activeSpan());
+        innerScope.close();
+        assertSame(outer, scopeManager.activeSpan());
+        outerScope.close();
+        assertNull(scopeManager.activeSpan());
+    }
+
+    @Test
+    public void testClosingTwiceAfterReuseIsIgnored() {
+        Span first = tracer.buildSpan("first").start();
+        Scope stale = scopeManager.activate(first, true);
+        stale.close();
+        assertTrue(((LogSenseSpan) first).isFinished());
+
+        // Takes the slot the first scope had
+        LogSenseSpan second = (LogSenseSpan) tracer.buildSpan("second").start();
+        Scope current = scopeManager.activate(second, true);
+        stale.close();
+        assertSame(second, scopeManager.activeSpan());
+        assertFalse("Must not finish the span of the newer scope", second.isFinished());
+
+        current.close();
+        assertTrue(second.isFinished());
+        assertNull(scopeManager.activeSpan());
+    }
+
+    @Test
+    public void testThreadLocalScopeManagerByConfiguration() {
+        System.setProperty(LogSenseConfig.SCOPE_MANAGER.getPropertyName(), LogSenseConfig.SCOPE_MANAGER_THREAD_LOCAL);
+        try {
+            LogSenseConfig.reload();
+            LogSenseTracer threadLocalTracer = new LogSenseTracer("foo-bar");
+            try {
+                assertTrue(threadLocalTracer.scopeManager() instanceof io.opentracing.util.ThreadLocalScopeManager);
+                Span parent = threadLocalTracer.buildSpan("parent").start();
+                Scope scope = threadLocalTracer.activateSpan(parent);
+                assertSame(parent.context(), threadLocalTracer.activeSpanContext());
+                scope.close();
+            } finally {
+                threadLocalTracer.close();
+            }
+        } finally {
+            System.clearProperty(LogSenseConfig.SCOPE_MANAGER.getPropertyName());
+            LogSenseConfig.reload();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package com.logsense.opentracing;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.msgpack.core.MessagePack;
+import org.msgpack.core.MessageUnpacker;
+import org.msgpack.value.ArrayValue;
+import org.msgpack.value.Value;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogSenseSegmentFiles {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @After
+    public void tearDown() {
+        System.clearProperty(LogSenseConfig.EXPORTER.getPropertyName());
+        System.clearProperty(LogSenseConfig.FILE_DIRECTORY.getPropertyName());
+        LogSenseConfig.reload();
+    }
+
+    private static Map<String, Object> record(int index) {
+        Map<String, Object> record = new HashMap<>();
+        record.put("index", index);
+        record.put("name", "op-" + index);
+        record.put("tags", Collections.singletonMap("k", "v"));
+        return record;
+    }
+
+    private static ArrayValue decode(LogSenseSegmentReader.Record record) throws IOException {
+        try (MessageUnpacker unpacker = MessagePack.newDefaultUnpacker(record.getPayload())) {
+            return unpacker.unpackValue().asArrayValue();
+        }
+    }
+
+    private static int index(LogSenseSegmentReader.Record record) throws IOException {
+        Map<Value, Value> map = decode(record).get(2).asMapValue().map();
+        for (Map.Entry<Value, Value> entry : map.entrySet()) {
+            if (entry.getKey().asStringValue().asString().equals("index")) {
+                return entry.getValue().asIntegerValue().asInt();
+            }
+        }
+        throw new AssertionError("No index in " + map);
+    }
+
+    @Test
+    public void testReaderResumesFromCommittedOffset() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (LogSenseSegmentWriter writer = new LogSenseSegmentWriter(directory, 4096, 100)) {
+            for (int i = 0; i < 100; i++) {
+                writer.append("ot", 1000L + i, record(i));
+            }
+            assertTrue("Records should span several segments", writer.getSequence() > 0);
+        }
+
+        try (LogSenseSegmentReader reader = new LogSenseSegmentReader(directory, "shipper")) {
+            for (int i = 0; i < 30; i++) {
+                LogSenseSegmentReader.Record record = reader.poll();
+                assertEquals(i, index(record));
+                assertEquals("ot", decode(record).get(0).asStringValue().asString());
+                assertEquals(1000L + i, decode(record).get(1).asIntegerValue().asLong());
+            }
+            reader.commit();
+            reader.poll();
+        }
+
+        // A new writer appends after what is there, a new reader goes on from the committed offset
+        try (LogSenseSegmentWriter writer = new LogSenseSegmentWriter(directory, 4096, 100)) {
+            writer.append("ot", 0, record(100));
+        }
+        try (LogSenseSegmentReader reader = new LogSenseSegmentReader(directory, "shipper")) {
+            for (int i = 30; i <= 100; i++) {
+                assertEquals(i, index(reader.poll()));
+            }
+            assertNull(reader.poll());
+            assertEquals(0, reader.getCorruptRecords());
+        }
+    }
+
+    @Test
+    public void testOldSegmentsAreDeleted() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (LogSenseSegmentWriter writer = new LogSenseSegmentWriter(directory, 4096, 2)) {
+            LogSenseSegmentReader reader = new LogSenseSegmentReader(directory, "slow");
+            writer.append("ot", 0, record(0));
+            assertEquals(0, index(reader.poll()));
+            for (int i = 1; i < 200; i++) {
+                writer.append("ot", 0, record(i));
+            }
+            assertEquals(2, LogSenseSegmentWriter.listSegments(directory).size());
+            assertTrue(writer.getDeletedSegments() > 0);
+
+            // The reader is still in a segment that no longer exists and finishes it from its mapping
+            int previous = 0;
+            LogSenseSegmentReader.Record record;
+            while ((record = reader.poll()) != null) {
+                assertTrue(index(record) > previous);
+                previous = index(record);
+            }
+            assertEquals(199, previous);
+            reader.commit();
+            reader.close();
+        }
+        try (LogSenseSegmentReader fresh = new LogSenseSegmentReader(folder.getRoot().toPath(), "late")) {
+            long first = LogSenseSegmentWriter.listSegments(directory).get(0);
+            assertTrue(index(fresh.poll()) > 0);
+            assertEquals(first, fresh.getSequence());
+        }
+    }
+
+    @Test
+    public void testCorruptRecordSkipsRestOfSegment() throws Exception {
+        Path directory = folder.getRoot().toPath();
+        try (LogSenseSegmentWriter writer = new LogSenseSegmentWriter(directory, 4096, 10)) {
+            for (int i = 0; i < 200; i++) {
+                writer.append("ot", 0, record(i));
+            }
+            assertTrue(writer.getSequence() > 0);
+        }
+        try (RandomAccessFile file = new RandomAccessFile(LogSenseSegmentWriter.segmentPath(directory, 0).toFile(), "rw")) {
+            // First byte of the second record's payload
+            file.seek(LogSenseSegmentWriter.HEADER_SIZE);
+            int firstLength = file.readInt();
+            long payload = LogSenseSegmentWriter.HEADER_SIZE + LogSenseSegmentWriter.RECORD_HEADER_SIZE + firstLength
+                    + LogSenseSegmentWriter.RECORD_HEADER_SIZE;
+            file.seek(payload);
+            int value = file.read();
+            file.seek(payload);
+            file.write(value ^ 0xFF);
+        }
+
+        try (LogSenseSegmentReader reader = new LogSenseSegmentReader(directory, "shipper")) {
+            assertEquals(0, index(reader.poll()));
+            LogSenseSegmentReader.Record next = reader.poll();
+            assertEquals(1, next.getSequence());
+            assertEquals(1, reader.getCorruptRecords());
+        }
+    }
+
+    @Test
+    public void testTracerWritesSpansToSegmentFiles() throws Exception {
+        Path directory = folder.newFolder("spans").toPath();
+        System.setProperty(LogSenseConfig.EXPORTER.getPropertyName(), LogSenseConfig.EXPORTER_FILE);
+        System.setProperty(LogSenseConfig.FILE_DIRECTORY.getPropertyName(), directory.toString());
+        LogSenseConfig.reload();
+
+        LogSenseTracer tracer = new LogSenseTracer("file-token");
+        for (int i = 0; i < 10; i++) {
+            tracer.buildSpan("op-" + i).start().finish();
+        }
+        tracer.close();
+        assertEquals(0, tracer.getSpansLostOnClose());
+
+        int count = 0;
+        try (LogSenseSegmentReader reader = new LogSenseSegmentReader(directory, "shipper")) {
+            LogSenseSegmentReader.Record record;
+            while ((record = reader.poll()) != null) {
+                assertTrue(decode(record).get(2).toString().contains("file-token"));
+                count++;
+            }
+        }
+        assertEquals(10, count);
+    }
+}
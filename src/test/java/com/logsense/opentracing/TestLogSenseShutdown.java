@@ -0,0 +1,91 @@
+package com.logsense.opentracing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogSenseShutdown {
+    private static final String[] PROPERTIES = {
+            LogSenseConfig.SENDER.getPropertyName(),
+            LogSenseConfig.QUEUE_DRAIN_INTERVAL_MILLIS.getPropertyName(),
+            LogSenseConfig.SHUTDOWN_TIMEOUT_MILLIS.getPropertyName()
+    };
+
+    private FakeFluentdServer server;
+    private SSLContext defaultContext;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeFluentdServer(false).start();
+        defaultContext = SSLContext.getDefault();
+        SSLContext.setDefault(FakeFluentdServer.sslContext());
+        System.setProperty(LogSenseConfig.SENDER.getPropertyName(), LogSenseConfig.SENDER_NIO);
+        // Spans stay queued until the tracer closes
+        System.setProperty(LogSenseConfig.QUEUE_DRAIN_INTERVAL_MILLIS.getPropertyName(), "60000");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        SSLContext.setDefault(defaultContext);
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+        LogSenseConfig.reload();
+    }
+
+    private LogSenseTracer tracer(int port, int shutdownTimeoutMillis) {
+        System.setProperty(LogSenseConfig.SHUTDOWN_TIMEOUT_MILLIS.getPropertyName(), Integer.toString(shutdownTimeoutMillis));
+        LogSenseConfig.reload();
+        return new LogSenseTracer("foo-bar", "127.0.0.1", port);
+    }
+
+    @Test
+    public void testCloseSendsQueuedSpans() throws Exception {
+        LogSenseTracer tracer = tracer(server.getPort(), 5000);
+        for (int i = 0; i < 50; i++) {
+            tracer.buildSpan("op-" + i).start().finish();
+        }
+        assertEquals(50, tracer.getQueuedSpanCount());
+
+        tracer.close();
+        assertEquals(0, tracer.getSpansLostOnClose());
+        assertEquals(0, tracer.getBytesUnsentOnClose());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getEventCount() < 50 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(50, server.getEventCount());
+    }
+
+    @Test
+    public void testCloseGivesUpAtTheDeadline() throws Exception {
+        int port = server.getPort();
+        server.close();
+        LogSenseTracer tracer = tracer(port, 300);
+        for (int i = 0; i < 10; i++) {
+            tracer.buildSpan("op-" + i).start().finish();
+        }
+
+        long start = System.nanoTime();
+        tracer.close();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("Closing took " + elapsedMillis + " ms", elapsedMillis < 1000);
+        assertTrue(tracer.getSpansLostOnClose() > 0 || tracer.getBytesUnsentOnClose() > 0);
+    }
+
+    @Test
+    public void testCloseOfDisabledTracer() {
+        LogSenseTracer tracer = new LogSenseTracer("");
+        assertTrue(tracer.isDisabled());
+        tracer.close();
+        tracer.close();
+    }
+}
@@ -0,0 +1,95 @@
+package com.logsense.opentracing;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.msgpack.jackson.dataformat.MessagePackFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TestLogSenseTraceGrouping {
+    private static final int SPANS_PER_TRACE = 8;
+
+    private static List<LogSenseTracer.FluentDataFacade> trace(long traceId, int spans) {
+        Map<String, String> baggage = new HashMap<>();
+        baggage.put("tenant", "acme-corporation");
+        baggage.put("request.origin", "mobile-app/ios/4.2.1");
+        List<LogSenseTracer.FluentDataFacade> records = new ArrayList<>();
+        for (int i = 0; i < spans; i++) {
+            LogSenseSpanModel model = new LogSenseSpanModel();
+            model.setSpanContext(new LogSenseSpanContext(traceId, traceId + i + 1, baggage));
+            model.setOperationName("GET /api/orders/" + i);
+            model.setStartTimeStamp(1000000L + i);
+            model.setDurationMicros(250 + i);
+            model.setParentSpanId(i == 0 ? null : traceId + 1);
+            model.setTagValue("http.status_code", 200L);
+            model.setTagValue("component", "jax-rs");
+            records.add(new LogSenseTracer.FluentDataFacade(model.getStartTimeStamp(), "aaa-123-bbb-999",
+                    "order-service", "order-service-7d9f8b-x2x9q", model.asMap()));
+        }
+        return records;
+    }
+
+    @Test
+    public void testSharedFieldsAreWrittenOnce() {
+        List<LogSenseTracer.FluentDataFacade> spans = new ArrayList<>(trace(1, 3));
+        spans.addAll(trace(100, 1));
+
+        List<LogSenseTracer.FluentDataFacade> records = LogSenseTraceGrouping.group(spans, 256);
+
+        assertEquals(2, records.size());
+        Map<String, Object> grouped = records.get(0).data;
+        assertEquals(3, records.get(0).spanCount);
+        assertEquals(LogSenseTraceGrouping.TYPE_GROUP, grouped.get("_type"));
+        assertEquals(1L, grouped.get("ot.trace_id"));
+        assertEquals("acme-corporation", grouped.get("ot.tenant"));
+        assertEquals("aaa-123-bbb-999", grouped.get("cs_customer_token"));
+        assertEquals(1000000L, records.get(0).timestampMicros);
+
+        @SuppressWarnings("unchecked")
+        List<Map<String, Object>> members = (List<Map<String, Object>>) grouped.get(LogSenseTraceGrouping.KEY_SPANS);
+        assertEquals(3, members.size());
+        assertEquals("GET /api/orders/1", members.get(1).get("ot.operation_name"));
+        assertEquals(1000001L, members.get(1).get(LogSenseTraceGrouping.KEY_START));
+        assertFalse(members.get(1).containsKey("ot.trace_id"));
+        assertFalse(members.get(0).containsKey("ot.parent_span_id"));
+        assertTrue(members.get(1).containsKey("ot.parent_span_id"));
+
+        // A lone span is sent as it was
+        assertEquals("trace", records.get(1).data.get("_type"));
+    }
+
+    @Test
+    public void testLargeTracesAreSplit() {
+        List<LogSenseTracer.FluentDataFacade> records = LogSenseTraceGrouping.group(trace(1, 5), 2);
+        assertEquals(3, records.size());
+        assertEquals(2, records.get(0).spanCount);
+        assertEquals(1, records.get(2).spanCount);
+    }
+
+    @Test
+    public void testBytesSavedPerSpan() throws Exception {
+        ObjectMapper mapper = new ObjectMapper(new MessagePackFactory());
+        List<LogSenseTracer.FluentDataFacade> spans = trace(1, SPANS_PER_TRACE);
+
+        long separate = 0;
+        for (LogSenseTracer.FluentDataFacade span : spans) {
+            separate += mapper.writeValueAsBytes(span.data).length;
+        }
+        long grouped = 0;
+        for (LogSenseTracer.FluentDataFacade record : LogSenseTraceGrouping.group(spans, 256)) {
+            grouped += mapper.writeValueAsBytes(record.data).length;
+        }
+
+        // Token, service, host, trace id and baggage are written once per trace instead of once per span
+        double ratio = grouped / (double) separate;
+        assertTrue(String.format("Grouped %d spans take %d bytes, %.0f%% of the %d they take separately",
+                SPANS_PER_TRACE, grouped, 100 * ratio, separate), ratio < 0.6);
+    }
+}
@@ -0,0 +1,121 @@
+package com.logsense.opentracing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.msgpack.value.Value;
+
+import javax.net.ssl.SSLContext;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestLogSenseTransport {
+    private static final String[] PROPERTIES = {
+            LogSenseConfig.SENDER.getPropertyName(),
+            LogSenseConfig.QUEUE_SIZE.getPropertyName(),
+            LogSenseConfig.FLUSH_THRESHOLD.getPropertyName(),
+            LogSenseConfig.QUEUE_DRAIN_INTERVAL_MILLIS.getPropertyName()
+    };
+
+    private FakeFluentdServer server;
+    private SSLContext defaultContext;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeFluentdServer(false).start();
+        defaultContext = SSLContext.getDefault();
+        SSLContext.setDefault(FakeFluentdServer.sslContext());
+        System.setProperty(LogSenseConfig.SENDER.getPropertyName(), LogSenseConfig.SENDER_NIO);
+        System.setProperty(LogSenseConfig.QUEUE_DRAIN_INTERVAL_MILLIS.getPropertyName(), "60000");
+        LogSenseConfig.reload();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+        SSLContext.setDefault(defaultContext);
+        for (String property : PROPERTIES) {
+            System.clearProperty(property);
+        }
+        LogSenseConfig.reload();
+    }
+
+    private int countRecords(String token) {
+        int count = 0;
+        for (Value record : server.getRecords()) {
+            if (record.toString().contains(token)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void awaitRegistered(LogSenseTracer... tracers) throws InterruptedException {
+        // The emitter drains once when it registers a new tracer, then waits for the interval
+        long deadline = System.currentTimeMillis() + 5000;
+        for (LogSenseTracer tracer : tracers) {
+            LogSenseControl control = (LogSenseControl) tracer.getControl();
+            while (control.getObjectName() == null && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    @Test
+    public void testTracersToTheSameEndpointShareOneTransport() throws Exception {
+        int openBefore = LogSenseTransport.getOpenCount();
+        LogSenseTracer a = new LogSenseTracer("token-a", "127.0.0.1", server.getPort());
+        LogSenseTracer b = new LogSenseTracer("token-b", "127.0.0.1", server.getPort());
+        awaitRegistered(a, b);
+        assertEquals(openBefore + 1, LogSenseTransport.getOpenCount());
+
+        for (int i = 0; i < 5; i++) {
+            a.buildSpan("op-a").start().finish();
+            b.buildSpan("op-b").start().finish();
+        }
+        assertEquals(5, a.getQueuedSpanCount());
+        assertEquals(5, b.getQueuedSpanCount());
+
+        a.close();
+        assertEquals("The transport stays open for the other tracer", openBefore + 1, LogSenseTransport.getOpenCount());
+        b.buildSpan("op-b").start().finish();
+        b.close();
+        assertEquals(openBefore, LogSenseTransport.getOpenCount());
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (server.getEventCount() < 11 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(5, countRecords("token-a"));
+        assertEquals(6, countRecords("token-b"));
+        assertEquals(0, a.getSpansLostOnClose());
+        assertEquals(0, b.getSpansLostOnClose());
+    }
+
+    @Test
+    public void testBusyTracerCannotTakeTheWholeQueue() throws Exception {
+        System.setProperty(LogSenseConfig.QUEUE_SIZE.getPropertyName(), "100");
+        System.setProperty(LogSenseConfig.FLUSH_THRESHOLD.getPropertyName(), "100");
+        LogSenseConfig.reload();
+        LogSenseTracer a = new LogSenseTracer("token-a", "127.0.0.1", server.getPort());
+        LogSenseTracer b = new LogSenseTracer("token-b", "127.0.0.1", server.getPort());
+        try {
+            awaitRegistered(a, b);
+            for (int i = 0; i < 200; i++) {
+                a.buildSpan("op-a").start().finish();
+            }
+            for (int i = 0; i < 10; i++) {
+                b.buildSpan("op-b").start().finish();
+            }
+            assertEquals(50, a.getQueuedSpanCount());
+            assertEquals(150, a.getBackpressure().getDroppedCount());
+            assertEquals(10, b.getQueuedSpanCount());
+            assertEquals(0, b.getBackpressure().getDroppedCount());
+        } finally {
+            a.close();
+            b.close();
+        }
+        assertEquals(0, a.getSpansLostOnClose());
+        assertEquals(0, b.getSpansLostOnClose());
+    }
+}
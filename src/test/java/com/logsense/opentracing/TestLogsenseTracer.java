@@ -1,9 +1,24 @@
 package com.logsense.opentracing;
 
 
+import io.opentracing.Span;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
 public class TestLogsenseTracer {
     LogSenseTracer tracer;
     String token;
@@ -14,9 +29,261 @@ public class TestLogsenseTracer {
         tracer = new LogSenseTracer(token);
     }
 
+    @After
+    public void tearDown() {
+        tracer.close();
+    }
+
     @Test
     public void testItStops() {
         // do nothing actually
 
     }
+
+    @Test
+    public void testSpanFinishesOnce() {
+        LogSenseSpan span = (LogSenseSpan) tracer.buildSpan("op").start();
+        assertFalse(span.isFinished());
+        assertTrue(span.markFinished());
+        assertTrue(span.isFinished());
+        assertFalse(span.markFinished());
+        span.finish();
+    }
+
+    @Test
+    public void testLogEventsAreTimestampedAndBounded() {
+        LogSenseSpanModel model = new LogSenseSpanModel();
+        model.setLimits(new LogSenseSpanLimits(128, 128, 4096, 3, 65536, 64, 8192));
+        model.addLogEvent(10, "first");
+        model.addLogEvent(20, "second");
+        model.addLogEvent(30, Collections.singletonMap("event", "error"));
+        model.addLogEvent(40, "dropped");
+
+        List<Map<String, Object>> events = model.getLogEvents();
+        assertEquals(3, events.size());
+        assertEquals("first", events.get(0).get("message"));
+        assertEquals(10L, events.get(0).get(LogSenseSpanLogs.KEY_TIMESTAMP));
+        assertEquals("second", events.get(1).get("message"));
+        assertEquals("error", events.get(2).get("event"));
+        assertEquals(30L, events.get(2).get(LogSenseSpanLogs.KEY_TIMESTAMP));
+        assertEquals(1, model.getDroppedLogEvents());
+    }
+
+    @Test
+    public void testLimitsApplyOnInsertion() {
+        LogSenseSpanModel model = new LogSenseSpanModel();
+        model.setLimits(new LogSenseSpanLimits(2, 4, 8, 10, 1000, 64, 8192));
+        model.setTagValue("long-key", "a value that is too long");
+        model.setTagValue("b", 1L);
+        model.setTagValue("c", true);
+        model.setTagValue("long", "replaced");
+
+        assertEquals(2, model.getTagValues().size());
+        assertEquals("replaced", model.getTagValues().get("long"));
+        assertEquals(2, model.getTruncatedAttributes());
+        assertEquals(1, model.getDroppedAttributes());
+
+        // The record size limit stops further growth
+        for (int i = 0; i < 100; i++) {
+            model.addLogEvent(i, "12345678");
+        }
+        assertTrue(model.getLogEvents().size() < 100);
+        assertEquals(100 - model.getLogEvents().size(), model.getDroppedLogEvents());
+    }
+
+    @Test
+    public void testNameTableStaysWithinLimit() throws InterruptedException {
+        final LogSenseNameTable table = new LogSenseNameTable("names", 100);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        table.intern("name-" + i);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(100, table.size());
+        assertEquals(4 * 900, table.getOverflowCount());
+        assertEquals(LogSenseNameTable.MAX_REPORTED_NAMES, table.getOverflowedNames().size());
+
+        // Every thread starts with it, so it is always kept
+        String kept = table.intern("name-0");
+        assertSame(kept, table.intern(new String("name-0".toCharArray())));
+        assertEquals(LogSenseNameTable.OVERFLOW, table.intern("new-name"));
+    }
+
+    @Test
+    public void testOperationNamesAndTagKeysPastLimitOverflow() throws InterruptedException {
+        System.setProperty(LogSenseConfig.MAX_OPERATION_NAMES.getPropertyName(), "2");
+        System.setProperty(LogSenseConfig.MAX_TAG_KEYS.getPropertyName(), "3");
+        LogSenseConfig.reload();
+        LogSenseRingExporter ring = new LogSenseRingExporter(16);
+        LogSenseTracer limited = new LogSenseTracer(token, ring);
+        try {
+            limited.buildSpan("get").withTag("user-1", 1).start().finish();
+            limited.buildSpan("put").withTag("user-2", 2).start().finish();
+            Span span = limited.buildSpan("get /users/3").start();
+            span.setTag("user-3", 3);
+            span.setTag("user-4", 4);
+            span.finish();
+            limited.flush();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (ring.getExportedCount() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            assertEquals("get", ring.poll().getOperationName());
+            assertEquals("put", ring.poll().getOperationName());
+            LogSenseSpanModel third = ring.poll();
+            assertEquals(LogSenseNameTable.OVERFLOW, third.getOperationName());
+            assertEquals(3L, third.getTagValues().get("user-3"));
+            assertEquals(4L, third.getTagValues().get(LogSenseNameTable.OVERFLOW));
+
+            LogSenseControlMBean control = limited.getControl();
+            assertEquals(2, control.getOperationNameCount());
+            assertEquals(1, control.getOperationNameOverflowCount());
+            assertEquals("get /users/3", control.getOverflowedOperationNames()[0]);
+            assertEquals(3, control.getTagKeyCount());
+            assertEquals("user-4", control.getOverflowedTagKeys()[0]);
+        } finally {
+            limited.close();
+            System.clearProperty(LogSenseConfig.MAX_OPERATION_NAMES.getPropertyName());
+            System.clearProperty(LogSenseConfig.MAX_TAG_KEYS.getPropertyName());
+            LogSenseConfig.reload();
+        }
+    }
+
+    @Test
+    public void testThreadUsageOfSelectedOperations() throws InterruptedException {
+        System.setProperty(LogSenseConfig.USAGE_OPERATIONS.getPropertyName(), "busy, handoff");
+        LogSenseConfig.reload();
+        LogSenseRingExporter ring = new LogSenseRingExporter(16);
+        LogSenseTracer sampled = new LogSenseTracer(token, ring);
+        try {
+            Span busy = sampled.buildSpan("busy").start();
+            byte[][] kept = new byte[16][];
+            long spinUntil = System.nanoTime() + 20000000L;
+            long sum = 0;
+            while (System.nanoTime() < spinUntil) {
+                sum += kept.hashCode() ^ sum;
+            }
+            for (int i = 0; i < kept.length; i++) {
+                kept[i] = new byte[65536];
+            }
+            busy.setTag("sum", sum + kept.length);
+            busy.finish();
+
+            sampled.buildSpan("idle").start().finish();
+
+            final Span handoff = sampled.buildSpan("handoff").start();
+            Thread other = new Thread() {
+                @Override
+                public void run() {
+                    handoff.finish();
+                }
+            };
+            other.start();
+            other.join();
+
+            sampled.flush();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (ring.getExportedCount() < 3 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+
+            LogSenseThreadUsage usage = sampled.getThreadUsage();
+            LogSenseSpanModel busyModel = ring.poll();
+            if (usage.isCpuTimeSupported()) {
+                assertTrue("CPU time " + busyModel.getCpuTimeMicros(), busyModel.getCpuTimeMicros() > 0);
+                assertEquals(busyModel.getCpuTimeMicros(), busyModel.asMap().get("ot.cpu_us"));
+            }
+            if (usage.isAllocatedBytesSupported()) {
+                assertTrue("Allocated " + busyModel.getAllocatedBytes(), busyModel.getAllocatedBytes() >= kept.length * 65536);
+                assertEquals(busyModel.getAllocatedBytes(), busyModel.asMap().get("ot.allocated_bytes"));
+            }
+
+            LogSenseSpanModel idleModel = ring.poll();
+            assertEquals(-1, idleModel.getCpuTimeMicros());
+            assertEquals(-1, idleModel.getAllocatedBytes());
+            assertFalse(idleModel.asMap().containsKey("ot.cpu_us"));
+
+            LogSenseSpanModel handoffModel = ring.poll();
+            assertEquals("handoff", handoffModel.getOperationName());
+            assertEquals("Finished on another thread", -1, handoffModel.getCpuTimeMicros());
+            assertEquals(-1, handoffModel.getAllocatedBytes());
+        } finally {
+            sampled.close();
+            System.clearProperty(LogSenseConfig.USAGE_OPERATIONS.getPropertyName());
+            LogSenseConfig.reload();
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testConstructorDoesNotBlock() throws InterruptedException {
+        // Holds up the background thread, the tracers cannot start before the test lets them
+        final CountDownLatch release = new CountDownLatch(1);
+        LogSenseBackground.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        LogSenseTracer[] tracers = new LogSenseTracer[20];
+        try {
+            // Nothing listens there, the constructor must not care
+            for (int i = 0; i < tracers.length; i++) {
+                tracers[i] = new LogSenseTracer(token, "10.255.255.1", 24224);
+            }
+            assertFalse(tracers[0].awaitStarted(System.nanoTime()));
+            tracers[0].buildSpan("early").start().finish();
+            assertEquals("Spans wait until the tracer started", 1, tracers[0].getQueuedSpanCount());
+        } finally {
+            release.countDown();
+        }
+        for (LogSenseTracer t : tracers) {
+            assertTrue(t.awaitStarted(System.nanoTime() + TimeUnit.SECONDS.toNanos(5)));
+            t.close();
+        }
+        assertEquals("The span is handed over once started", 0, tracers[0].getSpansLostOnClose());
+    }
+
+    @Test
+    public void testRuntimeControl() throws InterruptedException {
+        LogSenseControl control = (LogSenseControl) tracer.getControl();
+        // The emitter thread registers the MBean
+        long deadline = System.currentTimeMillis() + 5000;
+        while (control.getObjectName() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(control.getObjectName()));
+
+        control.setSamplingRate(0.0);
+        Span parent = tracer.buildSpan("parent").start();
+        Span child = tracer.buildSpan("child").asChildOf(parent).start();
+        assertTrue(((LogSenseSpanContext) parent.context()).isSampledOut());
+        assertTrue(((LogSenseSpanContext) child.context()).isSampledOut());
+
+        control.setEnabled(false);
+        assertTrue(tracer.isDisabled());
+        control.setEnabled(true);
+        assertFalse(tracer.isDisabled());
+
+        try {
+            control.setSamplingRate(2.0);
+            fail("Expected the sampling rate to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
 }